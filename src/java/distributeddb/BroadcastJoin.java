@@ -0,0 +1,130 @@
+package distributeddb;
+
+import simpledb.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Equi-join of a small input replicated on every node with the local part of a large input. The
+ * small input is read once, when the operator is opened, into an in-memory hash table which the
+ * large input probes; rewinding only rewinds the large input, so the small input is never fetched
+ * again from the other nodes.
+ */
+public class BroadcastJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private final boolean broadcastLeft;
+    private OpIterator broadcast;
+    private OpIterator local;
+    private final TupleDesc comboTD;
+
+    private transient HashMap<Field, List<Tuple>> table = null;
+    private transient Tuple current = null;
+    private transient Iterator<Tuple> matches = null;
+
+    /**
+     * @param pred the join predicate, field1 refers to the left input and field2 to the right input
+     * @param broadcast the small input, gathered from every node
+     * @param local the large input, read on this node only
+     * @param broadcastLeft true if broadcast is the left input of the join, false if it is the right one
+     */
+    public BroadcastJoin(JoinPredicate pred, OpIterator broadcast, OpIterator local, boolean broadcastLeft) {
+        this.pred = pred;
+        this.broadcast = broadcast;
+        this.local = local;
+        this.broadcastLeft = broadcastLeft;
+        this.comboTD = broadcastLeft ? TupleDesc.merge(broadcast.getTupleDesc(), local.getTupleDesc())
+                : TupleDesc.merge(local.getTupleDesc(), broadcast.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        final int broadcastField = broadcastLeft ? pred.getField1() : pred.getField2();
+        table = new HashMap<>();
+        broadcast.open();
+        try {
+            while (broadcast.hasNext()) {
+                final Tuple t = broadcast.next();
+                List<Tuple> list = table.get(t.getField(broadcastField));
+                if (list == null) {
+                    list = new ArrayList<>();
+                    table.put(t.getField(broadcastField), list);
+                }
+                list.add(t);
+            }
+        } finally {
+            broadcast.close();
+        }
+        local.open();
+        super.open();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        local.close();
+        table = null;
+        current = null;
+        matches = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        local.rewind();
+        current = null;
+        matches = null;
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        final int localField = broadcastLeft ? pred.getField2() : pred.getField1();
+        while (matches == null || !matches.hasNext()) {
+            if (!local.hasNext()) {
+                return null;
+            }
+            current = local.next();
+            final List<Tuple> list = table.get(current.getField(localField));
+            matches = (list == null) ? null : list.iterator();
+        }
+        final Tuple match = matches.next();
+        return broadcastLeft ? merge(match, current) : merge(current, match);
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        final int td1n = t1.getTupleDesc().numFields();
+        final int td2n = t2.getTupleDesc().numFields();
+        final Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++) {
+            t.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < td2n; i++) {
+            t.setField(td1n + i, t2.getField(i));
+        }
+        return t;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return broadcastLeft ? new OpIterator[]{broadcast, local} : new OpIterator[]{local, broadcast};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        broadcast = broadcastLeft ? children[0] : children[1];
+        local = broadcastLeft ? children[1] : children[0];
+    }
+}
@@ -0,0 +1,114 @@
+package distributeddb;
+
+import networking.Machine;
+import querytree.QueryTree;
+import simpledb.*;
+
+import java.util.List;
+
+/**
+ * An {@link Exchange} whose tuples are only received once per open: the first pass keeps them in a
+ * {@link SpillBuffer} as they arrive, and rewind replays the buffer instead of sending the query to
+ * every source again. A nested loop join reading remote data as its inner input rewinds it once per
+ * outer tuple, which would otherwise transfer the whole remote input every time.
+ */
+public class CachedExchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Exchange exchange;
+
+    private transient SpillBuffer buffer = null;
+    private transient boolean received = false; // whether every tuple of the exchange is in buffer
+    private transient DbFileIterator replay = null;
+
+    public CachedExchange(TupleDesc td, List<Machine> sources, QueryTree query) {
+        this.exchange = new Exchange(td, sources, query);
+    }
+
+    /**
+     * @param queries the query run on each source, in the order of sources
+     */
+    public CachedExchange(TupleDesc td, List<Machine> sources, List<QueryTree> queries) {
+        this.exchange = new Exchange(td, sources, queries);
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        buffer = new SpillBuffer(exchange.getTupleDesc());
+        received = false;
+        replay = null;
+        exchange.open();
+        super.open();
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (!received) {
+            // the rest of the stream is needed by the next passes anyway
+            while (exchange.hasNext()) {
+                buffer.add(exchange.next());
+            }
+            received = true;
+            exchange.close();
+        }
+        if (replay == null) {
+            replay = buffer.iterator();
+            replay.open();
+        } else {
+            replay.rewind();
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        exchange.close();
+        if (replay != null) {
+            replay.close();
+            replay = null;
+        }
+        if (buffer != null) {
+            buffer.close();
+            buffer = null;
+        }
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (replay != null) {
+            return replay.hasNext() ? replay.next() : null;
+        }
+        if (!received && exchange.hasNext()) {
+            final Tuple t = exchange.next();
+            buffer.add(t);
+            return t;
+        }
+        if (!received) {
+            received = true;
+            exchange.close();
+        }
+        return null;
+    }
+
+    /**
+     * @return the Exchange receiving the tuples, for its statistics
+     */
+    public Exchange getExchange() {
+        return exchange;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return exchange.getTupleDesc();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0]; // the children run on other nodes
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -0,0 +1,374 @@
+package distributeddb;
+
+import global.Global;
+import networking.Machine;
+import networking.NodeRequestWorker;
+import querytree.QueryTree;
+import simpledb.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Operator gathering the result of one query run on several remote nodes, possibly in a different form on
+ * each of them (see {@link Gather}).<br>
+ * Every remote node is read by its own producer task on {@link Global#REQUEST_POOL}, which groups the
+ * received tuples into batches and hands them over through a bounded blocking queue. Each producer ends
+ * its stream with an end
+ * marker (or an error marker), so the consumer blocks in {@link #fetchNext()} instead of spinning and
+ * knows exactly when every producer is done. When the queue is full, producers block, which throttles
+ * the remote reads to the speed of the consumer; the time spent blocked on either side is recorded
+ * and can be read with the getters below.<br>
+ * The query context of the thread opening the Exchange (see {@link QueryContext}) is checked while the
+ * consumer waits, and the remote queries get what is left of its deadline. Closing the Exchange cancels
+ * the remote queries still running.
+ */
+public class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private static final Logger LOGGER = Logger.getLogger(Exchange.class.getName());
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final int DEFAULT_QUEUE_BATCHES = 16;
+
+    // How often a blocked producer checks whether its stream has been abandoned, and a blocked consumer
+    // whether its query has been cancelled
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final TupleDesc td;
+    private final List<Machine> sources;
+    private final List<QueryTree> queries;
+    private final int batchSize;
+    private final int queueBatches;
+
+    private transient Stream stream = null;
+    private transient QueryContext context = null;
+    private transient Batch current = null;
+    private transient int position = 0;
+
+    // Backpressure statistics, accumulated over every open and rewind
+    private final AtomicLong batchesReceived = new AtomicLong();
+    private final AtomicLong tuplesReceived = new AtomicLong();
+    private final AtomicLong producerBlocks = new AtomicLong();
+    private final AtomicLong producerBlockedNanos = new AtomicLong();
+    private final AtomicLong consumerBlocks = new AtomicLong();
+    private final AtomicLong consumerBlockedNanos = new AtomicLong();
+
+    public Exchange(TupleDesc td, List<Machine> sources, QueryTree query) {
+        this(td, sources, Collections.nCopies(sources.size(), query));
+    }
+
+    /**
+     * @param queries the query run on each source, in the order of sources
+     */
+    public Exchange(TupleDesc td, List<Machine> sources, List<QueryTree> queries) {
+        this(td, sources, queries, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_BATCHES);
+    }
+
+    /**
+     * @param td the TupleDesc of the tuples produced by the queries
+     * @param sources the nodes the queries are sent to
+     * @param queries the query run on each source, in the order of sources
+     * @param batchSize number of tuples handed over at once
+     * @param queueBatches number of batches buffered before the producers block
+     */
+    public Exchange(TupleDesc td, List<Machine> sources, List<QueryTree> queries, int batchSize,
+                    int queueBatches) {
+        if (queries.size() != sources.size()) {
+            throw new IllegalArgumentException(sources.size() + " sources but " + queries.size() + " queries");
+        }
+        this.td = td;
+        this.sources = new ArrayList<>(sources);
+        this.queries = new ArrayList<>(queries);
+        this.batchSize = batchSize;
+        this.queueBatches = queueBatches;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        start();
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        start();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (stream != null) {
+            stream.cancel();
+            stream = null;
+        }
+        current = null;
+        LOGGER.log(Level.FINE, "Exchange for " + queries + ": " + tuplesReceived.get() + " tuples in "
+                + batchesReceived.get() + " batches, producers blocked " + producerBlocks.get() + " times ("
+                + producerBlockedNanos.get() + "ns), consumer blocked " + consumerBlocks.get() + " times ("
+                + consumerBlockedNanos.get() + "ns)");
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (current == null || position == current.size) {
+            if (stream == null || stream.remaining == 0) {
+                return null;
+            }
+            current = stream.take();
+            position = 0;
+            if (current.error != null) {
+                throw new DbException("Remote scan failed: " + current.error);
+            } else if (current.endOfStream) {
+                stream.remaining--;
+                current = null;
+            }
+        }
+        return current.tuples[position++];
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0]; // the children run on other nodes
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+
+    public long getBatchesReceived() {
+        return batchesReceived.get();
+    }
+
+    public long getTuplesReceived() {
+        return tuplesReceived.get();
+    }
+
+    /**
+     * @return the number of times a producer found the queue full and had to wait for the consumer
+     */
+    public long getProducerBlocks() {
+        return producerBlocks.get();
+    }
+
+    public long getProducerBlockedNanos() {
+        return producerBlockedNanos.get();
+    }
+
+    /**
+     * @return the number of times the consumer found the queue empty and had to wait for a producer
+     */
+    public long getConsumerBlocks() {
+        return consumerBlocks.get();
+    }
+
+    public long getConsumerBlockedNanos() {
+        return consumerBlockedNanos.get();
+    }
+
+    /**
+     * Abandons the running stream, if any, and starts a new one
+     */
+    private void start() throws DbException {
+        if (stream != null) {
+            stream.cancel();
+        }
+        current = null;
+        position = 0;
+        context = QueryContext.current();
+        if (context != null) {
+            context.check();
+        }
+        final long timeoutMillis = (context == null) ? 0 : context.remainingMillis();
+        stream = new Stream();
+        for (int i = 0; i < sources.size(); i++) {
+            long t1 = System.nanoTime();
+            try {
+                final Producer producer = new Producer(stream, sources.get(i), queries.get(i), timeoutMillis);
+                stream.producers.add(producer);
+                Global.REQUEST_POOL.submit(producer);
+            } catch (RejectedExecutionException e) {
+                stream.cancel();
+                stream = null;
+                throw new DbException("Too many concurrent remote scans: " + e.getMessage());
+            }
+            long t2 = System.nanoTime();
+            Global.PROFILER.incrementType(Profiler.Type.SOCKET, t2 - t1);
+        }
+    }
+
+    /**
+     * A group of tuples, or the end marker of one producer
+     */
+    private static class Batch {
+        final Tuple[] tuples;
+        int size = 0;
+        final boolean endOfStream;
+        final String error;
+
+        Batch(int capacity) {
+            this.tuples = new Tuple[capacity];
+            this.endOfStream = false;
+            this.error = null;
+        }
+
+        Batch(String error) {
+            this.tuples = new Tuple[0];
+            this.endOfStream = true;
+            this.error = error;
+        }
+    }
+
+    /**
+     * The queue of one open (or rewind) of the Exchange
+     */
+    private class Stream {
+        private final BlockingQueue<Batch> queue = new LinkedBlockingQueue<>(queueBatches);
+        private final List<Producer> producers = new ArrayList<>(); // only touched by the consumer
+        private volatile boolean cancelled = false;
+        // only touched by the consumer
+        private int remaining = sources.size();
+
+        /**
+         * Called by producers; blocks while the queue is full
+         * @return false if the stream has been abandoned and the producer should stop
+         */
+        boolean put(Batch batch) throws InterruptedException {
+            if (queue.offer(batch)) {
+                return true;
+            }
+            producerBlocks.incrementAndGet();
+            final long start = System.nanoTime();
+            try {
+                while (!cancelled) {
+                    if (queue.offer(batch, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+                return false;
+            } finally {
+                producerBlockedNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        Batch take() throws DbException {
+            if (context != null) {
+                context.check();
+            }
+            Batch batch = queue.poll();
+            if (batch == null) {
+                consumerBlocks.incrementAndGet();
+                final long start = System.nanoTime();
+                try {
+                    while (batch == null) {
+                        if (context != null) {
+                            context.check();
+                        }
+                        batch = queue.poll(OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    throw new DbException("Interrupted while waiting for remote tuples");
+                } finally {
+                    consumerBlockedNanos.addAndGet(System.nanoTime() - start);
+                }
+            }
+            if (!batch.endOfStream) {
+                batchesReceived.incrementAndGet();
+                tuplesReceived.addAndGet(batch.size);
+            }
+            return batch;
+        }
+
+        void cancel() {
+            cancelled = true;
+            for (Producer producer : producers) {
+                producer.worker.cancel(); // only reaches the nodes whose response is not over
+            }
+            queue.clear(); // wake up blocked producers
+        }
+    }
+
+    /**
+     * Reads the result of a query on one machine into a Stream
+     */
+    private class Producer implements Runnable {
+        private final Stream stream;
+        private final Machine machine;
+        private final NodeRequestWorker worker;
+        private Batch batch = new Batch(batchSize);
+
+        Producer(Stream stream, Machine machine, QueryTree query, long timeoutMillis) {
+            this.stream = stream;
+            this.machine = machine;
+            this.worker = NodeRequestWorker.forTuples(machine.ipAddress, machine.port, query, timeoutMillis,
+                    new Function<Tuple, Void>() {
+                        @Override
+                        public Void apply(Tuple t) {
+                            batch.tuples[batch.size++] = t;
+                            if (batch.size == batchSize) {
+                                flush();
+                            }
+                            return null;
+                        }
+                    });
+        }
+
+        @Override
+        public void run() {
+            String error = null;
+            try {
+                worker.run();
+                flush();
+            } catch (Abandoned e) {
+                return; // nobody is listening anymore
+            } catch (RuntimeException e) {
+                if (stream.cancelled) {
+                    return; // the connection has been closed by cancel
+                }
+                LOGGER.log(Level.WARNING, "Scan on " + machine + " failed", e);
+                error = machine + ": " + e.getMessage();
+            }
+            try {
+                stream.put(error == null ? new Batch((String) null) : new Batch(error));
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void flush() {
+            if (batch.size == 0) {
+                return;
+            }
+            try {
+                if (!stream.put(batch)) {
+                    throw new Abandoned();
+                }
+            } catch (InterruptedException e) {
+                throw new Abandoned();
+            }
+            batch = new Batch(batchSize);
+        }
+    }
+
+    /**
+     * Thrown from a tuple handler to stop reading a stream that has been abandoned; the connection is
+     * then dropped instead of being returned to the pool
+     */
+    private static class Abandoned extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,93 @@
+package distributeddb;
+
+import networking.Machine;
+import networking.NodeServer;
+import querytree.QueryTree;
+import simpledb.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Operator returning the result of a query run on every node: the local result, followed by the
+ * results sent by the peers of the node. The query must only read local data, so that every node
+ * contributes its own share exactly once; e.g. a {@link querytree.QPartition} gathers one partition
+ * of an input for a shuffle join, a plain query replicates a whole input on every node for a
+ * broadcast join.
+ * <p>
+ * The operators of the query that split their work between the nodes (see {@link QueryTree#forPartition})
+ * run a different share on each node: the local query runs share 0 and the i-th peer share i + 1. A
+ * shuffle join nested in the query thus returns each row of its result from a single node, instead of
+ * every node computing the share of the node running this operator.
+ */
+public class Gather extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final List<Machine> peers;
+    private final List<QueryTree> peerQueries;
+
+    private OpIterator local;
+    private CachedExchange remote;
+
+    /**
+     * @param node the node running this operator, whose peers are read
+     * @param query the query run on every node
+     */
+    public Gather(NodeServer node, QueryTree query) {
+        this.peers = node.getReferences();
+        this.peerQueries = new ArrayList<>();
+        for (int i = 0; i < peers.size(); i++) {
+            peerQueries.add(query.forPartition(i + 1, peers.size() + 1));
+        }
+        this.local = query.forPartition(0, peers.size() + 1).getRootOp();
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        local.open();
+        remote = new CachedExchange(local.getTupleDesc(), peers, peerQueries);
+        remote.open();
+        super.open();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        local.close();
+        if (remote != null) {
+            remote.close();
+        }
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        local.rewind();
+        remote.rewind();
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (local.hasNext()) {
+            return local.next();
+        } else if (remote.hasNext()) {
+            return remote.next();
+        }
+        return null;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return local.getTupleDesc();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{local};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        local = children[0];
+    }
+}
@@ -1,18 +1,10 @@
 package distributeddb;
 
-import global.Global;
-import networking.Machine;
-import networking.NodeRequestWorker;
 import networking.NodeServer;
 import querytree.QueryTree;
 import simpledb.*;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.function.Function;
 
 public class GlobalSeqScan implements OpIterator {
 
@@ -24,7 +16,7 @@ public class GlobalSeqScan implements OpIterator {
 
     // Fields for outputting tuples
     private DbFileIterator tupleIterator;
-    private TupleQueue queue;
+    private CachedExchange remote; // the partitions of the other nodes, only received once per open
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -67,7 +59,8 @@ public class GlobalSeqScan implements OpIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         tupleIterator.open();
-        resetQueuing();
+        remote = new CachedExchange(getTupleDesc(), node.getReferences(), QueryTree.scan(null, tableName, tableAlias));
+        remote.open();
     }
 
     /**
@@ -94,7 +87,7 @@ public class GlobalSeqScan implements OpIterator {
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
-        return tupleIterator.hasNext() || queue.hasNext();
+        return tupleIterator.hasNext() || remote.hasNext();
     }
 
     public Tuple next() throws NoSuchElementException,
@@ -104,7 +97,7 @@ public class GlobalSeqScan implements OpIterator {
             return t;
         }
         else {
-            Tuple t = queue.next();
+            Tuple t = remote.next();
             //System.out.println("GlobalSeqScan: " + t);
             return t;
         }
@@ -112,86 +105,14 @@ public class GlobalSeqScan implements OpIterator {
 
     public void close() {
         tupleIterator.close();
+        if (remote != null) {
+            remote.close();
+        }
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         tupleIterator.rewind();
-        resetQueuing();
-    }
-
-    private void resetQueuing() {
-        queue = new TupleQueue();
-        List<Machine> references = node.getReferences();
-        for (Machine machine : references) {
-            NodeRequestWorker worker = new NodeRequestWorker(machine.ipAddress, machine.port,
-                    QueryTree.scan(null, tableName, tableAlias), new Function<String, Void>() {
-                @Override
-                public Void apply(String s) {
-                    // TODO: fix the parsing
-                    long tend = System.nanoTime();
-                    if (s.startsWith("TIME")){
-                        long start = Long.parseLong(s.split(" ")[1]);
-                        Global.PROFILER.incrementType(Profiler.Type.TRANSFER, tend-start);
-                    }
-                    String[] parsed = s.split(" ");
-                    Tuple t = new Tuple(Database.getCatalog().getTupleDesc(Database.getCatalog().getTableId(tableName)));
-
-                    for (int i = 0; i < parsed.length; i++) {
-                        t.setField(i, new IntField(Integer.parseInt(parsed[i])));
-                    }
-                    try {
-                        queue.addTuple(t);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    return null;
-                }
-            });
-            Thread thread = new Thread(worker);
-            queue.addWorker(thread);
-            long t1 = System.nanoTime();
-            thread.start();
-            long t2 = System.nanoTime();
-            Global.PROFILER.incrementType(Profiler.Type.SOCKET, t2-t1);
-        }
-    }
-
-    private class TupleQueue {
-        private final BlockingQueue<Tuple> queue;
-        private List<Thread> workers;
-
-        public TupleQueue() {
-            queue = new LinkedBlockingQueue<>(100);
-            workers = new ArrayList<>();
-        }
-
-        public void addTuple(Tuple tuple) throws InterruptedException {
-            queue.put(tuple);
-        }
-
-        public void addWorker(Thread thread) {
-            workers.add(thread);
-        }
-
-        public boolean hasNext() {
-            while (queue.isEmpty() && !allWorkersDone()) {
-                // block while it is possible for the queue to fetch tuples and it has no tuples
-            }
-            if (!queue.isEmpty()) return true;
-            return !allWorkersDone();
-        }
-
-        public Tuple next() {
-            return queue.poll();
-        }
-
-        private boolean allWorkersDone() {
-            for (Thread worker : workers) {
-                if (worker.isAlive()) return false;
-            }
-            return true;
-        }
+        remote.rewind();
     }
-
 }
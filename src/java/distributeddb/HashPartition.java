@@ -0,0 +1,84 @@
+package distributeddb;
+
+import simpledb.*;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Operator returning the tuples of its child that belong to one hash partition of a column. Every
+ * node uses the same hash function, so the tuples of all the nodes with equal values in that column
+ * end up in the same partition.
+ */
+public class HashPartition extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int field;
+    private final int partition;
+    private final int numPartitions;
+
+    /**
+     * @param child the tuples to partition
+     * @param field the column hashed
+     * @param partition the partition returned, from 0 to numPartitions - 1
+     * @param numPartitions the number of partitions
+     */
+    public HashPartition(OpIterator child, int field, int partition, int numPartitions) {
+        this.child = child;
+        this.field = field;
+        this.partition = partition;
+        this.numPartitions = numPartitions;
+    }
+
+    /**
+     * @return the partition, from 0 to numPartitions - 1, of a value
+     */
+    public static int partitionOf(Field value, int numPartitions) {
+        // spread consecutive values (IntField hashes to itself) before taking the modulo
+        final int hash = value.hashCode() * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), numPartitions);
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (child.hasNext()) {
+            final Tuple t = child.next();
+            if (partitionOf(t.getField(field), numPartitions) == partition) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+}
@@ -1,6 +1,7 @@
 package global;
 
 import distributeddb.Profiler;
+import networking.ConnectionPool;
 import simpledb.TransactionId;
 
 import java.util.ArrayList;
@@ -17,6 +18,13 @@ public class Global {
 
     public static final Profiler PROFILER= new Profiler();
 
+    // Persistent connections to NodeServers, shared by the head node and by peers
+    public static final ConnectionPool CONNECTION_POOL = new ConnectionPool();
+
+    // Runs outgoing requests to NodeServers (NodeRequestWorkers, Exchange producers)
+    public static final WorkerPool REQUEST_POOL =
+            WorkerPool.fromProperties("requests", WorkerPool.Mode.PLATFORM, 256, 4096, true);
+
     // IP Address for localhost
     public static final String LOCALHOST = "127.0.0.1";
     
@@ -0,0 +1,212 @@
+package global;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes the tasks of one part of the system (connection handling, outgoing requests, ...) on either
+ * a bounded pool of platform threads or on virtual threads.<br>
+ * In both modes at most maxThreads + queueLimit tasks are admitted at a time; a task submitted beyond
+ * that is rejected with a {@link RejectedExecutionException} instead of piling up native threads, and
+ * counted in {@link #getRejectedCount()}.<br>
+ * The mode and limits of a named pool are read from the system properties
+ * simpledb.executor.&lt;name&gt;.mode (platform or virtual), simpledb.executor.&lt;name&gt;.threads and
+ * simpledb.executor.&lt;name&gt;.queue, falling back to simpledb.executor.mode, ... and then to the
+ * defaults given to {@link #fromProperties}.
+ *
+ * @Threadsafe
+ */
+public class WorkerPool {
+
+    private static final Logger LOGGER = Logger.getLogger(WorkerPool.class.getName());
+
+    public enum Mode {
+        PLATFORM,
+        VIRTUAL,
+    }
+
+    private final String name;
+    private final Mode mode;
+    private final int maxThreads;
+    private final int queueLimit;
+    private final ExecutorService executor;
+    private final Semaphore admission;
+
+    // Statistics
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * @param name used for thread names and in log messages
+     * @param mode the kind of threads running the tasks; VIRTUAL falls back to PLATFORM on JVMs
+     *             without virtual threads
+     * @param maxThreads number of tasks running at the same time (for VIRTUAL, the number of admitted
+     *                   tasks is still bounded by maxThreads + queueLimit)
+     * @param queueLimit number of tasks waiting for a thread before new tasks are rejected
+     * @param daemon whether platform threads should not keep the JVM alive
+     */
+    public WorkerPool(String name, Mode mode, int maxThreads, int queueLimit, boolean daemon) {
+        this.name = name;
+        this.maxThreads = maxThreads;
+        this.queueLimit = queueLimit;
+        this.admission = new Semaphore(maxThreads + queueLimit);
+        ExecutorService virtual = mode == Mode.VIRTUAL ? newVirtualThreadExecutor() : null;
+        if (virtual != null) {
+            this.mode = Mode.VIRTUAL;
+            this.executor = virtual;
+        } else {
+            if (mode == Mode.VIRTUAL) {
+                LOGGER.log(Level.WARNING, "Virtual threads are not available, pool " + name
+                        + " uses platform threads");
+            }
+            this.mode = Mode.PLATFORM;
+            // the queue itself is unbounded, admission is controlled by the semaphore
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name, daemon));
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+        }
+    }
+
+    /**
+     * Creates a pool configured by the system properties described above
+     */
+    public static WorkerPool fromProperties(String name, Mode defaultMode, int defaultThreads, int defaultQueue,
+                                            boolean daemon) {
+        final String mode = property(name, "mode", defaultMode.name());
+        final int threads = Integer.parseInt(property(name, "threads", "" + defaultThreads));
+        final int queue = Integer.parseInt(property(name, "queue", "" + defaultQueue));
+        return new WorkerPool(name, Mode.valueOf(mode.toUpperCase()), threads, queue, daemon);
+    }
+
+    private static String property(String name, String key, String defaultValue) {
+        return System.getProperty("simpledb.executor." + name + "." + key,
+                System.getProperty("simpledb.executor." + key, defaultValue));
+    }
+
+    /**
+     * Submits a task
+     * @param task the task to run
+     * @return a Future completing when the task is done
+     * @throws RejectedExecutionException if the pool already holds maxThreads + queueLimit tasks
+     */
+    public Future<?> submit(final Runnable task) {
+        if (!admission.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Pool " + name + " is full (" + maxThreads + " threads, "
+                    + queueLimit + " queued tasks)");
+        }
+        submitted.incrementAndGet();
+        try {
+            return executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    active.incrementAndGet();
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Task failed in pool " + name, e);
+                        throw e;
+                    } finally {
+                        active.decrementAndGet();
+                        completed.incrementAndGet();
+                        admission.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            admission.release();
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * @return the number of tasks currently running
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * @return the number of admitted tasks still waiting for a thread
+     */
+    public int getQueuedCount() {
+        return Math.max(0, maxThreads + queueLimit - admission.availablePermits() - active.get());
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + mode + ", active=" + getActiveCount() + ", queued=" + getQueuedCount()
+                + ", completed=" + getCompletedCount() + ", rejected=" + getRejectedCount() + "]";
+    }
+
+    /**
+     * Uses Executors.newVirtualThreadPerTaskExecutor through reflection, so that the code still builds
+     * and runs on JVMs without virtual threads
+     * @return the executor, or null if virtual threads are not available
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            final Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final boolean daemon;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String name, boolean daemon) {
+            this.name = name;
+            this.daemon = daemon;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(daemon);
+            return thread;
+        }
+    }
+}
@@ -1,101 +1,96 @@
 package networking;
 
-import global.Utils;
 import querytree.QueryTree;
 import simpledb.*;
 import querytree.QAggregate;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * Merges on the head node the partial aggregates sent by every node (see {@link QAggregate#partial}):
+ * a tuple per group, holding the group by field if any, then one column per aggregate, or two
+ * (the sum and the count) for AVG.
  * Created by aditisri on 11/20/17.
  */
 public class AggregateResult {
-    private List<Tuple> hits;
-    private QueryTree queryTree;
-    private int count;
-    private int min;
-    private int max;
-    private int sum;
+    private QAggregate queryTree;
+    // the merged state of each group, two ints per aggregate: its value, or its sum and count for AVG
+    private final Map<Field, int[]> groups = new LinkedHashMap<>();
+    private static final Field ALL = new StringField("ALL", 3);
     private static final Logger LOGGER = Logger.getLogger(AggregateResult.class.getName());
 
     public AggregateResult(QueryTree queryTree){
-        this.hits = new ArrayList<>();
-        this.queryTree = queryTree;
-        this.count = 0;
-        this.min = Integer.MAX_VALUE;
-        this.max = Integer.MIN_VALUE;
-        this.sum = 0;
+        this.queryTree = (queryTree instanceof QAggregate) ? (QAggregate) queryTree : null;
     }
 
-    public void merge(String stringTup){
-        LOGGER.log(Level.INFO, stringTup);
-        QAggregate aggTree = (QAggregate) this.queryTree;
-        TupleDesc td = null;
-        if (aggTree.getAggregator() == Aggregator.Op.AVG){
-            Type[] typeArr = {Type.INT_TYPE, Type.INT_TYPE};
-            String[] fieldArr = {"count", "sum"};
-            td = new TupleDesc(typeArr, fieldArr);
+    public synchronized void merge(Tuple t){
+        LOGGER.log(Level.INFO, t.toString());
+        final Field group = queryTree.isGrouped() ? t.getField(0) : ALL;
+        int[] state = groups.get(group);
+        final boolean first = (state == null);
+        if (first) {
+            state = new int[2 * queryTree.numAggregates()];
+            groups.put(group, state);
         }
-        else{
-            Type[] typeArr = {Type.INT_TYPE};
-            String[] fieldArr = {"aggField"};
-            td = new TupleDesc(typeArr, fieldArr);
+        int col = queryTree.isGrouped() ? 1 : 0;
+        for (int i = 0; i < queryTree.numAggregates(); i++) {
+            final int value = ((IntField) t.getField(col++)).getValue();
+            if (queryTree.getAggregator(i) == Aggregator.Op.AVG) {
+                state[2 * i] += value;
+                state[2 * i + 1] += ((IntField) t.getField(col++)).getValue();
+            } else if (first) {
+                state[2 * i] = value;
+            } else {
+                switch (queryTree.combiner(i)) {
+                    case MIN:
+                        state[2 * i] = Math.min(state[2 * i], value);
+                        break;
+                    case MAX:
+                        state[2 * i] = Math.max(state[2 * i], value);
+                        break;
+                    default:
+                        state[2 * i] += value;
+                }
+            }
         }
-        Tuple t = Utils.stringToTuple(td, stringTup);
-        int value = ((IntField) t.getField(0)).getValue();
-        switch(aggTree.getAggregator()){
-            case COUNT:
-                this.count += value;
-                break;
-            case MIN:
-                this.min = Math.min(this.min, value);
-                break;
-            case MAX:
-                this.max = Math.max(this.max, value);
-                break;
-            case SUM:
-                this.sum += value;
-                break;
-            case AVG:
-                int sum = ((IntField)t.getField(1)).getValue();
-                this.count += value;
-                this.sum += sum;
+    }
+
+    /**
+     * @return a tuple per group, holding the group by field if any, then the value of every aggregate
+     */
+    public synchronized List<Tuple> getResults() {
+        final List<Tuple> results = new ArrayList<>();
+        for (Map.Entry<Field, int[]> group : groups.entrySet()) {
+            final int first = queryTree.isGrouped() ? 1 : 0;
+            final Type[] types = new Type[first + queryTree.numAggregates()];
+            Arrays.fill(types, Type.INT_TYPE);
+            if (queryTree.isGrouped()) {
+                types[0] = group.getKey().getType();
+            }
+            final Tuple t = new Tuple(new TupleDesc(types));
+            if (queryTree.isGrouped()) {
+                t.setField(0, group.getKey());
             }
+            final int[] state = group.getValue();
+            for (int i = 0; i < queryTree.numAggregates(); i++) {
+                final int value = (queryTree.getAggregator(i) == Aggregator.Op.AVG)
+                        ? state[2 * i] / state[2 * i + 1] : state[2 * i];
+                t.setField(first + i, new IntField(value));
+            }
+            results.add(t);
         }
+        return results;
+    }
 
     public void printResult(){
-        QAggregate aggTree = (QAggregate) this.queryTree;
-//        int aggVal = 0;
-        switch(aggTree.getAggregator()){
-            case COUNT:
-                System.out.println(this.count);
-                break;
-            case MIN:
-                System.out.println(this.min);
-                break;
-            case MAX:
-                System.out.println(this.max);
-                break;
-            case SUM:
-                System.out.println(this.sum);
-                break;
-            case AVG:
-                System.out.println(this.sum/this.count);
+        for (Tuple t : getResults()) {
+            System.out.println(t);
         }
-
-//        Tuple resultTuple = new Tuple(td);
-//        resultTuple.setField(0, new IntField(aggVal));
-//        List<Tuple> resultSet = new ArrayList<>();
-//        resultSet.add(resultTuple);
     }
-
-
-
-
-
-
 }
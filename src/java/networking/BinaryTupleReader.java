@@ -0,0 +1,117 @@
+package networking;
+
+import simpledb.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Reads one response written by {@link BinaryTupleWriter}. A whole frame is decoded at once, column by
+ * column, and its tuples are then handed out one at a time by {@link #next()}.
+ */
+public class BinaryTupleReader {
+
+    private final DataInputStream in;
+    private TupleDesc td = null;
+    private Tuple[] frame = new Tuple[0];
+    private int frameSize = 0;
+    private int position = 0;
+    private boolean finished = false;
+
+    public BinaryTupleReader(DataInputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the header of the response
+     * @return the TupleDesc of the tuples in the response
+     * @throws IOException if the connection is broken or the stream is malformed
+     */
+    public TupleDesc readHeader() throws IOException {
+        final int numFields = in.readInt();
+        if (numFields <= 0) {
+            throw new IOException("Malformed header: " + numFields + " fields");
+        }
+        final Type[] types = new Type[numFields];
+        final String[] names = new String[numFields];
+        for (int i = 0; i < numFields; i++) {
+            types[i] = WireProtocol.byteToType(in.readByte());
+            names[i] = in.readUTF();
+        }
+        td = new TupleDesc(types, names);
+        return td;
+    }
+
+    /**
+     * @return the TupleDesc read by readHeader, null if the header has not been read
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return true once the end (or error) marker of the response has been consumed, i.e. the
+     *         underlying stream is positioned at the start of the next response
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Returns the next tuple of the response
+     * @return the next tuple, or null if the response is over
+     * @throws IOException if the connection is broken or the server reported an error
+     */
+    public Tuple next() throws IOException {
+        if (td == null) {
+            readHeader();
+        }
+        while (position == frameSize) {
+            if (finished || !readFrame()) {
+                return null;
+            }
+        }
+        final Tuple t = frame[position];
+        frame[position++] = null;
+        return t;
+    }
+
+    /**
+     * Decodes the next frame
+     * @return false if the end of the response has been reached
+     */
+    private boolean readFrame() throws IOException {
+        final int rows = in.readInt();
+        if (rows == WireProtocol.END_OF_STREAM) {
+            finished = true;
+            return false;
+        } else if (rows == WireProtocol.ERROR) {
+            finished = true;
+            throw new IOException("Remote error: " + in.readUTF());
+        } else if (rows < 0) {
+            throw new IOException("Malformed frame: " + rows + " rows");
+        }
+        if (frame.length < rows) {
+            frame = new Tuple[rows];
+        }
+        for (int row = 0; row < rows; row++) {
+            frame[row] = new Tuple(td);
+        }
+        for (int col = 0; col < td.numFields(); col++) {
+            if (td.getFieldType(col) == Type.INT_TYPE) {
+                for (int row = 0; row < rows; row++) {
+                    frame[row].setField(col, new IntField(in.readInt()));
+                }
+            } else {
+                for (int row = 0; row < rows; row++) {
+                    final byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    frame[row].setField(col, new StringField(new String(bytes, "UTF-8"), Type.STRING_LEN));
+                }
+            }
+        }
+        frameSize = rows;
+        position = 0;
+        return true;
+    }
+}
@@ -0,0 +1,97 @@
+package networking;
+
+import simpledb.*;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes tuples in the binary framing described in {@link WireProtocol}. Tuples are buffered and sent
+ * in frames of up to frameRows rows; inside a frame the values are laid out column by column, each
+ * column encoded according to its Type, so no per-tuple formatting or parsing takes place.
+ */
+public class BinaryTupleWriter implements TupleWriter {
+
+    private final DataOutputStream out;
+    private final Tuple[] frame;
+    private int frameSize = 0;
+    private TupleDesc td = null;
+
+    public BinaryTupleWriter(DataOutputStream out) {
+        this(out, WireProtocol.DEFAULT_FRAME_ROWS);
+    }
+
+    public BinaryTupleWriter(DataOutputStream out, int frameRows) {
+        this.out = out;
+        this.frame = new Tuple[frameRows];
+    }
+
+    @Override
+    public void begin(TupleDesc td) throws IOException {
+        this.td = td;
+        this.frameSize = 0;
+        out.writeInt(td.numFields());
+        for (int i = 0; i < td.numFields(); i++) {
+            out.writeByte(WireProtocol.typeToByte(td.getFieldType(i)));
+            out.writeUTF(td.getFieldName(i));
+        }
+    }
+
+    @Override
+    public void write(Tuple t) throws IOException {
+        assert td != null : "begin() must be called before write()";
+        frame[frameSize++] = t;
+        if (frameSize == frame.length) {
+            flushFrame();
+        }
+    }
+
+    @Override
+    public void end() throws IOException {
+        flushFrame();
+        out.writeInt(WireProtocol.END_OF_STREAM);
+        out.flush();
+        td = null;
+    }
+
+    @Override
+    public void error(String message) throws IOException {
+        if (td == null) {
+            // the client always expects a header first
+            begin(new TupleDesc(new Type[]{Type.INT_TYPE}));
+        }
+        frameSize = 0;
+        out.writeInt(WireProtocol.ERROR);
+        out.writeUTF(message == null ? "unknown error" : message);
+        out.flush();
+        td = null;
+    }
+
+    /**
+     * Sends the buffered tuples as one frame, column by column
+     */
+    private void flushFrame() throws IOException {
+        if (frameSize == 0) {
+            return;
+        }
+        out.writeInt(frameSize);
+        for (int col = 0; col < td.numFields(); col++) {
+            if (td.getFieldType(col) == Type.INT_TYPE) {
+                for (int row = 0; row < frameSize; row++) {
+                    out.writeInt(((IntField) frame[row].getField(col)).getValue());
+                }
+            } else {
+                for (int row = 0; row < frameSize; row++) {
+                    final byte[] bytes = ((StringField) frame[row].getField(col)).getValue().getBytes("UTF-8");
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+        }
+        for (int row = 0; row < frameSize; row++) {
+            frame[row] = null;
+        }
+        frameSize = 0;
+        out.flush();
+    }
+}
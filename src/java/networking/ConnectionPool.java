@@ -0,0 +1,166 @@
+package networking;
+
+import java.io.IOException;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps idle {@link NodeConnection}s per Machine so that repeated queries (and every rewind of a
+ * GlobalSeqScan) reuse an open socket instead of paying a TCP handshake each time.<br>
+ * A connection is leased to one request at a time and must be given back with {@link #release} once
+ * its response has been read completely, or dropped with {@link #invalidate} if the stream is in an
+ * unknown state. Connections idle for longer than validateAfterMillis are pinged before reuse, and
+ * connections idle for longer than maxIdleMillis are closed.<br>
+ * Every request carries an id from {@link #nextRequestId()} which the server echoes in front of its
+ * response, so a desynchronized stream is detected instead of being read as the wrong result. Ids start
+ * at a random offset, so that the ids of different clients do not collide when a request is cancelled.
+ *
+ * @Threadsafe
+ */
+public class ConnectionPool {
+
+    private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+
+    public static final long DEFAULT_MAX_IDLE_MILLIS = 60000;
+    public static final long DEFAULT_VALIDATE_AFTER_MILLIS = 2000;
+    public static final int DEFAULT_MAX_IDLE_PER_MACHINE = 16;
+    private static final int PING_TIMEOUT_MILLIS = 1000;
+
+    private final Map<Machine, Deque<NodeConnection>> idle = new ConcurrentHashMap<>();
+    private final long maxIdleMillis;
+    private final long validateAfterMillis;
+    private final int maxIdlePerMachine;
+    private final AtomicLong nextRequestId =
+            new AtomicLong((ThreadLocalRandom.current().nextLong() & 0x7fffffff00000000L) + 1);
+
+    // Statistics
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    public ConnectionPool() {
+        this(DEFAULT_MAX_IDLE_MILLIS, DEFAULT_VALIDATE_AFTER_MILLIS, DEFAULT_MAX_IDLE_PER_MACHINE);
+    }
+
+    /**
+     * @param maxIdleMillis idle connections older than this are closed instead of reused
+     * @param validateAfterMillis idle connections older than this are pinged before being reused
+     * @param maxIdlePerMachine number of idle connections kept for each machine
+     */
+    public ConnectionPool(long maxIdleMillis, long validateAfterMillis, int maxIdlePerMachine) {
+        this.maxIdleMillis = maxIdleMillis;
+        this.validateAfterMillis = validateAfterMillis;
+        this.maxIdlePerMachine = maxIdlePerMachine;
+    }
+
+    /**
+     * @return a fresh id for a request
+     */
+    public long nextRequestId() {
+        return nextRequestId.getAndIncrement();
+    }
+
+    /**
+     * Leases a connection to machine, reusing an idle one if a healthy one is available
+     * @param machine the NodeServer to talk to
+     * @return a connection that is not used by anybody else
+     * @throws IOException if a new connection cannot be opened
+     */
+    public NodeConnection borrow(Machine machine) throws IOException {
+        final Deque<NodeConnection> connections = idleConnections(machine);
+        for (NodeConnection c = connections.pollFirst(); c != null; c = connections.pollFirst()) {
+            final long idleMillis = System.currentTimeMillis() - c.getLastUsed();
+            if (c.isClosed() || idleMillis > maxIdleMillis
+                    || (idleMillis > validateAfterMillis && !c.ping(PING_TIMEOUT_MILLIS))) {
+                drop(c);
+                continue;
+            }
+            reused.incrementAndGet();
+            return c;
+        }
+        opened.incrementAndGet();
+        return NodeConnection.open(machine);
+    }
+
+    /**
+     * Gives back a connection whose last response has been read completely
+     * @param connection the leased connection
+     */
+    public void release(NodeConnection connection) {
+        connection.touch();
+        final Deque<NodeConnection> connections = idleConnections(connection.getMachine());
+        if (connection.isClosed() || connections.size() >= maxIdlePerMachine) {
+            drop(connection);
+        } else {
+            // most recently used first, so that the oldest connections age out
+            connections.offerFirst(connection);
+        }
+    }
+
+    /**
+     * Closes a leased connection that cannot be reused, e.g. after an I/O error or an abandoned response
+     * @param connection the leased connection
+     */
+    public void invalidate(NodeConnection connection) {
+        drop(connection);
+    }
+
+    /**
+     * Asks machine to stop the query of a request, on a connection of the pool
+     * @param machine the NodeServer running the request
+     * @param requestId the id the request was sent with
+     * @return true if the request was still running
+     * @throws IOException if the node cannot be reached
+     */
+    public boolean cancel(Machine machine, long requestId) throws IOException {
+        final NodeConnection connection = borrow(machine);
+        final boolean cancelled;
+        try {
+            cancelled = connection.cancel(requestId);
+        } catch (IOException e) {
+            invalidate(connection);
+            throw e;
+        }
+        release(connection);
+        return cancelled;
+    }
+
+    /**
+     * Closes every idle connection
+     */
+    public void closeIdle() {
+        for (Deque<NodeConnection> connections : idle.values()) {
+            for (NodeConnection c = connections.pollFirst(); c != null; c = connections.pollFirst()) {
+                drop(c);
+            }
+        }
+    }
+
+    public long getOpenedCount() {
+        return opened.get();
+    }
+
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    private Deque<NodeConnection> idleConnections(Machine machine) {
+        return idle.computeIfAbsent(machine, m -> new ConcurrentLinkedDeque<>());
+    }
+
+    private void drop(NodeConnection connection) {
+        discarded.incrementAndGet();
+        LOGGER.log(Level.FINE, "Closing connection to " + connection.getMachine());
+        connection.close();
+    }
+}
@@ -2,14 +2,27 @@ package networking;
 
 import distributeddb.Profiler;
 import global.Global;
+import querytree.JoinPlanner;
+import querytree.QLimit;
+import querytree.QOrderBy;
+import querytree.QTopN;
 import querytree.QueryParser;
 import querytree.QueryTree;
+import simpledb.DbException;
+import simpledb.Tuple;
 
 import java.io.*;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -30,9 +43,25 @@ public class HeadNode {
     private final List<String> childrenIps = new ArrayList<>();
     private final List<Integer> childrenPorts = new ArrayList<>();
     private static final Logger LOGGER = Logger.getLogger(HeadNode.class.getName());
+    // the time a query may run for, 0 for no limit
+    private long queryTimeoutMillis = Long.getLong("simpledb.query.timeoutMillis", 0);
+    // the number of tuples of each table over all the nodes, to plan the joins
+    private final Map<String, Long> tableRows = new ConcurrentHashMap<>();
 
     public HeadNode(){
     }
+
+    /**
+     * Limits the time the queries run for: past it, the nodes stop them and their cursor fails
+     * @param timeoutMillis the time a query may run for, 0 for no limit
+     */
+    public void setQueryTimeout(long timeoutMillis) {
+        this.queryTimeoutMillis = timeoutMillis;
+    }
+
+    public long getQueryTimeout() {
+        return queryTimeoutMillis;
+    }
     
     /**
      * Add a child node to the head node
@@ -48,14 +77,14 @@ public class HeadNode {
      * Broadcast the existence of all the children to all the children
      */
     public void broadcastChilds() {
-        final List<Thread> workers = new ArrayList<>();
+        final List<Future<?>> workers = new ArrayList<>();
         for (int i = 0; i < childrenIps.size(); i++){
             final String ip = childrenIps.get(i);
             final int port = childrenPorts.get(i);
             
             final int currentIndex = i; // To mute java error
             
-            Thread t = new Thread(new Runnable() {
+            workers.add(Global.REQUEST_POOL.submit(new Runnable() {
                 @Override
                 public void run() {
                     Socket s;
@@ -74,24 +103,14 @@ public class HeadNode {
                     }
                     
                 }
-            });
-            
-            t.start();
-            workers.add(t);
+            }));
         }
-        workers.forEach(t -> {
-            try {
-                t.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        });
+        waitFor(workers);
     }
 
     public void removeChildNode(String childIp, int childPort){
         for(int i=0; i< childrenPorts.size(); i++){
-            Thread t = new Thread(new DeleteNodeRequest(childrenIps.get(i), childrenPorts.get(i), childIp, childPort));
-            t.start();
+            Global.REQUEST_POOL.submit(new DeleteNodeRequest(childrenIps.get(i), childrenPorts.get(i), childIp, childPort));
         }
         childrenIps.remove(childIp);
         childrenPorts.remove(new Integer(childPort));
@@ -123,52 +142,234 @@ public class HeadNode {
     }
 
     /**
-     * Handles the given query. This will relay the request to all nodes and collect their responses. This method waits
-     * for all nodes to finish their response before terminating.
-     * @param queryTree query
-     * @return
+     * Handles the given query from the command line: runs it on all nodes and prints the rows as they
+     * arrive, a fetch at a time, then the query time and the time to the first row.
+     * @param query query
      */
-    public void processQuery(QueryTree queryTree){
+    public void processQuery(QueryTree query){
         final long startTime = System.nanoTime();
+        try (ResultCursor cursor = executeQuery(query)) {
+            if (query.getRootType() == "AGGREGATE") {
+                System.out.println("Aggregate result: ");
+            }
+            for (List<Tuple> rows = cursor.fetch(); !rows.isEmpty(); rows = cursor.fetch()) {
+                final StringBuilder sb = new StringBuilder();
+                for (Tuple row : rows) {
+                    sb.append(row).append(System.lineSeparator());
+                }
+                System.out.print(sb);
+            }
+            System.out.flush();
+            final long duration = System.nanoTime() - startTime;
+            System.out.println("Query time: " + (double)duration / 1000000.0 + "ms.");
+            if (cursor.getFirstRowNanos() >= 0) {
+                LOGGER.log(Level.INFO, "First row after " + cursor.getFirstRowNanos() / 1000000.0 + "ms, "
+                        + cursor.getRowCount() + " rows");
+            }
+        } catch (RejectedExecutionException e) {
+            System.out.println("Too many queries running, try again later.");
+        } catch (DbException e) {
+            System.out.println(e.getMessage());
+        }
+//        Global.PROFILER.printStats();
+    }
 
-        AggregateResult aggResult = new AggregateResult(queryTree);
+    /**
+     * Runs the given query on all nodes, see {@link #executeQuery(QueryTree, int, Comparator)}
+     */
+    public ResultCursor executeQuery(QueryTree query) throws DbException {
+        return executeQuery(query, ResultCursor.DEFAULT_FETCH_SIZE, null);
+    }
 
-        List<Thread> workers = new ArrayList<>();
-        for (int i = 0; i < childrenIps.size(); i++){
-            final String ip = childrenIps.get(i);
-            final int port = childrenPorts.get(i);
-            Thread t = new Thread(new NodeRequestWorker(ip, port, queryTree, new Function<String, Void>() {
-                @Override
-                public Void apply(String s) {
-                    if (queryTree.getRootType() == "AGGREGATE"){
-                        aggResult.merge(s);
-                    }
-                    else{
-                        System.out.println(s);
+    /**
+     * Runs the given query on all nodes. The rows are read from the returned cursor as they arrive,
+     * except for aggregates, whose partial results are merged first (with the LIMIT, TOP and ORDER_BY
+     * above them applied to the merged rows). The query is stopped on every node
+     * once it has run for the query timeout, see {@link #setQueryTimeout}.
+     * @param query query
+     * @param fetchSize the number of rows handed over to the cursor at once
+     * @param order the order of the rows returned by every node, to merge them in that order, or null
+     *              (the order of the query for ORDER_BY and TOP queries, the arrival order otherwise)
+     * @return the cursor over the result, which must be closed
+     * @throws RejectedExecutionException if too many queries are running
+     * @throws DbException if the aggregate failed on a node or timed out, or the query could not be planned
+     */
+    public ResultCursor executeQuery(QueryTree query, int fetchSize, Comparator<Tuple> order) throws DbException {
+        final long timeoutMillis = queryTimeoutMillis;
+        final long startNanos = System.nanoTime();
+        final QueryTree queryTree = plan(query);
+        final long remainingMillis = (timeoutMillis <= 0) ? 0
+                : Math.max(1, timeoutMillis - (System.nanoTime() - startNanos) / 1000000);
+        if (isMergedOnHead(queryTree)) {
+            return new ResultCursor(mergedRows(queryTree, fetchSize, remainingMillis));
+        }
+        final List<QueryTree> childQueries = new ArrayList<>();
+        for (int i = 0; i < childrenIps.size(); i++) {
+            // each child gets its own share of the partitioned operators
+            childQueries.add(queryTree.forPartition(i, childrenIps.size()));
+        }
+        if (queryTree instanceof QTopN && order == null) {
+            // every node returns its first rows in order, the first of them all are merged
+            order = ((QTopN) queryTree).getOrder();
+        } else if (queryTree instanceof QOrderBy && order == null) {
+            // every node sorts its own rows, the sorted streams are merged
+            order = ((QOrderBy) queryTree).getOrder();
+        }
+        final ResultCursor cursor = new ResultCursor(childrenIps, childrenPorts, childQueries, fetchSize, order,
+                remainingMillis);
+        if (queryTree instanceof QLimit) {
+            cursor.setMaxRows(((QLimit) queryTree).getLimit());
+        } else if (queryTree instanceof QTopN) {
+            cursor.setMaxRows(((QTopN) queryTree).getLimit());
+        }
+        return cursor;
+    }
+
+    /**
+     * @return whether the query is an aggregate, under any LIMIT, TOP and ORDER_BY: the partial results
+     *         of the nodes are merged on the head node, which then applies the LIMIT, TOP and ORDER_BY to
+     *         the merged rows
+     */
+    private static boolean isMergedOnHead(QueryTree query) {
+        if (query instanceof QLimit) {
+            return isMergedOnHead(((QLimit) query).getChild());
+        } else if (query instanceof QTopN) {
+            return isMergedOnHead(((QTopN) query).getChild());
+        } else if (query instanceof QOrderBy) {
+            return isMergedOnHead(((QOrderBy) query).getChild());
+        }
+        return query.getRootType() == "AGGREGATE";
+    }
+
+    /**
+     * @return the rows of a query merged on the head node, see {@link #isMergedOnHead}: the aggregate
+     *         runs on the nodes, the operators above it on its merged rows, as every node only has
+     *         partial results
+     * @throws DbException if the aggregate failed on a node or timed out
+     */
+    private List<Tuple> mergedRows(QueryTree query, int fetchSize, long timeoutMillis) throws DbException {
+        if (query instanceof QLimit) {
+            final List<Tuple> rows = mergedRows(((QLimit) query).getChild(), fetchSize, timeoutMillis);
+            return rows.subList(0, Math.min(((QLimit) query).getLimit(), rows.size()));
+        } else if (query instanceof QTopN) {
+            final List<Tuple> rows = mergedRows(((QTopN) query).getChild(), fetchSize, timeoutMillis);
+            rows.sort(((QTopN) query).getOrder());
+            return rows.subList(0, Math.min(((QTopN) query).getLimit(), rows.size()));
+        } else if (query instanceof QOrderBy) {
+            final List<Tuple> rows = mergedRows(((QOrderBy) query).getChild(), fetchSize, timeoutMillis);
+            rows.sort(((QOrderBy) query).getOrder());
+            return rows;
+        }
+        final List<QueryTree> childQueries = new ArrayList<>();
+        for (int i = 0; i < childrenIps.size(); i++) {
+            childQueries.add(query.forPartition(i, childrenIps.size()));
+        }
+        final ResultCursor cursor = new ResultCursor(childrenIps, childrenPorts, childQueries, fetchSize, null,
+                timeoutMillis);
+        final AggregateResult aggResult = new AggregateResult(query);
+        try {
+            while (cursor.hasNext()) {
+                aggResult.merge(cursor.next());
+            }
+        } finally {
+            cursor.close();
+        }
+        return aggResult.getResults();
+    }
 
+    /**
+     * @return the query with its joins planned from the estimated number of tuples of their inputs,
+     *         see {@link JoinPlanner}
+     * @throws DbException if the number of tuples of a table could not be read from a node
+     */
+    private QueryTree plan(QueryTree query) throws DbException {
+        final QueryTree planned;
+        try {
+            planned = query.plan(new JoinPlanner(new JoinPlanner.Cardinalities() {
+                @Override
+                public long count(String tableName) {
+                    try {
+                        return tableRows(tableName);
+                    } catch (IOException e) {
+                        throw new TableRowsException(e);
                     }
-//                    result.merge(s);
-                    return null;
                 }
-            }));
-            t.start();
-            workers.add(t);
+            }, childrenIps.size()));
+        } catch (TableRowsException e) {
+            throw new DbException(e.getCause().getMessage());
+        }
+        LOGGER.log(Level.INFO, "Planned query: {0}", planned);
+        return planned;
+    }
+
+    /**
+     * @return the number of tuples of the table over all the nodes, as estimated by each node from the
+     *         size of its file (see {@link WireProtocol#ROWS}), read once per table
+     * @throws IOException if a node failed to answer or timed out
+     */
+    private long tableRows(String tableName) throws IOException {
+        final Long cached = tableRows.get(tableName);
+        if (cached != null) {
+            return cached;
+        }
+        final AtomicLong total = new AtomicLong();
+        final List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < childrenIps.size(); i++) {
+            workers.add(NodeRequestWorker.forTableRows(childrenIps.get(i), childrenPorts.get(i), tableName,
+                    queryTimeoutMillis, new Function<Long, Void>() {
+                        @Override
+                        public Void apply(Long rows) {
+                            total.addAndGet(rows);
+                            return null;
+                        }
+                    }).start());
         }
-        workers.forEach(t -> {
+        for (Future<?> worker : workers) {
             try {
-                t.join();
+                worker.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted counting the rows of " + tableName);
+            } catch (ExecutionException e) {
+                throw new IOException("Cannot count the rows of " + tableName + ": " + e.getCause().getMessage());
+            }
+        }
+        tableRows.put(tableName, total.get());
+        return total.get();
+    }
+
+    /**
+     * Forgets the number of tuples of the tables read from the nodes, e.g. once tuples were inserted,
+     * so that the next queries read them again
+     */
+    public void clearTableRows() {
+        tableRows.clear();
+    }
+
+    /**
+     * Carries a failure to count the rows of a table out of the planner, which does not throw IOException
+     */
+    private static class TableRowsException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TableRowsException(IOException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Waits until all the given tasks are done
+     */
+    private static void waitFor(List<Future<?>> workers) {
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
             } catch (InterruptedException e) {
                 e.printStackTrace();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
             }
-        });
-        if(queryTree.getRootType() == "AGGREGATE"){
-            System.out.println("Aggregate result: ");
-            aggResult.printResult();
-        }
-        final long endTime = System.nanoTime();
-        final long duration = endTime - startTime;
-        System.out.println("Query time: " + (double)duration / 1000000.0 + "ms.");
-//        Global.PROFILER.printStats();
+        }
     }
 
     public void addChildNodesFromFile(String fileName) {
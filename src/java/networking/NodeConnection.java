@@ -0,0 +1,164 @@
+package networking;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * A persistent connection to a NodeServer speaking the binary protocol (see {@link WireProtocol}).
+ * Instances are handed out by {@link ConnectionPool} and carry one request at a time.
+ */
+public class NodeConnection {
+
+    // Read timeout of requests without a deadline, so that a node that stopped answering does not block
+    // its reader forever; 0 waits forever
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = Integer.getInteger("simpledb.net.readTimeoutMillis", 600000);
+    public static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger("simpledb.net.connectTimeoutMillis", 10000);
+    // Time a node is given past the deadline of a request to report that it timed out
+    static final int DEADLINE_GRACE_MILLIS = 5000;
+
+    private final Machine machine;
+    private final Socket socket;
+    private final DataInputStream in;
+    private final PrintWriter out;
+    private volatile long lastUsed;
+
+    private NodeConnection(Machine machine, Socket socket) throws IOException {
+        this.machine = machine;
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        this.out = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(socket.getOutputStream())), false);
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Opens a new connection to machine and negotiates the binary protocol
+     * @param machine the NodeServer to connect to
+     * @return the connection, ready to send requests
+     * @throws IOException if the node cannot be reached or does not speak the binary protocol
+     */
+    static NodeConnection open(Machine machine) throws IOException {
+        final Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(machine.ipAddress, machine.port), CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(DEFAULT_READ_TIMEOUT_MILLIS);
+            socket.setKeepAlive(true);
+            socket.setTcpNoDelay(true);
+            final NodeConnection connection = new NodeConnection(machine, socket);
+            connection.out.println(WireProtocol.NEGOTIATION);
+            connection.out.flush();
+            if (connection.in.readInt() != WireProtocol.MAGIC) {
+                throw new IOException("Node " + machine + " does not speak the binary protocol");
+            }
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    public Machine getMachine() {
+        return machine;
+    }
+
+    /**
+     * @return the time in milliseconds at which this connection last finished a request
+     */
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Sends a request and returns a reader positioned at its response
+     * @param requestId the id echoed back by the server in front of the response
+     * @param request the request line, usually a QueryTree string
+     * @return a reader over the tuples of the response
+     * @throws IOException if the connection is broken or the response belongs to another request
+     */
+    public BinaryTupleReader request(long requestId, String request) throws IOException {
+        return request(requestId, 0, request);
+    }
+
+    /**
+     * Sends a request that the server stops once it has run for timeoutMillis, and returns a reader
+     * positioned at its response. Reads on the connection time out a little after the deadline.
+     * @param requestId the id echoed back by the server in front of the response
+     * @param timeoutMillis the time the request may run for, 0 for no deadline
+     * @param request the request line, usually a QueryTree string
+     * @return a reader over the tuples of the response
+     * @throws IOException if the connection is broken or the response belongs to another request
+     */
+    public BinaryTupleReader request(long requestId, long timeoutMillis, String request) throws IOException {
+        if (timeoutMillis > 0) {
+            socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, timeoutMillis + DEADLINE_GRACE_MILLIS));
+            out.println(WireProtocol.REQUEST + " " + requestId + " " + WireProtocol.DEADLINE + " " + timeoutMillis
+                    + " " + request);
+        } else {
+            socket.setSoTimeout(DEFAULT_READ_TIMEOUT_MILLIS);
+            out.println(WireProtocol.REQUEST + " " + requestId + " " + request);
+        }
+        out.flush();
+        final long echoed = in.readLong();
+        if (echoed != requestId) {
+            throw new IOException("Response for request " + echoed + " received while waiting for " + requestId);
+        }
+        return new BinaryTupleReader(in);
+    }
+
+    /**
+     * Asks the server to stop the query of a request running on another connection
+     * @param requestId the id of the request to stop
+     * @return true if the request was running
+     * @throws IOException if the connection is broken
+     */
+    boolean cancel(long requestId) throws IOException {
+        out.println(WireProtocol.CANCEL + " " + requestId);
+        out.flush();
+        return in.readInt() == WireProtocol.CANCELLED;
+    }
+
+    /**
+     * Checks that the server still answers on this connection
+     * @param timeoutMillis how long to wait for the answer
+     * @return true if the server answered PONG in time
+     */
+    boolean ping(int timeoutMillis) {
+        try {
+            final int previousTimeout = socket.getSoTimeout();
+            socket.setSoTimeout(timeoutMillis);
+            try {
+                out.println(WireProtocol.PING);
+                out.flush();
+                return in.readInt() == WireProtocol.PONG;
+            } finally {
+                socket.setSoTimeout(previousTimeout);
+            }
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing to do, the connection is dropped anyway
+        }
+    }
+}
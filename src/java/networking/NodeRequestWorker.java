@@ -1,20 +1,37 @@
 package networking;
 
+import global.Global;
 import querytree.QueryTree;
+import simpledb.IntField;
+import simpledb.Tuple;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class NodeRequestWorker implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(NodeRequestWorker.class.getName());
+
     private final Function<String, Void> lineHandler;
+    private final Function<Tuple, Void> tupleHandler;
     private final Function<Void, Void> requestFinishedHandler;
     private final String childIp;
     private final int childPort;
-    private final QueryTree queryTree;
+    private final String request; // the query, or another request line such as WireProtocol.ROWS
+    private final long timeoutMillis; // the deadline of the request on the node, 0 for none
+    // the id and connection of the running request, cancelled and closed by cancel
+    private volatile long requestId = 0;
+    private volatile NodeConnection connection = null;
+    private volatile Socket socket = null;
+    private volatile boolean cancelled = false;
 
     public NodeRequestWorker(String childIp, int childPort, QueryTree queryTree){
         this(childIp, childPort, queryTree, new Function<String, Void>() {
@@ -42,25 +59,142 @@ public class NodeRequestWorker implements Runnable {
 
     public NodeRequestWorker(String childIp, int childPort, QueryTree queryTree, Function<String, Void> lineHandler,
                              Function<Void, Void> requestFinishedHandler){
+        this(childIp, childPort, queryTree.toString(), 0, lineHandler, null, requestFinishedHandler);
+    }
+
+    private NodeRequestWorker(String childIp, int childPort, String request, long timeoutMillis,
+                              Function<String, Void> lineHandler, Function<Tuple, Void> tupleHandler,
+                              Function<Void, Void> requestFinishedHandler){
         this.lineHandler = lineHandler;
+        this.tupleHandler = tupleHandler;
         this.childIp = childIp;
         this.childPort = childPort;
-        this.queryTree = queryTree;
+        this.request = request;
+        this.timeoutMillis = timeoutMillis;
         this.requestFinishedHandler = requestFinishedHandler;
     }
 
+    /**
+     * Creates a worker that negotiates the binary protocol (see {@link WireProtocol}) and hands decoded
+     * tuples to tupleHandler, so that no text formatting or parsing is involved.
+     */
+    public static NodeRequestWorker forTuples(String childIp, int childPort, QueryTree queryTree,
+                                              Function<Tuple, Void> tupleHandler) {
+        return forTuples(childIp, childPort, queryTree, 0, tupleHandler);
+    }
+
+    /**
+     * Creates a worker like {@link #forTuples(String, int, QueryTree, Function)} whose query is stopped by
+     * the node once it has run for timeoutMillis
+     * @param timeoutMillis the time the query may run for, 0 for no deadline
+     */
+    public static NodeRequestWorker forTuples(String childIp, int childPort, QueryTree queryTree,
+                                              long timeoutMillis, Function<Tuple, Void> tupleHandler) {
+        return new NodeRequestWorker(childIp, childPort, queryTree.toString(), timeoutMillis, null, tupleHandler,
+                new Function<Void, Void>() {
+            @Override
+            public Void apply(Void aVoid) {
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Creates a worker asking the node for the number of tuples it holds in a table, see
+     * {@link WireProtocol#ROWS}
+     * @param rowsHandler given the number of tuples of the node
+     */
+    public static NodeRequestWorker forTableRows(String childIp, int childPort, String tableName,
+                                                 long timeoutMillis, final Function<Long, Void> rowsHandler) {
+        return new NodeRequestWorker(childIp, childPort, WireProtocol.ROWS + " " + tableName, timeoutMillis, null,
+                new Function<Tuple, Void>() {
+            @Override
+            public Void apply(Tuple tuple) {
+                return rowsHandler.apply((long) ((IntField) tuple.getField(0)).getValue());
+            }
+        }, new Function<Void, Void>() {
+            @Override
+            public Void apply(Void aVoid) {
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Runs this worker on the shared request pool
+     * @return a Future completing when the whole response has been handled
+     * @throws java.util.concurrent.RejectedExecutionException if too many requests are already running
+     */
+    public Future<?> start() {
+        return Global.REQUEST_POOL.submit(this);
+    }
+
+    /**
+     * Stops the request: the node is asked to stop its query (see {@link WireProtocol#CANCEL}), and the
+     * connection is closed, so that the node stops sending its response; run then fails with a
+     * RuntimeException if it was still reading it
+     */
+    public void cancel() {
+        cancelled = true;
+        final long id = requestId;
+        if (id != 0) {
+            sendCancel(id);
+        }
+        final NodeConnection c = connection;
+        if (c != null) {
+            c.close();
+        }
+        final Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // nothing to do, the request is abandoned anyway
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Sends the CANCEL of a request on another connection, without waiting for the node
+     */
+    private void sendCancel(final long id) {
+        final Machine machine = new Machine(childIp, childPort);
+        try {
+            Global.REQUEST_POOL.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Global.CONNECTION_POOL.cancel(machine, id);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.FINE, "Cannot cancel request " + id + " on " + machine, e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the closed connection still stops the query at its next write
+        }
+    }
+
     @Override
     public void run() {
         try {
-            Socket s = new Socket(childIp, childPort);
-            // TODO: Maybe some timeout here
-            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
-            PrintWriter out = new PrintWriter(s.getOutputStream(), true);
-            out.println(queryTree.toString());
-
-            for (String line = in.readLine(); !line.equals("END"); line = in.readLine()) {
-                // TODO: synchronized control
-                lineHandler.apply(line);
+            if (tupleHandler != null) {
+                runBinary();
+            } else {
+                try (Socket s = new Socket()) {
+                    socket = s;
+                    s.connect(new InetSocketAddress(childIp, childPort), NodeConnection.CONNECT_TIMEOUT_MILLIS);
+                    if (cancelled) {
+                        return;
+                    }
+                    runText(s, new PrintWriter(s.getOutputStream(), true));
+                } finally {
+                    socket = null;
+                }
             }
             requestFinishedHandler.apply(null);
         } catch (IOException e) {
@@ -68,4 +202,57 @@ public class NodeRequestWorker implements Runnable {
             // TODO: Some error handling
         }
     }
+
+    private void runText(Socket s, PrintWriter out) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+        final long id = Global.CONNECTION_POOL.nextRequestId();
+        requestId = id;
+        if (timeoutMillis > 0) {
+            s.setSoTimeout((int) Math.min(Integer.MAX_VALUE, timeoutMillis + NodeConnection.DEADLINE_GRACE_MILLIS));
+            out.println(WireProtocol.REQUEST + " " + id + " " + WireProtocol.DEADLINE + " " + timeoutMillis + " "
+                    + request);
+        } else {
+            s.setSoTimeout(NodeConnection.DEFAULT_READ_TIMEOUT_MILLIS);
+            out.println(WireProtocol.REQUEST + " " + id + " " + request);
+        }
+        try {
+            for (String line = in.readLine(); line != null && !line.equals("END"); line = in.readLine()) {
+                // TODO: synchronized control
+                lineHandler.apply(line);
+            }
+        } finally {
+            requestId = 0;
+        }
+    }
+
+
+    /**
+     * Runs the query on a pooled connection, which is given back to the pool only if the whole response
+     * has been consumed
+     */
+    private void runBinary() throws IOException {
+        final ConnectionPool pool = Global.CONNECTION_POOL;
+        final NodeConnection connection = pool.borrow(new Machine(childIp, childPort));
+        BinaryTupleReader reader = null;
+        this.connection = connection;
+        try {
+            if (cancelled) {
+                return;
+            }
+            final long id = pool.nextRequestId();
+            requestId = id;
+            reader = connection.request(id, timeoutMillis, request);
+            for (Tuple t = reader.next(); t != null; t = reader.next()) {
+                tupleHandler.apply(t);
+            }
+        } finally {
+            requestId = 0;
+            this.connection = null;
+            if (reader != null && reader.isFinished()) {
+                pool.release(connection);
+            } else {
+                pool.invalidate(connection);
+            }
+        }
+    }
 }
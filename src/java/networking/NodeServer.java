@@ -4,8 +4,12 @@ import java.awt.*;
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -16,6 +20,7 @@ import distributeddb.Profiler;
 import edu.mit.eecs.parserlib.UnableToParseException;
 import global.Global;
 import global.Utils;
+import global.WorkerPool;
 import querytree.QAggregate;
 import querytree.QueryParser;
 import querytree.QueryTree;
@@ -30,15 +35,24 @@ public class NodeServer {
 
     private static final Logger LOGGER = Logger.getLogger(NodeServer.class.getName());
 
+    // Connections without any request for this long are closed, so that clients that went away do not
+    // hold a handler forever; longer than the time ConnectionPool keeps idle connections
+    public static final int IDLE_TIMEOUT_MILLIS = Integer.getInteger("simpledb.server.idleTimeoutMillis", 600000);
+
     private String id;
     private List<Machine> references;
     private final ServerSocket serverSocket;
     private final int port;
+    // Runs one task per client connection, for as long as the connection stays open
+    private final WorkerPool handlers;
+    // The queries running on behalf of requests with an id, to cancel them
+    private final Map<Long, QueryContext> running = new ConcurrentHashMap<>();
     
     public NodeServer(int portNumber) throws IOException {
         id = "" + portNumber;
         references = new ArrayList<>();
         serverSocket = new ServerSocket(portNumber);
+        handlers = WorkerPool.fromProperties("server", WorkerPool.Mode.PLATFORM, 256, 1024, false);
         //TODO: change simpledb so we pass instances of database around
         port = portNumber;
     }
@@ -88,6 +102,13 @@ public class NodeServer {
         return port;
     }
 
+    /**
+     * @return the pool handling the connections of this server, e.g. to read its statistics
+     */
+    public WorkerPool getHandlers() {
+        return handlers;
+    }
+
     /**
      * Start listening to the port and accepting income connections
      * @throws IOException if an error occurs waiting for a connection
@@ -104,16 +125,58 @@ public class NodeServer {
     private void handleConnection(Socket socket) throws IOException,DbException, TransactionAbortedException {
         LOGGER.log(Level.INFO, "Client from " + socket.getInetAddress().toString() + ":"
                 + socket.getPort() + " is connected. Local port: " + socket.getLocalPort() + ".");
+        socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
         BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
         PrintWriter out = new PrintWriter(socket.getOutputStream(), true); // TODO: should we autoFlush?
+        DataOutputStream binaryOut = null; // only used once the client negotiates the binary protocol
+        TupleWriter writer = new TextTupleWriter(out);
 
         try {
             for (String line = in.readLine(); line != null; line = in.readLine()) {
+                long requestId = 0;
+                long timeoutMillis = 0;
+                if (line.startsWith(WireProtocol.REQUEST + " ")) {
+                    final String[] parts = line.split(" ", 3);
+                    requestId = Long.parseLong(parts[1]);
+                    line = parts.length > 2 ? parts[2] : "";
+                    if (line.startsWith(WireProtocol.DEADLINE + " ")) {
+                        final String[] deadline = line.split(" ", 3);
+                        timeoutMillis = Long.parseLong(deadline[1]);
+                        line = deadline.length > 2 ? deadline[2] : "";
+                    }
+                }
                 if (line.equals("exit")) {
                     break; // A way to debug individual server
                 } else if (line.startsWith("machines:")) {
                     addAllReferences(line.replaceFirst("machines:",""));
                     break;
+                } else if (line.equals(WireProtocol.NEGOTIATION)) {
+                    binaryOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+                    binaryOut.writeInt(WireProtocol.MAGIC);
+                    binaryOut.flush();
+                    writer = new BinaryTupleWriter(binaryOut);
+                    continue;
+                } else if (line.equals(WireProtocol.PING)) {
+                    if (binaryOut != null) {
+                        binaryOut.writeInt(WireProtocol.PONG);
+                        binaryOut.flush();
+                    } else {
+                        out.println("PONG");
+                    }
+                    continue;
+                } else if (line.startsWith(WireProtocol.CANCEL + " ")) {
+                    final QueryContext context = running.get(Long.parseLong(line.split(" ")[1]));
+                    if (context != null) {
+                        LOGGER.log(Level.INFO, "Cancelling query " + context.getId());
+                        context.cancel();
+                    }
+                    if (binaryOut != null) {
+                        binaryOut.writeInt(context != null ? WireProtocol.CANCELLED : WireProtocol.UNKNOWN_REQUEST);
+                        binaryOut.flush();
+                    } else {
+                        out.println(context != null ? "CANCELLED" : "UNKNOWN");
+                    }
+                    continue;
                 }
                 if (line.startsWith("WRITE")){
                     String[] reqArr = line.split(" ");
@@ -147,19 +210,37 @@ public class NodeServer {
                     }
                 }
                 else {
+                    if (binaryOut != null) {
+                        binaryOut.writeLong(requestId); // lets pooled clients detect a desynchronized stream
+                    }
+                    final QueryContext context = new QueryContext(requestId, timeoutMillis);
+                    if (requestId != 0) {
+                        running.put(requestId, context);
+                    }
                     try{
-                        QueryTree qt = QueryParser.parse(this, line);
-                        processQuery(qt, out);
+                        if (line.startsWith(WireProtocol.ROWS + " ")) {
+                            writeTableRows(line.substring(WireProtocol.ROWS.length() + 1).trim(), writer);
+                        } else {
+                            QueryTree qt = QueryParser.parse(this, line);
+                            processQuery(qt, writer, context);
+                        }
                     }catch (UnableToParseException e) {
-                            out.println("Unable to parse your command!"); // TODO: More information
+                            writer.error("Unable to parse your command!"); // TODO: More information
+                    } finally {
+                        running.remove(requestId, context);
                     }
                 }
-                out.println("DONE");
+                if (binaryOut == null) {
+                    out.println("DONE"); // binary responses are self-delimiting
+                }
 
             }
         } finally {
             LOGGER.log(Level.INFO, "Client from " + socket.getInetAddress().toString() + ":"
                     + socket.getPort() + " is leaving.");
+            if (binaryOut != null) {
+                binaryOut.close();
+            }
             out.close();
             in.close();
         }
@@ -191,7 +272,7 @@ public class NodeServer {
                     Tuple t = scan.next();
                     //TODO: do we want to hash on some particular attribute. Can maintain a map indicating which attribute we're hashing on
                     Machine destinaton = sortedMachines.get(t.hashCode()%(numServers-1));
-                    Thread thread = new Thread(new Runnable() {
+                    Runnable redistribution = new Runnable() {
                         @Override
                         public void run() {
                             try {
@@ -214,8 +295,12 @@ public class NodeServer {
                             }
 
                         }
-                    });
-                    thread.start();
+                    };
+                    try {
+                        Global.REQUEST_POOL.submit(redistribution);
+                    } catch (RejectedExecutionException e) {
+                        redistribution.run(); // do not lose the tuple when the pool is saturated
+                    }
 
                 }
             }
@@ -226,81 +311,66 @@ public class NodeServer {
 
     }
 
-    private boolean isAvgQuery(QueryTree queryTree){
-        if (queryTree.getRootType() == "AGGREGATE"){
-            QAggregate aggQuery = (QAggregate) queryTree;
-            if(aggQuery.getAggregator() == Aggregator.Op.AVG){
-                return true;
-            }
+    /**
+     * Runs a query and writes its result. The query stops at the first check of its context once it is
+     * cancelled or past its deadline (see {@link QueryContext}); its operators are closed in any case, which
+     * releases their buffers and cancels the requests they sent to other nodes.
+     */
+    private void processQuery(QueryTree queryTree, TupleWriter writer, QueryContext context) throws IOException {
+        if (queryTree.getRootType() == "AGGREGATE") {
+            // the head node merges the partial states, e.g. AVG as sum and count, see AggregateResult
+            queryTree = ((QAggregate) queryTree).partial();
         }
-        return false;
-    }
-
-    private void processQuery(QueryTree queryTree, PrintWriter outputStream){
-        if(isAvgQuery(queryTree)){
-            QAggregate aggQuery = (QAggregate) queryTree;
-            QueryTree q1 = QueryTree.aggregate(aggQuery.getChild(), aggQuery.getColNum(), Aggregator.Op.COUNT);
-            QueryTree q2 = QueryTree.aggregate(aggQuery.getChild(), aggQuery.getColNum(), Aggregator.Op.SUM);
-            OpIterator op1 = q1.getRootOp();
-            OpIterator op2 = q2.getRootOp();
-            int count = 0;
-            int sum = 0;
-            try {
-                op1.open();
-                op2.open();
-            } catch (DbException e) {
-                e.printStackTrace();
-            } catch (TransactionAbortedException e) {
-                e.printStackTrace();
-            }
-            try {
-                if (op1.hasNext() && op2.hasNext()){
-                    count = ((IntField) op1.next().getField(0)).getValue();
-                    sum = ((IntField) op2.next().getField(0)).getValue();
-                    Type[] typeArr = {Type.INT_TYPE, Type.INT_TYPE};
-                    String[] fieldArr = {"count", "sum"};
-                    Tuple t = new Tuple(new TupleDesc(typeArr, fieldArr));
-                    t.setField(0, new IntField(count));
-                    t.setField(1, new IntField(sum));
-                    outputStream.println(t.fastToString());
-                    outputStream.println("END");
-                }
-            } catch (DbException e) {
-                e.printStackTrace();
-            } catch (TransactionAbortedException e) {
-                e.printStackTrace();
+        OpIterator op = queryTree.getRootOp();
+        context.attach();
+        try {
+            op.open();
+            writer.begin(op.getTupleDesc());
+            while (op.hasNext()) {
+                context.check();
+                writer.write(op.next());
             }
-
+            writer.end();
+        } catch (QueryCancelledException e) {
+            LOGGER.log(Level.INFO, e.getMessage());
+            writer.error(e.getMessage());
+        } catch (DbException e) {
+            LOGGER.log(Level.INFO, "There was an error processing query");
+            e.printStackTrace();
+            writer.error("There was an error processing query: " + e.getMessage());
+        } catch (TransactionAbortedException e) {
+            LOGGER.log(Level.INFO, "Transaction aborted while processing query");
+            e.printStackTrace();
+            writer.error("Transaction aborted while processing query");
+        } finally {
+            op.close();
+            QueryContext.detach();
         }
-        else {
-            OpIterator op = queryTree.getRootOp();
-            try {
-                op.open();
-            } catch (DbException e) {
-                e.printStackTrace();
-            } catch (TransactionAbortedException e) {
-                e.printStackTrace();
-            }
-            try {
-                while (op.hasNext()) {
-                    Tuple t = op.next();
-                    outputStream.print(t.fastToString() + System.lineSeparator());
-                }
-                outputStream.println("END");
-            } catch (DbException e) {
-                LOGGER.log(Level.INFO, "There was an error processing query");
-                e.printStackTrace();
-                //TODO: do error handling
-            } catch (TransactionAbortedException e) {
-                LOGGER.log(Level.INFO, "Transaction aborted while processing query");
-                e.printStackTrace();
-                //TODO: do error handling
-
+    }
+    
+    /**
+     * Writes the number of tuples this node holds in the table, see {@link WireProtocol#ROWS}
+     */
+    private void writeTableRows(String tableName, TupleWriter writer) throws IOException {
+        final long rows;
+        try {
+            final DbFile file = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(tableName));
+            if (!(file instanceof HeapFile)) {
+                writer.error("Cannot count the rows of " + tableName);
+                return;
             }
-
+            rows = ((HeapFile) file).maxTuples();
+        } catch (NoSuchElementException e) {
+            writer.error("Unknown table " + tableName);
+            return;
         }
+        final Tuple row = new Tuple(new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"rows"}));
+        row.setField(0, new IntField((int) Math.min(Integer.MAX_VALUE, rows)));
+        writer.begin(row.getTupleDesc());
+        writer.write(row);
+        writer.end();
     }
-    
+
     public static void main(String[] args) {
         final int port = Integer.parseInt(args[0]);
         try {
@@ -320,7 +390,7 @@ public class NodeServer {
                 try {
                     final Socket socket = serverSocket.accept();
 
-                    Thread handler = new Thread(new Runnable() {
+                    Runnable handler = new Runnable() {
                         @Override
                         public void run() {
                             try {
@@ -329,6 +399,13 @@ public class NodeServer {
                                 } finally {
                                     socket.close();
                                 }
+                            } catch (SocketTimeoutException e) {
+                                LOGGER.log(Level.INFO, "Closing idle connection from " + socket.getInetAddress()
+                                        + ":" + socket.getPort());
+                            } catch (SocketException e) {
+                                // e.g. the client closed the connection to cancel its query
+                                LOGGER.log(Level.INFO, "Connection from " + socket.getInetAddress() + ":"
+                                        + socket.getPort() + " closed: " + e.getMessage());
                             } catch (IOException ioe) {
                                 ioe.printStackTrace(); // but do not stop serving
                                 LOGGER.log(Level.INFO, "error io exception");
@@ -342,9 +419,15 @@ public class NodeServer {
                                 LOGGER.log(Level.INFO, "error trans aborted exception");
                             }
                         }
-                    });
-
-                    handler.start();
+                    };
+
+                    try {
+                        handlers.submit(handler);
+                    } catch (RejectedExecutionException e) {
+                        LOGGER.log(Level.WARNING, "Refusing connection from " + socket.getInetAddress() + ": "
+                                + e.getMessage());
+                        socket.close();
+                    }
                 } catch (IOException ioe) {
                     ioe.printStackTrace();
                 }
@@ -0,0 +1,422 @@
+package networking;
+
+import global.Global;
+import querytree.QueryTree;
+import simpledb.DbException;
+import simpledb.Tuple;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The result of a query run by the head node, read by the client as it arrives from the nodes.<br>
+ * Every node is read by its own task on {@link Global#REQUEST_POOL}, which hands its tuples over in
+ * groups of fetch size tuples through a bounded queue, so the client sees the first rows as soon as
+ * a node sends them and slow clients throttle the nodes instead of buffering the whole result.
+ * <p>
+ * Rows are returned in arrival order, or, when every node returns its rows sorted by the same order,
+ * merged in that order (a k-way merge of the node streams). The time to the first row returned to
+ * the client is recorded, see {@link #getFirstRowNanos}. A cursor limited to some rows (see
+ * {@link #setMaxRows}) stops reading the nodes once it has returned them.
+ * <p>
+ * A cursor with a timeout fails once the query has run for that long, and every node stops the query
+ * on its side at the same deadline. Closing a cursor before the end of the result cancels the query
+ * on the nodes still running it.
+ */
+public class ResultCursor implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(ResultCursor.class.getName());
+
+    public static final int DEFAULT_FETCH_SIZE = 256;
+    // number of groups of rows buffered per node before the node is throttled
+    private static final int QUEUE_BATCHES = 16;
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final int fetchSize;
+    private final Comparator<Tuple> order;
+    private final long startNanos = System.nanoTime();
+    private final long timeoutMillis;
+    private long firstRowNanos = -1;
+    private long rowCount = 0;
+    private long maxRows = Long.MAX_VALUE;
+    private volatile boolean closed = false;
+
+    // set for a cursor over remote nodes
+    private final List<BlockingQueue<Batch>> queues = new ArrayList<>();
+    private final List<Producer> producers = new ArrayList<>();
+    private int remaining; // the number of streams not ended yet, in arrival order
+    private Batch current = null;
+    private int position = 0;
+    private PriorityQueue<Head> heads = null; // in merge order
+    private List<Tuple> rows = null; // set for a cursor over computed rows
+
+    private Tuple next = null;
+
+    /**
+     * Sends a query to some nodes and reads their results
+     * @param ips the addresses of the nodes
+     * @param ports the ports of the nodes
+     * @param queries the query sent to each node
+     * @param fetchSize the number of rows handed over at once
+     * @param order the order in which every node returns its rows, to merge them in that order, or
+     *              null to return the rows as they arrive
+     * @throws RejectedExecutionException if too many requests are already running
+     */
+    public ResultCursor(List<String> ips, List<Integer> ports, List<QueryTree> queries, int fetchSize,
+                        Comparator<Tuple> order) {
+        this(ips, ports, queries, fetchSize, order, 0);
+    }
+
+    /**
+     * Sends a query to some nodes and reads their results, failing once the query has run for timeoutMillis
+     * @param timeoutMillis the time the query may run for, 0 for no limit
+     * @throws RejectedExecutionException if too many requests are already running
+     * @see #ResultCursor(List, List, List, int, Comparator)
+     */
+    public ResultCursor(List<String> ips, List<Integer> ports, List<QueryTree> queries, int fetchSize,
+                        Comparator<Tuple> order, long timeoutMillis) {
+        this.fetchSize = fetchSize;
+        this.order = order;
+        this.timeoutMillis = timeoutMillis;
+        final BlockingQueue<Batch> shared = (order == null) ? new LinkedBlockingQueue<Batch>(QUEUE_BATCHES) : null;
+        for (int i = 0; i < ips.size(); i++) {
+            queues.add(shared != null ? shared : new LinkedBlockingQueue<Batch>(QUEUE_BATCHES));
+        }
+        remaining = ips.size();
+        try {
+            for (int i = 0; i < ips.size(); i++) {
+                final Producer producer = new Producer(ips.get(i), ports.get(i), queries.get(i), timeoutMillis,
+                        queues.get(i));
+                producers.add(producer);
+                Global.REQUEST_POOL.submit(producer);
+            }
+        } catch (RejectedExecutionException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * A cursor over rows already computed by the head node, e.g. merged aggregates
+     */
+    public ResultCursor(List<Tuple> rows) {
+        this.fetchSize = DEFAULT_FETCH_SIZE;
+        this.order = null;
+        this.timeoutMillis = 0;
+        this.rows = new ArrayList<>(rows);
+        Collections.reverse(this.rows); // consumed from the end
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Limits the number of rows returned: once maxRows rows have been returned, the cursor is closed
+     * and the connections to the nodes still sending rows are dropped
+     */
+    public void setMaxRows(long maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Waits for the next row if needed
+     * @throws DbException if a node failed to run the query
+     */
+    public boolean hasNext() throws DbException {
+        if (rowCount >= maxRows) {
+            close();
+            return false;
+        }
+        if (next == null) {
+            next = readNext();
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Tuple t = next;
+        next = null;
+        if (firstRowNanos < 0) {
+            firstRowNanos = System.nanoTime() - startNanos;
+        }
+        rowCount++;
+        return t;
+    }
+
+    /**
+     * @return the next rows, at most fetch size of them, waiting only for the first one; an empty
+     *         list once every row has been returned
+     */
+    public List<Tuple> fetch() throws DbException {
+        final List<Tuple> result = new ArrayList<>();
+        if (!hasNext()) {
+            return result;
+        }
+        result.add(next());
+        while (result.size() < fetchSize && available() && hasNext()) {
+            result.add(next());
+        }
+        return result;
+    }
+
+    /**
+     * @return the nanoseconds from the creation of the cursor to the first row returned, or -1
+     */
+    public long getFirstRowNanos() {
+        return firstRowNanos;
+    }
+
+    /**
+     * @return the number of rows returned so far
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Stops reading the nodes and closes the connections still receiving rows; rows not read yet are
+     * dropped
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Producer producer : producers) {
+            producer.worker.cancel();
+        }
+        for (BlockingQueue<Batch> queue : queues) {
+            queue.clear(); // wake up blocked producers
+        }
+    }
+
+    /**
+     * @return whether a row can be returned without waiting for a node
+     */
+    private boolean available() {
+        if (next != null || rows != null || (current != null && position < current.size)) {
+            return true;
+        }
+        if (order != null) {
+            // the row after the next one of the same node must be there already
+            final Head head = (heads == null) ? null : heads.peek();
+            return head != null && head.position + 1 < head.batch.size;
+        }
+        final Batch batch = queues.isEmpty() ? null : queues.get(0).peek();
+        return batch != null && !batch.endOfStream;
+    }
+
+    private Tuple readNext() throws DbException {
+        if (rows != null) {
+            return rows.isEmpty() ? null : rows.remove(rows.size() - 1);
+        }
+        return (order == null) ? readArrival() : readMerged();
+    }
+
+    private Tuple readArrival() throws DbException {
+        while (current == null || position == current.size) {
+            if (remaining == 0) {
+                return null;
+            }
+            current = take(queues.get(0));
+            position = 0;
+            if (current.endOfStream) {
+                remaining--;
+                current = null;
+            }
+        }
+        return current.tuples[position++];
+    }
+
+    private Tuple readMerged() throws DbException {
+        if (heads == null) {
+            heads = new PriorityQueue<>(Math.max(1, queues.size()), new Comparator<Head>() {
+                @Override
+                public int compare(Head h1, Head h2) {
+                    return order.compare(h1.tuple(), h2.tuple());
+                }
+            });
+            for (BlockingQueue<Batch> queue : queues) {
+                advance(new Head(queue));
+            }
+        }
+        final Head head = heads.poll();
+        if (head == null) {
+            return null;
+        }
+        final Tuple t = head.tuple();
+        head.position++;
+        advance(head);
+        return t;
+    }
+
+    /**
+     * Puts head back in the merge if its node has rows left
+     */
+    private void advance(Head head) throws DbException {
+        while (head.batch == null || head.position == head.batch.size) {
+            head.batch = take(head.queue);
+            head.position = 0;
+            if (head.batch.endOfStream) {
+                return;
+            }
+        }
+        heads.add(head);
+    }
+
+    private Batch take(BlockingQueue<Batch> queue) throws DbException {
+        final Batch batch;
+        try {
+            if (timeoutMillis <= 0) {
+                batch = queue.take();
+            } else {
+                final long deadline = startNanos + timeoutMillis * 1000000L;
+                batch = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (batch == null) {
+                    close();
+                    throw new DbException("Query timed out after " + timeoutMillis + "ms");
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new DbException("Interrupted while waiting for the nodes");
+        }
+        if (batch.error != null) {
+            throw new DbException("Query failed on " + batch.error);
+        }
+        return batch;
+    }
+
+    /**
+     * A group of rows of one node, or the end marker of its stream
+     */
+    private static class Batch {
+        final Tuple[] tuples;
+        int size = 0;
+        final boolean endOfStream;
+        final String error;
+
+        Batch(int capacity) {
+            this.tuples = new Tuple[capacity];
+            this.endOfStream = false;
+            this.error = null;
+        }
+
+        Batch(String error) {
+            this.tuples = new Tuple[0];
+            this.endOfStream = true;
+            this.error = error;
+        }
+    }
+
+    /**
+     * The next row of one node in a merge
+     */
+    private static class Head {
+        final BlockingQueue<Batch> queue;
+        Batch batch = null;
+        int position = 0;
+
+        Head(BlockingQueue<Batch> queue) {
+            this.queue = queue;
+        }
+
+        Tuple tuple() {
+            return batch.tuples[position];
+        }
+    }
+
+    /**
+     * Reads the result of the query on one node into its queue
+     */
+    private class Producer implements Runnable {
+        private final String ip;
+        private final int port;
+        private final BlockingQueue<Batch> queue;
+        private final NodeRequestWorker worker;
+        private Batch batch = new Batch(fetchSize);
+
+        Producer(String ip, int port, QueryTree query, long timeoutMillis, BlockingQueue<Batch> queue) {
+            this.ip = ip;
+            this.port = port;
+            this.queue = queue;
+            this.worker = NodeRequestWorker.forTuples(ip, port, query, timeoutMillis, new Function<Tuple, Void>() {
+                @Override
+                public Void apply(Tuple t) {
+                    batch.tuples[batch.size++] = t;
+                    if (batch.size == fetchSize) {
+                        flush();
+                    }
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            String error = null;
+            try {
+                worker.run();
+                flush();
+            } catch (Abandoned e) {
+                return; // the cursor has been closed
+            } catch (RuntimeException e) {
+                if (closed) {
+                    return; // the connection has been closed by the cursor
+                }
+                LOGGER.log(Level.WARNING, "Query on " + ip + ":" + port + " failed", e);
+                error = ip + ":" + port + ": " + e.getMessage();
+            }
+            put(error == null ? new Batch((String) null) : new Batch(error));
+        }
+
+        private void flush() {
+            if (batch.size == 0) {
+                return;
+            }
+            if (!put(batch)) {
+                throw new Abandoned();
+            }
+            batch = new Batch(fetchSize);
+        }
+
+        /**
+         * Blocks while the queue is full
+         * @return false if the cursor has been closed
+         */
+        private boolean put(Batch b) {
+            try {
+                while (!closed) {
+                    if (queue.offer(b, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                return false;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Thrown from a tuple handler to stop reading a node once the cursor is closed
+     */
+    private static class Abandoned extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,38 @@
+package networking;
+
+import simpledb.Tuple;
+import simpledb.TupleDesc;
+
+import java.io.PrintWriter;
+
+/**
+ * Line-based text protocol: one tuple per line, terminated by "END".
+ */
+public class TextTupleWriter implements TupleWriter {
+
+    private final PrintWriter out;
+
+    public TextTupleWriter(PrintWriter out) {
+        this.out = out;
+    }
+
+    @Override
+    public void begin(TupleDesc td) {
+    }
+
+    @Override
+    public void write(Tuple t) {
+        out.print(t.fastToString() + System.lineSeparator());
+    }
+
+    @Override
+    public void end() {
+        out.println("END");
+    }
+
+    @Override
+    public void error(String message) {
+        out.println(message);
+        out.println("END");
+    }
+}
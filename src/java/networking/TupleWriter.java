@@ -0,0 +1,40 @@
+package networking;
+
+import simpledb.Tuple;
+import simpledb.TupleDesc;
+
+import java.io.IOException;
+
+/**
+ * Destination of the tuples produced by a query on a NodeServer. One response is written as
+ * begin, any number of writes, and then either end or error.
+ */
+public interface TupleWriter {
+
+    /**
+     * Starts a response whose tuples are described by td
+     * @param td the TupleDesc of the tuples to follow
+     * @throws IOException if the connection is broken
+     */
+    public void begin(TupleDesc td) throws IOException;
+
+    /**
+     * Writes a single tuple of the current response
+     * @param t the tuple, which must match the TupleDesc given to begin
+     * @throws IOException if the connection is broken
+     */
+    public void write(Tuple t) throws IOException;
+
+    /**
+     * Terminates the current response successfully
+     * @throws IOException if the connection is broken
+     */
+    public void end() throws IOException;
+
+    /**
+     * Terminates the current response with an error message. May be called before begin.
+     * @param message the error message reported to the client
+     * @throws IOException if the connection is broken
+     */
+    public void error(String message) throws IOException;
+}
@@ -0,0 +1,72 @@
+package networking;
+
+import simpledb.Type;
+
+/**
+ * Constants of the binary tuple protocol spoken between NodeServers and their clients.<br>
+ * A client switches a connection to binary mode by sending {@link #NEGOTIATION} as its first line;
+ * the server acknowledges with the int {@link #MAGIC}. Requests are still sent as text lines, optionally
+ * prefixed by {@link #REQUEST} and a request id ("REQ 42 SCAN(table)"), but every query response is then
+ * encoded as:
+ * <pre>
+ *   id:     long request id echoed from the request line (0 if the request had none)
+ *   header: int numFields, then for each field: byte type ordinal, UTF field name
+ *   frames: int rowCount (&gt; 0), then for each column, rowCount values encoded by the column type
+ *   end:    int {@link #END_OF_STREAM}, or int {@link #ERROR} followed by a UTF message
+ * </pre>
+ * Connections that do not negotiate keep the line-based text protocol, so the server can still be
+ * debugged by typing queries into a terminal.<br>
+ * A connection stays open after a response, so it can be reused for further requests; {@link #PING} is
+ * answered with {@link #PONG} (or a "PONG" line in text mode) to check that an idle connection is alive.<br>
+ * A request id may be followed by {@link #DEADLINE} and the milliseconds the query may run for
+ * ("REQ 42 DEADLINE 5000 SCAN(table)"); past it, the server stops the query and answers with an error.
+ * "{@link #CANCEL} 42", sent on any other connection, stops the running query of request 42 the same
+ * way; it is answered with {@link #CANCELLED} or {@link #UNKNOWN_REQUEST} (or the line "CANCELLED" or
+ * "UNKNOWN" in text mode).<br>
+ * "{@link #ROWS} table" is answered like a query, with a single row holding the number of tuples the node
+ * holds in the table, estimated from the size of its file.
+ */
+public class WireProtocol {
+
+    private WireProtocol() {
+    } // This should be a static class
+
+    public static final String NEGOTIATION = "PROTOCOL BINARY";
+
+    public static final int MAGIC = 0x53444231; // "SDB1"
+
+    public static final String REQUEST = "REQ";
+
+    public static final String PING = "PING";
+
+    public static final int PONG = 0x504F4E47; // "PONG"
+
+    public static final String DEADLINE = "DEADLINE";
+
+    public static final String CANCEL = "CANCEL";
+
+    public static final int CANCELLED = 0x43414E43; // "CANC"
+
+    public static final int UNKNOWN_REQUEST = 0x554E4B4E; // "UNKN"
+
+    public static final String ROWS = "ROWS";
+
+    public static final int END_OF_STREAM = 0;
+
+    public static final int ERROR = -1;
+
+    // Number of rows buffered before a frame is written to the socket
+    public static final int DEFAULT_FRAME_ROWS = 512;
+
+    static byte typeToByte(Type type) {
+        return (byte) type.ordinal();
+    }
+
+    static Type byteToType(byte b) {
+        final Type[] types = Type.values();
+        if (b < 0 || b >= types.length) {
+            throw new IllegalArgumentException("Unknown type on the wire: " + b);
+        }
+        return types[b];
+    }
+}
@@ -1,20 +1,11 @@
 package performance;
 
-import distributeddb.GlobalSeqScan;
-import distributeddb.Profiler;
-import global.Global;
-import networking.Machine;
-import networking.NodeRequestWorker;
+import distributeddb.Exchange;
 import networking.NodeServer;
 import querytree.QueryTree;
 import simpledb.*;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.function.Function;
 
 /**
  * Created by aditisri on 12/12/17.
@@ -28,15 +19,15 @@ public class GlobalColSeqScan implements OpIterator{
     private int colNum;
 
     // Fields for outputting tuples
-    private DbFileIterator tupleIterator;
-    private GlobalColSeqScan.TupleQueue queue;
+    private SeqColScan tupleIterator;
+    private Exchange remote;
 
     public GlobalColSeqScan(TransactionId tid, NodeServer node, String tableName, String tableAlias, int colNum){
         this.tid = tid;
         this.node = node;
         this.tableName = tableName;
         this.tableAlias = tableAlias;
-        this.tupleIterator = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(tableName)).iterator(tid);
+        this.tupleIterator = new SeqColScan(tid, Database.getCatalog().getTableId(tableName), tableAlias, colNum);
         this.colNum = colNum;
 
     }
@@ -60,34 +51,19 @@ public class GlobalColSeqScan implements OpIterator{
 
     public void open() throws DbException, TransactionAbortedException {
         tupleIterator.open();
-        resetQueuing();
+        remote = new Exchange(getTupleDesc(), node.getReferences(), QueryTree.colScan(null, tableName, tableAlias, colNum));
+        remote.open();
     }
 
     /**
-     * Returns the TupleDesc with field names from the underlying HeapFile,
-     * prefixed with the tableAlias string from the constructor. This prefix
-     * becomes useful when joining tables containing a field(s) with the same
-     * name.  The alias and name should be separated with a "." character
-     * (e.g., "alias.fieldName").
-     *
-     * @return the TupleDesc with field names from the underlying HeapFile,
-     *         prefixed with the tableAlias string from the constructor.
+     * @return a TupleDesc with the single scanned column, named alias.fieldName
      */
     public TupleDesc getTupleDesc() {
-        final TupleDesc originTd = Database.getCatalog().getTupleDesc(Database.getCatalog().getTableId(tableName));
-        // Now addTuple the prefix
-        final int length = originTd.numFields();
-        final Type[] typeAr = new Type[length];
-        final String[] fieldAr = new String[length];
-        for (int i = 0; i < length; i++) {
-            typeAr[i] = originTd.getFieldType(i);
-            fieldAr[i] = tableAlias + "." + originTd.getFieldName(i);
-        }
-        return new TupleDesc(typeAr, fieldAr);
+        return tupleIterator.getTupleDesc();
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
-        return tupleIterator.hasNext() || queue.hasNext();
+        return tupleIterator.hasNext() || remote.hasNext();
     }
 
     public Tuple next() throws NoSuchElementException,
@@ -97,7 +73,7 @@ public class GlobalColSeqScan implements OpIterator{
             return t;
         }
         else {
-            Tuple t = queue.next();
+            Tuple t = remote.next();
             //System.out.println("GlobalSeqScan: " + t);
             return t;
         }
@@ -105,77 +81,14 @@ public class GlobalColSeqScan implements OpIterator{
 
     public void close() {
         tupleIterator.close();
+        if (remote != null) {
+            remote.close();
+        }
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         tupleIterator.rewind();
-        resetQueuing();
-    }
-
-    private void resetQueuing() {
-        queue = new GlobalColSeqScan.TupleQueue();
-        List<Machine> references = node.getReferences();
-        for (Machine machine : references) {
-            NodeRequestWorker worker = new NodeRequestWorker(machine.ipAddress, machine.port,
-                    QueryTree.colScan(null, tableName, tableAlias, colNum), new Function<String, Void>() {
-                @Override
-                public Void apply(String s) {
-                    // TODO: fix the parsing
-                    String[] parsed = s.split(" ");
-                    Tuple t = new Tuple(Database.getCatalog().getTupleDesc(Database.getCatalog().getTableId(tableName)));
-
-                    for (int i = 0; i < parsed.length; i++) {
-                        t.setField(i, new IntField(Integer.parseInt(parsed[i])));
-                    }
-                    try {
-                        queue.addTuple(t);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    return null;
-                }
-            });
-            Thread thread = new Thread(worker);
-            queue.addWorker(thread);
-            thread.start();
-        }
-    }
-
-    private class TupleQueue {
-        private final BlockingQueue<Tuple> queue;
-        private List<Thread> workers;
-
-        public TupleQueue() {
-            queue = new LinkedBlockingQueue<>(100);
-            workers = new ArrayList<>();
-        }
-
-        public void addTuple(Tuple tuple) throws InterruptedException {
-            queue.put(tuple);
-        }
-
-        public void addWorker(Thread thread) {
-            workers.add(thread);
-        }
-
-        public boolean hasNext() {
-            while (queue.isEmpty() && !allWorkersDone()) {
-                // block while it is possible for the queue to fetch tuples and it has no tuples
-            }
-            if (!queue.isEmpty()) return true;
-            return !allWorkersDone();
-        }
-
-        public Tuple next() {
-            return queue.poll();
-        }
-
-        private boolean allWorkersDone() {
-            for (Thread worker : workers) {
-                if (worker.isAlive()) return false;
-            }
-            return true;
-        }
+        remote.rewind();
     }
 }
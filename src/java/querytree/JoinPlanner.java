@@ -0,0 +1,98 @@
+package querytree;
+
+import simpledb.Predicate;
+
+/**
+ * Chooses how the head node runs each JOIN of a query, from the number of tuples of its inputs.
+ * With n nodes, an equi-join of inputs of l and r tuples
+ * <ul>
+ * <li>sends about (l + r) * (n - 1) / n tuples as a shuffle join (see {@link QShuffleJoin}),</li>
+ * <li>sends min(l, r) * (n - 1) tuples as a broadcast join of the smaller input
+ * (see {@link QBroadcastJoin}),</li>
+ * </ul>
+ * so the smaller input is broadcast when min(l, r) * n &lt;= l + r, as long as it fits in memory
+ * (at most simpledb.broadcast.maxRows tuples, {@value #DEFAULT_MAX_BROADCAST_ROWS} by default).
+ * The other joins are left unchanged.<br>
+ * The inputs are not run to count their tuples: their number is estimated from the number of tuples
+ * of their tables (see {@link QueryTree#estimateRows}), with fixed selectivities for the filters and
+ * the estimates of {@link simpledb.JoinOptimizer} for the joins.
+ */
+public class JoinPlanner {
+
+    public static final long DEFAULT_MAX_BROADCAST_ROWS = 50000;
+
+    // the fraction of the tuples passing a filter, by predicate
+    static final double EQUALS_SELECTIVITY = 0.1;
+    static final double RANGE_SELECTIVITY = 1.0 / 3;
+
+    /**
+     * Gives the number of tuples of a table over all the nodes
+     */
+    public interface Cardinalities {
+        long count(String tableName);
+    }
+
+    private final Cardinalities cardinalities;
+    private final int numNodes;
+    private final long maxBroadcastRows;
+
+    public JoinPlanner(Cardinalities cardinalities, int numNodes) {
+        this(cardinalities, numNodes, Long.getLong("simpledb.broadcast.maxRows", DEFAULT_MAX_BROADCAST_ROWS));
+    }
+
+    public JoinPlanner(Cardinalities cardinalities, int numNodes, long maxBroadcastRows) {
+        this.cardinalities = cardinalities;
+        this.numNodes = numNodes;
+        this.maxBroadcastRows = maxBroadcastRows;
+    }
+
+    /**
+     * @return the number of tuples of the table over all the nodes
+     */
+    long tableRows(String tableName) {
+        return cardinalities.count(tableName);
+    }
+
+    /**
+     * @return the estimated number of the rows of a filter with the given predicate
+     */
+    static long filterRows(long rows, Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return (long) Math.ceil(rows * EQUALS_SELECTIVITY);
+            case NOT_EQUALS:
+                return (long) Math.ceil(rows * (1 - EQUALS_SELECTIVITY));
+            default:
+                return (long) Math.ceil(rows * RANGE_SELECTIVITY);
+        }
+    }
+
+    /**
+     * @return the estimated number of the rows of a join of inputs of rows1 and rows2 rows, as
+     *         {@link simpledb.JoinOptimizer#estimateTableJoinCardinality} without key information
+     */
+    static long joinRows(long rows1, long rows2, Predicate.Op op) {
+        if (op == Predicate.Op.EQUALS || op == Predicate.Op.LIKE) {
+            return Math.max(rows1, rows2);
+        }
+        return (long) (rows1 * (double) rows2 * 0.3);
+    }
+
+    /**
+     * @return the query running the join of child1 and child2, whose own joins are already planned
+     */
+    QueryTree planJoin(QueryTree child1, QueryTree child2, int colNum1, Predicate.Op op, int colNum2) {
+        if (op != Predicate.Op.EQUALS || numNodes < 2) {
+            return QueryTree.join(child1, child2, colNum1, op, colNum2);
+        }
+        final long rows1 = child1.estimateRows(this);
+        final long rows2 = child2.estimateRows(this);
+        final long small = Math.min(rows1, rows2);
+        if (small <= maxBroadcastRows && small * numNodes <= rows1 + rows2) {
+            return QueryTree.broadcastJoin(null, child1, child2, colNum1, op, colNum2, rows1 <= rows2);
+        }
+        // the planned query is only sent as a String, each node parses it with its own NodeServer
+        return QueryTree.shuffleJoin(null, child1, child2, colNum1, op, colNum2);
+    }
+}
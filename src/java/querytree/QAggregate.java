@@ -4,6 +4,7 @@ import networking.NodeServer;
 import simpledb.Aggregator;
 import simpledb.OpIterator;
 import simpledb.Aggregate;
+import simpledb.MultiAggregate;
 
 public class QAggregate implements QueryTree {
     
@@ -28,18 +29,70 @@ public class QAggregate implements QueryTree {
 
     // TODO: change parser to handle Aggregator.Op
     private final QueryTree child;
-    private final int colNum;
-    private final Aggregator.Op aggregator;
+    private final int[] colNums;
+    private final Aggregator.Op[] aggregators;
+    private final int groupCol;
     
     QAggregate(QueryTree child, int colNum, Aggregator.Op aggregator) {
+        this(child, colNum, aggregator, Aggregator.NO_GROUPING);
+    }
+
+    QAggregate(QueryTree child, int colNum, Aggregator.Op aggregator, int groupCol) {
+        this(child, new int[]{colNum}, new Aggregator.Op[]{aggregator}, groupCol);
+    }
+
+    /**
+     * Several aggregates computed over a single scan of child, see {@link MultiAggregate}
+     */
+    QAggregate(QueryTree child, int[] colNums, Aggregator.Op[] aggregators, int groupCol) {
+        if (colNums.length != aggregators.length || colNums.length == 0) {
+            throw new IllegalArgumentException("Expected one aggregator per column");
+        }
         this.child = child;
-        this.colNum = colNum;
-        this.aggregator = aggregator;
+        this.colNums = colNums.clone();
+        this.aggregators = aggregators.clone();
+        this.groupCol = groupCol;
     }
 
     @Override
     public OpIterator getRootOp() {
-        return new Aggregate(this.child.getRootOp(), this.colNum, Aggregator.NO_GROUPING, aggregator);
+        if (aggregators.length == 1) {
+            return new Aggregate(this.child.getRootOp(), colNums[0], groupCol, aggregators[0]);
+        }
+        return new MultiAggregate(this.child.getRootOp(), colNums, aggregators, groupCol);
+    }
+
+    /**
+     * @return the query computing on one node the partial state of these aggregates, which can be
+     *         combined with the states of the other nodes: the same aggregates, except AVG which is
+     *         computed as SUM_COUNT, so that the data is read once
+     */
+    public QAggregate partial() {
+        final Aggregator.Op[] partials = aggregators.clone();
+        for (int i = 0; i < partials.length; i++) {
+            if (partials[i] == Aggregator.Op.AVG) {
+                partials[i] = Aggregator.Op.SUM_COUNT;
+            }
+        }
+        return new QAggregate(child, colNums, partials, groupCol);
+    }
+
+    /**
+     * @return the aggregate combining the partial states of the ith aggregate computed by several
+     *         nodes (see {@link #partial})
+     */
+    public Aggregator.Op combiner(int i) {
+        switch (aggregators[i]) {
+            case COUNT:
+                return Aggregator.Op.SUM;
+            case AVG:
+                return Aggregator.Op.SC_AVG;
+            case SUM_COUNT:
+            case SC_AVG:
+                throw new UnsupportedOperationException(aggregators[i].name() + " cannot be combined");
+            default:
+                return aggregators[i];
+        }
     }
 
     @Override
@@ -47,16 +100,59 @@ public class QAggregate implements QueryTree {
         return "AGGREGATE";
     }
 
+    /**
+     * @return the first aggregator
+     */
     public Aggregator.Op getAggregator(){
-        return this.aggregator;
+        return this.aggregators[0];
+    }
+
+    public Aggregator.Op getAggregator(int i) {
+        return this.aggregators[i];
+    }
+
+    public int numAggregates() {
+        return this.aggregators.length;
     }
 
     public QueryTree getChild(){
         return this.child;
     }
 
+    /**
+     * @return the column of the first aggregate
+     */
     public int getColNum(){
-        return this.colNum;
+        return this.colNums[0];
+    }
+
+    /**
+     * @return the group by column, or Aggregator.NO_GROUPING
+     */
+    public int getGroupCol() {
+        return this.groupCol;
+    }
+
+    public boolean isGrouped() {
+        return this.groupCol != Aggregator.NO_GROUPING;
+    }
+
+    @Override
+    public QueryTree forPartition(int partition, int numPartitions) {
+        return new QAggregate(child.forPartition(partition, numPartitions), colNums, aggregators, groupCol);
+    }
+
+    @Override
+    public QueryTree plan(JoinPlanner planner) {
+        return new QAggregate(child.plan(planner), colNums, aggregators, groupCol);
+    }
+
+    /**
+     * At most a row per tuple of the child when grouped, a single row otherwise
+     */
+    @Override
+    public long estimateRows(JoinPlanner planner) {
+        return isGrouped() ? child.estimateRows(planner) : 1;
     }
 
     @Override
@@ -66,7 +162,20 @@ public class QAggregate implements QueryTree {
 
     @Override
     public String toString() {
-        return "AGGREGATE(" + child + "," + colNum + "," + aggregator + ")";
+        final StringBuilder sb = new StringBuilder("AGGREGATE(").append(child).append(",");
+        if (aggregators.length == 1) {
+            sb.append(colNums[0]).append(",").append(aggregators[0].name());
+        } else {
+            sb.append("[");
+            for (int i = 0; i < aggregators.length; i++) {
+                sb.append(i == 0 ? "" : ",").append(aggregators[i].name()).append("(").append(colNums[i]).append(")");
+            }
+            sb.append("]");
+        }
+        if (isGrouped()) {
+            sb.append(",").append(groupCol);
+        }
+        return sb.append(")").toString();
     }
     
     @Override
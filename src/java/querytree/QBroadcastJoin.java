@@ -0,0 +1,85 @@
+package querytree;
+
+import distributeddb.BroadcastJoin;
+import distributeddb.Gather;
+import networking.NodeServer;
+import simpledb.JoinPredicate;
+import simpledb.OpIterator;
+import simpledb.Predicate;
+
+/**
+ * Distributed equi-join of a small input with a large one: every node gathers the whole small input
+ * from all the nodes once (see {@link Gather}), keeps it in a hash table and probes it with its
+ * local part of the large input (see {@link BroadcastJoin}). Chosen by {@link JoinPlanner} when
+ * replicating the small input costs less than shuffling both.
+ */
+public class QBroadcastJoin implements QueryTree {
+
+    private final NodeServer node;
+    private final QueryTree child1;
+    private final QueryTree child2;
+    private final JoinPredicate joinPredicate;
+    private final boolean broadcastLeft;
+
+    QBroadcastJoin(NodeServer node, QueryTree child1, QueryTree child2, int colNum1, Predicate.Op op, int colNum2,
+                   boolean broadcastLeft) {
+        if (op != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("BROADCAST_JOIN only joins on equality, not " + op);
+        }
+        this.node = node;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.joinPredicate = new JoinPredicate(colNum1, op, colNum2);
+        this.broadcastLeft = broadcastLeft;
+        // the small input is gathered explicitly, the large one is read where it is
+        child1.setIsGlobal(false);
+        child2.setIsGlobal(false);
+    }
+
+    @Override
+    public OpIterator getRootOp() {
+        if (broadcastLeft) {
+            return new BroadcastJoin(joinPredicate, new Gather(node, child1), child2.getRootOp(), true);
+        }
+        return new BroadcastJoin(joinPredicate, new Gather(node, child2), child1.getRootOp(), false);
+    }
+
+    /**
+     * Only the large input runs on this node alone; the partitions of the small one are left to its Gather
+     */
+    @Override
+    public QueryTree forPartition(int partition, int numPartitions) {
+        final QueryTree left = broadcastLeft ? child1 : child1.forPartition(partition, numPartitions);
+        final QueryTree right = broadcastLeft ? child2.forPartition(partition, numPartitions) : child2;
+        return new QBroadcastJoin(node, left, right, joinPredicate.getField1(), joinPredicate.getOperator(),
+                joinPredicate.getField2(), broadcastLeft);
+    }
+
+    @Override
+    public QueryTree plan(JoinPlanner planner) {
+        return new QBroadcastJoin(node, child1.plan(planner), child2.plan(planner), joinPredicate.getField1(),
+                joinPredicate.getOperator(), joinPredicate.getField2(), broadcastLeft);
+    }
+
+    @Override
+    public long estimateRows(JoinPlanner planner) {
+        return JoinPlanner.joinRows(child1.estimateRows(planner), child2.estimateRows(planner),
+                joinPredicate.getOperator());
+    }
+
+    @Override
+    public void setIsGlobal(boolean isGlobal) {
+    }
+
+    @Override
+    public String getRootType() {
+        return "BROADCAST_JOIN";
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BROADCAST_JOIN(%s, %s, %d %s %d, %s)", child1.toString(), child2.toString(),
+                joinPredicate.getField1(), joinPredicate.getOperator().toString(), joinPredicate.getField2(),
+                broadcastLeft ? "LEFT" : "RIGHT");
+    }
+}
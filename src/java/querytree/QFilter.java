@@ -17,6 +17,22 @@ class QFilter implements QueryTree {
         return new Filter(predicate, child.getRootOp());
     }
 
+    @Override
+    public QueryTree forPartition(int partition, int numPartitions) {
+        return new QFilter(child.forPartition(partition, numPartitions), predicate.getField(), predicate.getOp(),
+                predicate.getOperand());
+    }
+
+    @Override
+    public QueryTree plan(JoinPlanner planner) {
+        return new QFilter(child.plan(planner), predicate.getField(), predicate.getOp(), predicate.getOperand());
+    }
+
+    @Override
+    public long estimateRows(JoinPlanner planner) {
+        return JoinPlanner.filterRows(child.estimateRows(planner), predicate.getOp());
+    }
+
     @Override
     public void setIsGlobal(boolean isGlobal) {
 
@@ -24,6 +24,24 @@ public class QHashJoin implements QueryTree{
         return new HashEquiJoin(joinPredicate, child1.getRootOp(), child2.getRootOp());
     }
 
+    @Override
+    public QueryTree forPartition(int partition, int numPartitions) {
+        return new QHashJoin(child1.forPartition(partition, numPartitions), child2.forPartition(partition, numPartitions),
+                joinPredicate.getField1(), joinPredicate.getOperator(), joinPredicate.getField2());
+    }
+
+    @Override
+    public QueryTree plan(JoinPlanner planner) {
+        return new QHashJoin(child1.plan(planner), child2.plan(planner), joinPredicate.getField1(),
+                joinPredicate.getOperator(), joinPredicate.getField2());
+    }
+
+    @Override
+    public long estimateRows(JoinPlanner planner) {
+        return JoinPlanner.joinRows(child1.estimateRows(planner), child2.estimateRows(planner),
+                joinPredicate.getOperator());
+    }
+
     @Override
     //TODO: just copied for now might need to change later maybe always set to false? never need global for hash join
     public void setIsGlobal(boolean isGlobal) {
@@ -20,7 +20,25 @@ public class QJoin implements QueryTree {
     }
 
     public OpIterator getRootOp(){
-        return new Join(joinPredicate, child1.getRootOp(), child2.getRootOp());
+        return new BlockNestedLoopJoin(joinPredicate, child1.getRootOp(), child2.getRootOp());
+    }
+
+    @Override
+    public QueryTree forPartition(int partition, int numPartitions) {
+        return new QJoin(child1.forPartition(partition, numPartitions), child2.forPartition(partition, numPartitions),
+                joinPredicate.getField1(), joinPredicate.getOperator(), joinPredicate.getField2());
+    }
+
+    @Override
+    public QueryTree plan(JoinPlanner planner) {
+        return planner.planJoin(child1.plan(planner), child2.plan(planner), joinPredicate.getField1(),
+                joinPredicate.getOperator(), joinPredicate.getField2());
+    }
+
+    @Override
+    public long estimateRows(JoinPlanner planner) {
+        return JoinPlanner.joinRows(child1.estimateRows(planner), child2.estimateRows(planner),
+                joinPredicate.getOperator());
     }
 
     @Override
@@ -0,0 +1,72 @@
+package querytree;
+
+import simpledb.Limit;
+import simpledb.OpIterator;
+
+/**
+ * The first rows of a query. Every node returns at most limit rows, and the head node stops reading
+ * the nodes, closing their connections, once it has limit rows. The first rows of an AGGREGATE are
+ * taken by the head node from the merged rows, as the nodes only have partial results.
+ */
+public class QLimit implements QueryTree {
+
+    private final QueryTree child;
+    private final int limit;
+
+    QLimit(QueryTree child, int limit) {
+        this.child = child;
+        this.limit = limit;
+    }
+
+    @Override
+    public OpIterator getRootOp() {
+        return new Limit(limit, child.getRootOp());
+    }
+
+    public QueryTree getChild() {
+        return child;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public QueryTree forPartition(int partition, int numPartitions) {
+        return new QLimit(child.forPartition(partition, numPartitions), limit);
+    }
+
+    /**
+     * The first rows of a sorted query are planned as a {@link QTopN}, so that every node sends only
+     * its own first limit rows instead of its whole sorted result
+     */
+    @Override
+    public QueryTree plan(JoinPlanner planner) {
+        final QueryTree planned = child.plan(planner);
+        if (planned instanceof QOrderBy) {
+            final QOrderBy orderBy = (QOrderBy) planned;
+            return new QTopN(orderBy.getChild(), limit, orderBy.getColNum(), orderBy.isAsc());
+        }
+        return new QLimit(planned, limit);
+    }
+
+    @Override
+    public long estimateRows(JoinPlanner planner) {
+        return Math.min(limit, child.estimateRows(planner));
+    }
+
+    @Override
+    public void setIsGlobal(boolean isGlobal) {
+        child.setIsGlobal(isGlobal);
+    }
+
+    @Override
+    public String getRootType() {
+        return "LIMIT";
+    }
+
+    @Override
+    public String toString() {
+        return "LIMIT(" + child + "," + limit + ")";
+    }
+}
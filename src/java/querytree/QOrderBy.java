@@ -0,0 +1,81 @@
+package querytree;
+
+import simpledb.OpIterator;
+import simpledb.OrderBy;
+import simpledb.Tuple;
+import simpledb.TupleComparator;
+
+import java.util.Comparator;
+
+/**
+ * A query sorted by a column (ORDER BY). Every node sorts its own rows (see {@link OrderBy}) and
+ * streams them in order; the head node merges the sorted streams of all the nodes, keeping only the
+ * next row of every node in a heap, so no machine ever sorts the whole result. The merged rows of an
+ * AGGREGATE are sorted by the head node, as the nodes only have partial results.
+ */
+public class QOrderBy implements QueryTree {
+
+    private final QueryTree child;
+    private final int colNum;
+    private final boolean asc;
+
+    QOrderBy(QueryTree child, int colNum, boolean asc) {
+        this.child = child;
+        this.colNum = colNum;
+        this.asc = asc;
+    }
+
+    @Override
+    public OpIterator getRootOp() {
+        return new OrderBy(colNum, asc, child.getRootOp());
+    }
+
+    public QueryTree getChild() {
+        return child;
+    }
+
+    public int getColNum() {
+        return colNum;
+    }
+
+    public boolean isAsc() {
+        return asc;
+    }
+
+    /**
+     * @return the order of the rows returned by every node
+     */
+    public Comparator<Tuple> getOrder() {
+        return new TupleComparator(colNum, asc);
+    }
+
+    @Override
+    public QueryTree forPartition(int partition, int numPartitions) {
+        return new QOrderBy(child.forPartition(partition, numPartitions), colNum, asc);
+    }
+
+    @Override
+    public QueryTree plan(JoinPlanner planner) {
+        return new QOrderBy(child.plan(planner), colNum, asc);
+    }
+
+    @Override
+    public long estimateRows(JoinPlanner planner) {
+        return child.estimateRows(planner);
+    }
+
+    @Override
+    public void setIsGlobal(boolean isGlobal) {
+        child.setIsGlobal(isGlobal);
+    }
+
+    @Override
+    public String getRootType() {
+        return "ORDER_BY";
+    }
+
+    @Override
+    public String toString() {
+        return "ORDER_BY(" + child + "," + colNum + "," + (asc ? "ASC" : "DESC") + ")";
+    }
+}
@@ -0,0 +1,61 @@
+package querytree;
+
+import distributeddb.HashPartition;
+import simpledb.OpIterator;
+
+/**
+ * The tuples of the local result of a query that belong to one hash partition of a column; sent
+ * by a node running a shuffle join to each of its peers.
+ */
+public class QPartition implements QueryTree {
+
+    private final QueryTree child;
+    private final int colNum;
+    private final int partition;
+    private final int numPartitions;
+
+    QPartition(QueryTree child, int colNum, int partition, int numPartitions) {
+        this.child = child;
+        this.colNum = colNum;
+        this.partition = partition;
+        this.numPartitions = numPartitions;
+        // each node only partitions its own data
+        child.setIsGlobal(false);
+    }
+
+    @Override
+    public OpIterator getRootOp() {
+        return new HashPartition(child.getRootOp(), colNum, partition, numPartitions);
+    }
+
+    /**
+     * The child runs the share of the node sending the partition, which is kept whatever the share
+     */
+    @Override
+    public QueryTree forPartition(int partition, int numPartitions) {
+        return new QPartition(child.forPartition(partition, numPartitions), colNum, this.partition,
+                this.numPartitions);
+    }
+
+    /**
+     * Every node keeps one partition of its own tuples
+     */
+    @Override
+    public long estimateRows(JoinPlanner planner) {
+        return child.estimateRows(planner) / Math.max(1, numPartitions);
+    }
+
+    @Override
+    public void setIsGlobal(boolean isGlobal) {
+    }
+
+    @Override
+    public String getRootType() {
+        return "PARTITION";
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PARTITION(%s, %d, %d, %d)", child.toString(), colNum, partition, numPartitions);
+    }
+}
@@ -34,6 +34,11 @@ class QScan implements QueryTree {
         return "SCAN";
     }
 
+    @Override
+    public long estimateRows(JoinPlanner planner) {
+        return planner.tableRows(tableName);
+    }
+
     @Override
     public void setIsGlobal(boolean isGlobal) {
         this.isGlobal = isGlobal;
@@ -43,6 +43,11 @@ public class QSemiScan implements QueryTree{
         return "SEMISCAN";
     }
 
+    @Override
+    public long estimateRows(JoinPlanner planner) {
+        return planner.tableRows(tableName);
+    }
+
     @Override
     public void setIsGlobal(boolean isGlobal) {
         this.isGlobal = isGlobal;
@@ -51,7 +56,7 @@ public class QSemiScan implements QueryTree{
 
     @Override
     public String toString() {
-        return "SEMISCAN(" + tableAlias + ")";
+        return "SEMISCAN(" + tableAlias + ", " + colNum + ")";
     }
 
     @Override
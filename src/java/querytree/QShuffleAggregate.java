@@ -0,0 +1,85 @@
+package querytree;
+
+import distributeddb.Gather;
+import networking.NodeServer;
+import simpledb.Aggregate;
+import simpledb.Aggregator;
+import simpledb.OpIterator;
+
+/**
+ * Distributed GROUP BY whose final merge is spread over all the nodes. Every node computes the partial
+ * state of each group on its own data (see {@link QAggregate#partial}), the partial states are hash
+ * partitioned on the group, one partition per node, and each node merges the states of its partition
+ * (see {@link QAggregate#combiner(int)}). Every group is returned by exactly one node, so the head node only
+ * has to relay the results; a plain grouped AGGREGATE merges all the groups on the head node instead.
+ * <p>
+ * The partition of each node is assigned with {@link #forPartition}: by the head node before the
+ * query is sent, or by the {@link Gather} of an enclosing operator when the aggregate is one of its
+ * inputs. The partial states are gathered from every node, so the partitions of the child are left to
+ * the Gather of this aggregate.
+ */
+public class QShuffleAggregate implements QueryTree {
+
+    private final NodeServer node;
+    private final QAggregate aggregate;
+    private final int partition;
+    private final int numPartitions;
+
+    QShuffleAggregate(NodeServer node, QueryTree child, int colNum, Aggregator.Op aggregator, int groupCol,
+                      int partition, int numPartitions) {
+        if (groupCol == Aggregator.NO_GROUPING) {
+            throw new IllegalArgumentException("SHUFFLE_AGGREGATE needs a group by column");
+        }
+        this.node = node;
+        this.aggregate = new QAggregate(child, colNum, aggregator, groupCol);
+        this.partition = partition;
+        this.numPartitions = numPartitions;
+        // the partial states are partitioned, the child is not read globally
+        child.setIsGlobal(false);
+    }
+
+    @Override
+    public OpIterator getRootOp() {
+        if (numPartitions <= 0) {
+            throw new IllegalStateException("The partition of the node is not assigned: " + this);
+        }
+        // the partial states are (group, value) or (group, sum, count) tuples
+        return new Aggregate(new Gather(node, QueryTree.partition(aggregate.partial(), 0, partition, numPartitions)),
+                1, 0, aggregate.combiner(0));
+    }
+
+    @Override
+    public QueryTree forPartition(int partition, int numPartitions) {
+        return new QShuffleAggregate(node, aggregate.getChild(), aggregate.getColNum(), aggregate.getAggregator(), aggregate.getGroupCol(), partition, numPartitions);
+    }
+
+    @Override
+    public QueryTree plan(JoinPlanner planner) {
+        return new QShuffleAggregate(node, aggregate.getChild().plan(planner), aggregate.getColNum(),
+                aggregate.getAggregator(), aggregate.getGroupCol(), partition, numPartitions);
+    }
+
+    @Override
+    public long estimateRows(JoinPlanner planner) {
+        return aggregate.estimateRows(planner);
+    }
+
+    @Override
+    public void setIsGlobal(boolean isGlobal) {
+    }
+
+    @Override
+    public String getRootType() {
+        return "SHUFFLE_AGGREGATE";
+    }
+
+    @Override
+    public String toString() {
+        final String agg = "SHUFFLE_AGGREGATE(" + aggregate.getChild() + "," + aggregate.getColNum() + ","
+                + aggregate.getAggregator().name() + "," + aggregate.getGroupCol();
+        if (numPartitions <= 0) {
+            return agg + ")";
+        }
+        return agg + "," + partition + "," + numPartitions + ")";
+    }
+}
@@ -0,0 +1,92 @@
+package querytree;
+
+import distributeddb.Gather;
+import networking.NodeServer;
+import simpledb.HashEquiJoin;
+import simpledb.JoinPredicate;
+import simpledb.OpIterator;
+import simpledb.Predicate;
+
+/**
+ * Distributed equi-join of two queries whose data is spread over all the nodes. Both inputs are
+ * hash partitioned on their join column, one partition per node: each node gathers its partition of
+ * both inputs from every node (see {@link QPartition}) and joins them with a HashEquiJoin, so every
+ * matching pair is produced by exactly one node and every tuple is sent over the network once.
+ * <p>
+ * The partition of each node is assigned with {@link #forPartition}: by the head node before the
+ * query is sent, or by the {@link Gather} of an enclosing operator when the join is one of its inputs.
+ * The inputs of the join are gathered from every node, so their own partitions are left to the
+ * Gathers of this join.
+ */
+public class QShuffleJoin implements QueryTree {
+
+    private final NodeServer node;
+    private final QueryTree child1;
+    private final QueryTree child2;
+    private final JoinPredicate joinPredicate;
+    private final int partition;
+    private final int numPartitions;
+
+    QShuffleJoin(NodeServer node, QueryTree child1, QueryTree child2, int colNum1, Predicate.Op op, int colNum2,
+                 int partition, int numPartitions) {
+        if (op != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("SHUFFLE_JOIN only joins on equality, not " + op);
+        }
+        this.node = node;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.joinPredicate = new JoinPredicate(colNum1, op, colNum2);
+        this.partition = partition;
+        this.numPartitions = numPartitions;
+        // the children are partitioned, not read globally
+        child1.setIsGlobal(false);
+        child2.setIsGlobal(false);
+    }
+
+    @Override
+    public OpIterator getRootOp() {
+        if (numPartitions <= 0) {
+            throw new IllegalStateException("The partition of the node is not assigned: " + this);
+        }
+        return new HashEquiJoin(joinPredicate,
+                new Gather(node, QueryTree.partition(child1, joinPredicate.getField1(), partition, numPartitions)),
+                new Gather(node, QueryTree.partition(child2, joinPredicate.getField2(), partition, numPartitions)));
+    }
+
+    @Override
+    public QueryTree forPartition(int partition, int numPartitions) {
+        return new QShuffleJoin(node, child1, child2, joinPredicate.getField1(), joinPredicate.getOperator(),
+                joinPredicate.getField2(), partition, numPartitions);
+    }
+
+    @Override
+    public QueryTree plan(JoinPlanner planner) {
+        return new QShuffleJoin(node, child1.plan(planner), child2.plan(planner), joinPredicate.getField1(),
+                joinPredicate.getOperator(), joinPredicate.getField2(), partition, numPartitions);
+    }
+
+    @Override
+    public long estimateRows(JoinPlanner planner) {
+        return JoinPlanner.joinRows(child1.estimateRows(planner), child2.estimateRows(planner),
+                joinPredicate.getOperator());
+    }
+
+    @Override
+    public void setIsGlobal(boolean isGlobal) {
+    }
+
+    @Override
+    public String getRootType() {
+        return "SHUFFLE_JOIN";
+    }
+
+    @Override
+    public String toString() {
+        final String join = String.format("SHUFFLE_JOIN(%s, %s, %d %s %d", child1.toString(), child2.toString(),
+                joinPredicate.getField1(), joinPredicate.getOperator().toString(), joinPredicate.getField2());
+        if (numPartitions <= 0) {
+            return join + ")";
+        }
+        return join + String.format(", %d, %d)", partition, numPartitions);
+    }
+}
@@ -0,0 +1,69 @@
+package querytree;
+
+import simpledb.JoinPredicate;
+import simpledb.OpIterator;
+import simpledb.Predicate;
+import simpledb.SortMergeJoin;
+
+/**
+ * A join run by sorting its inputs, see {@link SortMergeJoin}: an equality join merges both sorted
+ * inputs, a range join (for instance on timestamps) reads for each row of the left input the prefix
+ * of the sorted right input it matches, instead of the whole right input as JOIN does. The inputs
+ * are read on each node as for JOIN: the left one from all the nodes, the right one locally.
+ */
+public class QSortMergeJoin implements QueryTree {
+
+    private final QueryTree child1;
+    private final QueryTree child2;
+    private final JoinPredicate joinPredicate;
+
+    QSortMergeJoin(QueryTree child1, QueryTree child2, int colNum1, Predicate.Op op, int colNum2) {
+        this.child1 = child1;
+        this.child2 = child2;
+        this.joinPredicate = new JoinPredicate(colNum1, op, colNum2);
+        setIsGlobal(false);
+    }
+
+    @Override
+    public OpIterator getRootOp() {
+        return new SortMergeJoin(joinPredicate, child1.getRootOp(), child2.getRootOp());
+    }
+
+    @Override
+    public QueryTree forPartition(int partition, int numPartitions) {
+        return new QSortMergeJoin(child1.forPartition(partition, numPartitions),
+                child2.forPartition(partition, numPartitions), joinPredicate.getField1(),
+                joinPredicate.getOperator(), joinPredicate.getField2());
+    }
+
+    @Override
+    public QueryTree plan(JoinPlanner planner) {
+        // asked for explicitly, so not replaced by the planner's choice
+        return new QSortMergeJoin(child1.plan(planner), child2.plan(planner), joinPredicate.getField1(),
+                joinPredicate.getOperator(), joinPredicate.getField2());
+    }
+
+    @Override
+    public long estimateRows(JoinPlanner planner) {
+        return JoinPlanner.joinRows(child1.estimateRows(planner), child2.estimateRows(planner),
+                joinPredicate.getOperator());
+    }
+
+    @Override
+    public void setIsGlobal(boolean isGlobal) {
+        child1.setIsGlobal(true);
+        child2.setIsGlobal(isGlobal);
+    }
+
+    @Override
+    public String getRootType() {
+        return "SORT_MERGE_JOIN";
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SORT_MERGE_JOIN(%s, %s, %d %s %d)", child1.toString(), child2.toString(),
+                joinPredicate.getField1(), joinPredicate.getOperator().toString(), joinPredicate.getField2());
+    }
+
+}
@@ -0,0 +1,79 @@
+package querytree;
+
+import simpledb.OpIterator;
+import simpledb.TopN;
+import simpledb.Tuple;
+import simpledb.TupleComparator;
+
+import java.util.Comparator;
+
+/**
+ * The first rows of a query in the order of a column (ORDER BY ... LIMIT). Every node returns its
+ * own first limit rows, in order (see {@link TopN}); the head node merges these sorted streams and
+ * stops reading the nodes once it has limit rows. The first rows of an AGGREGATE are taken by the head
+ * node from the merged rows, as the nodes only have partial results.
+ */
+public class QTopN implements QueryTree {
+
+    private final QueryTree child;
+    private final int limit;
+    private final int colNum;
+    private final boolean asc;
+
+    QTopN(QueryTree child, int limit, int colNum, boolean asc) {
+        this.child = child;
+        this.limit = limit;
+        this.colNum = colNum;
+        this.asc = asc;
+    }
+
+    @Override
+    public OpIterator getRootOp() {
+        return new TopN(limit, colNum, asc, child.getRootOp());
+    }
+
+    public QueryTree getChild() {
+        return child;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the order of the rows returned by every node
+     */
+    public Comparator<Tuple> getOrder() {
+        return new TupleComparator(colNum, asc);
+    }
+
+    @Override
+    public QueryTree forPartition(int partition, int numPartitions) {
+        return new QTopN(child.forPartition(partition, numPartitions), limit, colNum, asc);
+    }
+
+    @Override
+    public QueryTree plan(JoinPlanner planner) {
+        return new QTopN(child.plan(planner), limit, colNum, asc);
+    }
+
+    @Override
+    public long estimateRows(JoinPlanner planner) {
+        return Math.min(limit, child.estimateRows(planner));
+    }
+
+    @Override
+    public void setIsGlobal(boolean isGlobal) {
+        child.setIsGlobal(isGlobal);
+    }
+
+    @Override
+    public String getRootType() {
+        return "TOP";
+    }
+
+    @Override
+    public String toString() {
+        return "TOP(" + child + "," + limit + "," + colNum + "," + (asc ? "ASC" : "DESC") + ")";
+    }
+}
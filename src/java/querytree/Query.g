@@ -1,15 +1,28 @@
 @skip whitespace {
-    commands ::= scan | filter | aggregate | join | hash_join | semi_scan;
+    commands ::= scan | filter | aggregate | shuffle_aggregate | join | hash_join | sort_merge_join | semi_scan | shuffle_join | broadcast_join | partition | limit | top | order_by;
     scan ::= 'SCAN' '(' words ')';
     filter ::= 'FILTER' '(' commands ',' number pred number ')';
-    aggregate ::= 'AGGREGATE' '(' commands ',' number ',' aggregator ')';
+    aggregate ::= 'AGGREGATE' '(' commands ',' (number ',' aggregator | aggregates) (',' number)? ')';
+    aggregates ::= '[' aggregate_column (',' aggregate_column)* ']';
+    aggregate_column ::= aggregator '(' number ')';
+    shuffle_aggregate ::= 'SHUFFLE_AGGREGATE' '(' commands ',' number ',' aggregator ',' number (',' number ',' number)? ')';
     join ::= 'JOIN' '(' commands ',' commands ',' number pred number ')';
     hash_join ::= 'HASH_JOIN' '(' commands ',' commands ',' number pred number ')';
+    sort_merge_join ::= 'SORT_MERGE_JOIN' '(' commands ',' commands ',' number pred number ')';
     semi_scan ::= 'SEMISCAN' '(' words ',' number ')';
+    shuffle_join ::= 'SHUFFLE_JOIN' '(' commands ',' commands ',' number equals number (',' number ',' number)? ')';
+    broadcast_join ::= 'BROADCAST_JOIN' '(' commands ',' commands ',' number equals number ',' side ')';
+    limit ::= 'LIMIT' '(' commands ',' number ')';
+    top ::= 'TOP' '(' commands ',' number ',' number ',' direction ')';
+    order_by ::= 'ORDER_BY' '(' commands ',' number ',' direction ')';
+    partition ::= 'PARTITION' '(' commands ',' number ',' number ',' number ')';
 }
 
 words ::= ([A-Z] | [a-z] | [0-9] | [_.-])+;
 number ::= [0-9]+;
 pred ::= '=' | '>' | '<' | '<=' | '>=' | '!=' ;
-aggregator ::= 'MIN' | 'MAX' | 'SUM' | 'AVG' | 'COUNT';
+equals ::= '=';
+aggregator ::= 'MIN' | 'MAX' | 'SUM_COUNT' | 'SUM' | 'AVG' | 'COUNT';
+side ::= 'LEFT' | 'RIGHT';
+direction ::= 'ASC' | 'DESC';
 whitespace ::= [ \t\r\n]+;
@@ -22,7 +22,7 @@ public class QueryParser {
     private QueryParser() {
     } // This should be a static class
 
-    private enum QueryGrammar {COMMANDS, SCAN, FILTER, AGGREGATE, WORDS, NUMBER, PRED, AGGREGATOR, WHITESPACE, JOIN, HASH_JOIN, SEMISCAN};
+    private enum QueryGrammar {COMMANDS, SCAN, FILTER, AGGREGATE, AGGREGATES, AGGREGATE_COLUMN, SHUFFLE_AGGREGATE, WORDS, NUMBER, PRED, EQUALS, AGGREGATOR, WHITESPACE, JOIN, HASH_JOIN, SORT_MERGE_JOIN, SEMI_SCAN, SHUFFLE_JOIN, BROADCAST_JOIN, SIDE, PARTITION, LIMIT, TOP, ORDER_BY, DIRECTION};
 
     private static final Parser<QueryGrammar> PARSER = makeParser();
 
@@ -53,7 +53,7 @@ public class QueryParser {
                 final String tableName = tree.children().get(0).text();
                 return QueryTree.scan(node, tableName, tableName, useSimpleDb);
             }
-            case SEMISCAN: {
+            case SEMI_SCAN: {
                 final String tableName = tree.children().get(0).text();
                 final int colNum = Integer.parseInt(tree.children().get(1).text());
                 return QueryTree.colScan(node, tableName, tableName, colNum);
@@ -69,10 +69,38 @@ public class QueryParser {
             case AGGREGATE: {
                 final List<ParseTree<QueryGrammar>> children = tree.children();
                 final QueryTree child = makeQueryTree(node, children.get(0), useSimpleDb);
+                if (children.get(1).name() == QueryGrammar.AGGREGATES) {
+                    final List<ParseTree<QueryGrammar>> columns = children.get(1).children();
+                    final int[] colNums = new int[columns.size()];
+                    final Aggregator.Op[] aggs = new Aggregator.Op[columns.size()];
+                    for (int i = 0; i < columns.size(); i++) {
+                        aggs[i] = convertNameToAgg(columns.get(i).children().get(0).text());
+                        colNums[i] = Integer.parseInt(columns.get(i).children().get(1).text());
+                    }
+                    final int groupColNum = (children.size() > 2) ? Integer.parseInt(children.get(2).text())
+                            : Aggregator.NO_GROUPING;
+                    return QueryTree.aggregate(child, colNums, aggs, groupColNum);
+                }
                 final int colNum = Integer.parseInt(children.get(1).text());
                 final Aggregator.Op agg = convertNameToAgg(children.get(2).text());
+                if (children.size() > 3) {
+                    return QueryTree.aggregate(child, colNum, agg, Integer.parseInt(children.get(3).text()));
+                }
                 return QueryTree.aggregate(child, colNum, agg);
             }
+            case SHUFFLE_AGGREGATE: {
+                final List<ParseTree<QueryGrammar>> children = tree.children();
+                final QueryTree child = makeQueryTree(node, children.get(0), useSimpleDb);
+                final int colNum = Integer.parseInt(children.get(1).text());
+                final Aggregator.Op agg = convertNameToAgg(children.get(2).text());
+                final int groupColNum = Integer.parseInt(children.get(3).text());
+                if (children.size() > 4) {
+                    final int partition = Integer.parseInt(children.get(4).text());
+                    final int numPartitions = Integer.parseInt(children.get(5).text());
+                    return QueryTree.shuffleAggregate(node, child, colNum, agg, groupColNum, partition, numPartitions);
+                }
+                return QueryTree.shuffleAggregate(node, child, colNum, agg, groupColNum);
+            }
             case JOIN: {
                 final List<ParseTree<QueryGrammar>> children = tree.children();
                 final QueryTree child1 = makeQueryTree(node, children.get(0), useSimpleDb);
@@ -91,6 +119,65 @@ public class QueryParser {
                 final int colNum2 = Integer.parseInt(children.get(4).text());
                 return QueryTree.hashJoin(child1, child2, colNum1, op, colNum2);
             }
+            case SORT_MERGE_JOIN: {
+                final List<ParseTree<QueryGrammar>> children = tree.children();
+                final QueryTree child1 = makeQueryTree(node, children.get(0), useSimpleDb);
+                final QueryTree child2 = makeQueryTree(node, children.get(1), useSimpleDb);
+                final int colNum1 = Integer.parseInt(children.get(2).text());
+                final Predicate.Op op = convertSignToPred(children.get(3).text());
+                final int colNum2 = Integer.parseInt(children.get(4).text());
+                return QueryTree.sortMergeJoin(child1, child2, colNum1, op, colNum2);
+            }
+            case SHUFFLE_JOIN: {
+                final List<ParseTree<QueryGrammar>> children = tree.children();
+                final QueryTree child1 = makeQueryTree(node, children.get(0), useSimpleDb);
+                final QueryTree child2 = makeQueryTree(node, children.get(1), useSimpleDb);
+                final int colNum1 = Integer.parseInt(children.get(2).text());
+                final Predicate.Op op = convertSignToPred(children.get(3).text());
+                final int colNum2 = Integer.parseInt(children.get(4).text());
+                if (children.size() > 5) {
+                    final int partition = Integer.parseInt(children.get(5).text());
+                    final int numPartitions = Integer.parseInt(children.get(6).text());
+                    return QueryTree.shuffleJoin(node, child1, child2, colNum1, op, colNum2, partition, numPartitions);
+                }
+                return QueryTree.shuffleJoin(node, child1, child2, colNum1, op, colNum2);
+            }
+            case BROADCAST_JOIN: {
+                final List<ParseTree<QueryGrammar>> children = tree.children();
+                final QueryTree child1 = makeQueryTree(node, children.get(0), useSimpleDb);
+                final QueryTree child2 = makeQueryTree(node, children.get(1), useSimpleDb);
+                final int colNum1 = Integer.parseInt(children.get(2).text());
+                final Predicate.Op op = convertSignToPred(children.get(3).text());
+                final int colNum2 = Integer.parseInt(children.get(4).text());
+                final boolean broadcastLeft = children.get(5).text().equals("LEFT");
+                return QueryTree.broadcastJoin(node, child1, child2, colNum1, op, colNum2, broadcastLeft);
+            }
+            case PARTITION: {
+                final List<ParseTree<QueryGrammar>> children = tree.children();
+                final QueryTree child = makeQueryTree(node, children.get(0), useSimpleDb);
+                final int colNum = Integer.parseInt(children.get(1).text());
+                final int partition = Integer.parseInt(children.get(2).text());
+                final int numPartitions = Integer.parseInt(children.get(3).text());
+                return QueryTree.partition(child, colNum, partition, numPartitions);
+            }
+            case LIMIT: {
+                final List<ParseTree<QueryGrammar>> children = tree.children();
+                final QueryTree child = makeQueryTree(node, children.get(0), useSimpleDb);
+                return QueryTree.limit(child, Integer.parseInt(children.get(1).text()));
+            }
+            case TOP: {
+                final List<ParseTree<QueryGrammar>> children = tree.children();
+                final QueryTree child = makeQueryTree(node, children.get(0), useSimpleDb);
+                final int limit = Integer.parseInt(children.get(1).text());
+                final int colNum = Integer.parseInt(children.get(2).text());
+                return QueryTree.top(child, limit, colNum, children.get(3).text().equals("ASC"));
+            }
+            case ORDER_BY: {
+                final List<ParseTree<QueryGrammar>> children = tree.children();
+                final QueryTree child = makeQueryTree(node, children.get(0), useSimpleDb);
+                final int colNum = Integer.parseInt(children.get(1).text());
+                return QueryTree.orderBy(child, colNum, children.get(2).text().equals("ASC"));
+            }
             default:
                 throw new AssertionError("should never get here or not implemented:" + tree);
         }
@@ -123,6 +210,8 @@ public class QueryParser {
                 return Aggregator.Op.MAX;
             case "SUM":
                 return Aggregator.Op.SUM;
+            case "SUM_COUNT":
+                return Aggregator.Op.SUM_COUNT;
             case "AVG":
                 return Aggregator.Op.AVG;
             case "COUNT":
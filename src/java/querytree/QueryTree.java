@@ -12,8 +12,16 @@ public interface QueryTree {
     /**
      * QueryTree = QScan(tableName: String)
      *             + QFilter(child: QueryTree, colNumber: int, predicate: enum, operand: int)
-     *             + QAggregate(child: QueryTree, colNumber: int, aggregator: enum)
+     *             + QAggregate(child: QueryTree, colNumbers: int[], aggregators: enum[], groupColNumber: int)
+     *             + QShuffleAggregate(child: QueryTree, colNumber: int, aggregator: enum, groupColNumber: int)
      *             + QJoin(left: QueryTree, right: QueryTree, colL: int, colR: int, jpredicate: ?)
+     *             + QSortMergeJoin(left: QueryTree, right: QueryTree, colL: int, colR: int, jpredicate: ?)
+     *             + QShuffleJoin(left: QueryTree, right: QueryTree, colL: int, colR: int, jpredicate: ?)
+     *             + QBroadcastJoin(small: QueryTree, large: QueryTree, colL: int, colR: int, jpredicate: ?, side: enum)
+     *             + QLimit(child: QueryTree, limit: int)
+     *             + QTopN(child: QueryTree, limit: int, colNumber: int, ascending: boolean)
+     *             + QOrderBy(child: QueryTree, colNumber: int, ascending: boolean)
+     *             + QPartition(child: QueryTree, colNumber: int, partition: int, numPartitions: int)
      * The class names are prefixed with letter "Q" to avoid conflict with simpledb classes
      */
     
@@ -43,6 +51,34 @@ public interface QueryTree {
         return new QAggregate(child, colNum, aggregator);
     }
 
+    /**
+     * Aggregate of each group of the tuples with the same value in groupColNum, merged on the head node
+     */
+    public static QueryTree aggregate(QueryTree child, int colNum, Aggregator.Op aggregator, int groupColNum) {
+        return new QAggregate(child, colNum, aggregator, groupColNum);
+    }
+
+    /**
+     * Several aggregates of each group computed over a single scan of child, or of all the tuples if
+     * groupColNum is Aggregator.NO_GROUPING
+     */
+    public static QueryTree aggregate(QueryTree child, int[] colNums, Aggregator.Op[] aggregators, int groupColNum) {
+        return new QAggregate(child, colNums, aggregators, groupColNum);
+    }
+
+    /**
+     * Aggregate of each group, merged over all the nodes, see {@link QShuffleAggregate}
+     */
+    public static QueryTree shuffleAggregate(NodeServer node, QueryTree child, int colNum, Aggregator.Op aggregator,
+                                             int groupColNum) {
+        return new QShuffleAggregate(node, child, colNum, aggregator, groupColNum, 0, 0);
+    }
+
+    public static QueryTree shuffleAggregate(NodeServer node, QueryTree child, int colNum, Aggregator.Op aggregator,
+                                             int groupColNum, int partition, int numPartitions) {
+        return new QShuffleAggregate(node, child, colNum, aggregator, groupColNum, partition, numPartitions);
+    }
+
     public static QueryTree join(QueryTree child1, QueryTree child2, int colNum1, Predicate.Op op, int colNum2) {
         return new QJoin(child1, child2, colNum1, op, colNum2);
     }
@@ -51,8 +87,86 @@ public interface QueryTree {
         return new QHashJoin(child1, child2, colNum1, op, colNum2);
     }
 
+    /**
+     * Join of child1 and child2 sorted on their join columns, see {@link QSortMergeJoin}
+     */
+    public static QueryTree sortMergeJoin(QueryTree child1, QueryTree child2, int colNum1, Predicate.Op op,
+                                          int colNum2) {
+        return new QSortMergeJoin(child1, child2, colNum1, op, colNum2);
+    }
+
+    /**
+     * Join partitioned over all the nodes, see {@link QShuffleJoin}
+     */
+    public static QueryTree shuffleJoin(NodeServer node, QueryTree child1, QueryTree child2, int colNum1,
+                                        Predicate.Op op, int colNum2) {
+        return new QShuffleJoin(node, child1, child2, colNum1, op, colNum2, 0, 0);
+    }
+
+    public static QueryTree shuffleJoin(NodeServer node, QueryTree child1, QueryTree child2, int colNum1,
+                                        Predicate.Op op, int colNum2, int partition, int numPartitions) {
+        return new QShuffleJoin(node, child1, child2, colNum1, op, colNum2, partition, numPartitions);
+    }
+
+    /**
+     * Join replicating one input on all the nodes, see {@link QBroadcastJoin}
+     * @param broadcastLeft whether child1 (the left input) is the one replicated, or child2
+     */
+    public static QueryTree broadcastJoin(NodeServer node, QueryTree child1, QueryTree child2, int colNum1,
+                                          Predicate.Op op, int colNum2, boolean broadcastLeft) {
+        return new QBroadcastJoin(node, child1, child2, colNum1, op, colNum2, broadcastLeft);
+    }
+
+    public static QueryTree partition(QueryTree child, int colNum, int partition, int numPartitions) {
+        return new QPartition(child, colNum, partition, numPartitions);
+    }
+
+    /**
+     * The first limit rows of child, see {@link QLimit}
+     */
+    public static QueryTree limit(QueryTree child, int limit) {
+        return new QLimit(child, limit);
+    }
+
+    /**
+     * The first limit rows of child in the order of a column, see {@link QTopN}
+     */
+    public static QueryTree top(QueryTree child, int limit, int colNum, boolean asc) {
+        return new QTopN(child, limit, colNum, asc);
+    }
+
+    /**
+     * child sorted by a column, see {@link QOrderBy}
+     */
+    public static QueryTree orderBy(QueryTree child, int colNum, boolean asc) {
+        return new QOrderBy(child, colNum, asc);
+    }
+
     public OpIterator getRootOp();
 
+    /**
+     * @return this query as sent to the node handling the given partition of the data, when the
+     *         query contains operators that partition their work between the nodes
+     * @param partition the index of the node among the nodes running the query
+     * @param numPartitions the number of nodes running the query
+     */
+    public default QueryTree forPartition(int partition, int numPartitions) {
+        return this;
+    }
+
+    /**
+     * @return this query with its joins run as chosen by the planner, see {@link JoinPlanner}
+     */
+    public default QueryTree plan(JoinPlanner planner) {
+        return this;
+    }
+
+    /**
+     * @return an estimate of the number of tuples of this query over all the nodes, computed from the
+     *         number of tuples of its tables given by the planner, without running any part of it
+     */
+    public long estimateRows(JoinPlanner planner);
+
     public void setIsGlobal(boolean isGlobal);
 
     public String getRootType();
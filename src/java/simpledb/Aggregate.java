@@ -7,7 +7,7 @@ import java.util.*;
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
@@ -17,6 +17,7 @@ public class Aggregate extends Operator {
     private final TupleDesc td;
     private final Aggregator aggregator; // the aggregator
     private OpIterator aggregatedIterator = null; // iterator of the aggregated tuples
+    private transient BatchIterator aggregatedBatches = null;
 
     /**
      * Constructor.
@@ -53,15 +54,21 @@ public class Aggregate extends Operator {
     }
     
     /**
-     * Loop over the child OpIterator and aggregate the fields
+     * Loop over the child OpIterator and aggregate the fields. The child is
+     * read in batches, which the aggregators merge without a Tuple per row.
      * @throws TransactionAbortedException if transcation aborted
      * @throws DbException when there are problems opening/accessing the database.
      * @throws NoSuchElementException if there are no more tuples when iterating
      */
     private void aggregateAll() throws NoSuchElementException, DbException, TransactionAbortedException {
         child.open();
-        while(child.hasNext()) {
-            aggregator.mergeTupleIntoGroup(child.next());
+        if (aggregator instanceof IntegerAggregator) {
+            ((IntegerAggregator) aggregator).setTupleDesc(td);
+        }
+        final BatchIterator batches = TupleBatchAdapter.of(child);
+        ColumnBatch batch;
+        while ((batch = batches.nextBatch()) != null) {
+            aggregator.mergeBatchIntoGroup(batch);
         }
         child.close();
     }
@@ -120,6 +127,17 @@ public class Aggregate extends Operator {
         aggregateAll();
         aggregatedIterator = aggregator.iterator();
         aggregatedIterator.open();
+        aggregatedBatches = null;
+    }
+
+    /**
+     * Returns the aggregated tuples in batches
+     */
+    public ColumnBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (aggregatedBatches == null) {
+            aggregatedBatches = TupleBatchAdapter.of(aggregatedIterator);
+        }
+        return aggregatedBatches.nextBatch();
     }
 
     /**
@@ -140,6 +158,7 @@ public class Aggregate extends Operator {
     public void rewind() throws DbException, TransactionAbortedException {
         aggregatedIterator = aggregator.iterator();
         aggregatedIterator.open();
+        aggregatedBatches = null;
     }
 
     /**
@@ -154,17 +173,35 @@ public class Aggregate extends Operator {
      * iterator.
      */
     public TupleDesc getTupleDesc() {
-        if (gfield != Aggregator.NO_GROUPING){
-            return new TupleDesc(new Type[]{td.getFieldType(gfield), Type.INT_TYPE},
-                    new String[]{groupFieldName(), aop.toString() + "(" + aggregateFieldName() + ")"});
-        } else {
-            return new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{aop.toString() + "(" + aggregateFieldName() + ")"});
+        return aggregateTupleDesc(td, afield, gfield, aop);
+    }
+
+    /**
+     * @return the TupleDesc of the result of an aggregate over tuples
+     *         described by childTd: the group by field if any, then the
+     *         aggregate value, then the count for SUM_COUNT
+     */
+    static TupleDesc aggregateTupleDesc(TupleDesc childTd, int afield, int gfield, Aggregator.Op aop) {
+        final String aggName = aop.toString() + "(" + childTd.getFieldName(afield) + ")";
+        final ArrayList<Type> types = new ArrayList<Type>();
+        final ArrayList<String> names = new ArrayList<String>();
+        if (gfield != Aggregator.NO_GROUPING) {
+            types.add(childTd.getFieldType(gfield));
+            names.add(childTd.getFieldName(gfield));
+        }
+        types.add(Type.INT_TYPE);
+        names.add(aggName);
+        if (aop == Aggregator.Op.SUM_COUNT) {
+            types.add(Type.INT_TYPE);
+            names.add("count(" + childTd.getFieldName(afield) + ")");
         }
+        return new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
     }
 
     public void close() {
         super.close();
         aggregatedIterator = null;
+        aggregatedBatches = null;
     }
 
     @Override
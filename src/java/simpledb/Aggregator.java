@@ -76,6 +76,18 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merges the selected rows of a batch into the aggregate, as
+     * mergeTupleIntoGroup does for each of them
+     *
+     * @param batch rows containing an aggregate field and a group-by field
+     */
+    public default void mergeBatchIntoGroup(ColumnBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            mergeTupleIntoGroup(batch.getTuple(i));
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -0,0 +1,432 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a secondary index over a field of a table, stored as a B+
+ * tree: its leaves hold an entry (key, page number, slot) for each tuple of
+ * the table, in the order of the keys, and its internal pages route a
+ * lookup from the root to the leaf of a key in a few page reads. Its pages
+ * are {@link BTreePage}s, read through the BufferPool like the pages of a
+ * HeapFile, so they are locked, cached and logged the same way.
+ * <p>
+ * The root is always page 0; a full root moves its entries to a new page
+ * and becomes its parent. Leaves are not merged when entries are deleted.
+ * <p>
+ * The entries are kept in sync with the table by the BufferPool, which
+ * inserts and deletes them along with the tuples of the table. insertTuple
+ * and deleteTuple take a tuple of the table, with its RecordId.
+ *
+ * @see Catalog#addIndex
+ * @see IndexScan
+ */
+public class BTreeFile implements DbFile {
+
+    /** The page number of the root */
+    public static final int ROOT = 0;
+
+    private final File f;
+    private final int fileId;
+    private final int tableId;
+    private final int keyField;
+    private final Type keyType;
+    private final TupleDesc td; // of the entries
+
+    /**
+     * Constructs an index backed by the specified file, which is created on
+     * the first write if it does not exist.
+     *
+     * @param f the file that stores the pages of the index
+     * @param table the indexed table
+     * @param keyField the index of the indexed field in the tuples of the table
+     */
+    public BTreeFile(File f, DbFile table, int keyField) {
+        this.f = f;
+        this.fileId = f.getAbsoluteFile().hashCode();
+        this.tableId = table.getId();
+        this.keyField = keyField;
+        this.keyType = table.getTupleDesc().getFieldType(keyField);
+        this.td = new TupleDesc(new Type[]{keyType, Type.INT_TYPE, Type.INT_TYPE},
+                new String[]{"key", "page", "slot"});
+    }
+
+    /**
+     * Returns the File backing this index on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * @return an ID uniquely identifying this index, the table id of its pages
+     */
+    public int getId() {
+        return fileId;
+    }
+
+    /**
+     * @return the id of the indexed table
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the index of the indexed field in the tuples of the table
+     */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * Returns the TupleDesc of the entries of the index: the key, the page
+     * number and the slot of a tuple of the table.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of pages in this index, 0 until it is first written.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized Page readPage(PageId pid) {
+        if (pid.getTableId() != fileId) {
+            throw new IllegalArgumentException("Not the correct index");
+        }
+        final int pageno = pid.getPageNumber();
+        final int pageSize = BufferPool.getPageSize();
+        final byte[] data = new byte[pageSize];
+        try {
+            if (pageno >= 0 && pageno < numPages()) {
+                try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+                    raf.seek((long) pageno * pageSize);
+                    raf.readFully(data);
+                }
+            } else if (pageno != ROOT) {
+                throw new IllegalArgumentException("Invalid page number");
+            } // else the root of an empty index, which reads as zeros
+            return new BTreePage(new BTreePageId(fileId, pageno), data, keyType);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("I/O error detected reading the page");
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void writePage(Page page) throws IOException {
+        final int pageSize = BufferPool.getPageSize();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek((long) page.getId().getPageNumber() * pageSize);
+            raf.write(page.getPageData());
+        }
+    }
+
+    /**
+     * Adds an empty page at the end of the file, after the root even if it
+     * was never written
+     * @return the page number of the new page
+     */
+    private synchronized int allocatePage() throws IOException {
+        final int pageno = Math.max(numPages(), ROOT + 1);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength((long) (pageno + 1) * BufferPool.getPageSize());
+        }
+        return pageno;
+    }
+
+    private BTreePage getPage(TransactionId tid, int pageno, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, new BTreePageId(fileId, pageno), perm);
+    }
+
+    /**
+     * Inserts the entry of a tuple of the table, splitting the pages it
+     * overfills from its leaf up. The pages on the path from the root are
+     * locked for writing, since a split can reach any of them.
+     *
+     * @param t a tuple of the table, whose RecordId is set
+     * @return the pages modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        final Field key = t.getField(keyField);
+        final int page = t.getRecordId().getPageId().getPageNumber();
+        final int slot = t.getRecordId().getTupleNumber();
+
+        // the internal pages from the root, and the child taken in each
+        final ArrayList<BTreePage> path = new ArrayList<BTreePage>();
+        final ArrayList<Integer> positions = new ArrayList<Integer>();
+        BTreePage node = getPage(tid, ROOT, Permissions.READ_WRITE);
+        while (!node.isLeaf()) {
+            final int position = node.search(key, page, slot);
+            path.add(node);
+            positions.add(position);
+            node = getPage(tid, node.getChild(position), Permissions.READ_WRITE);
+        }
+        node.insertEntry(node.search(key, page, slot), key, page, slot);
+
+        final ArrayList<Page> dirty = new ArrayList<Page>();
+        dirty.add(node);
+        for (int level = path.size(); node.isOverfull(); level--) {
+            if (level == 0) {
+                // node is the root: it keeps its page and gets a level below
+                final BTreePage child = getPage(tid, allocatePage(), Permissions.READ_WRITE);
+                node.pushDown(child);
+                path.add(0, node);
+                positions.add(0, 0);
+                dirty.add(child);
+                node = child;
+                level++;
+            }
+            final BTreePage parent = path.get(level - 1);
+            final BTreePage right = getPage(tid, allocatePage(), Permissions.READ_WRITE);
+            node.split(right, parent, positions.get(level - 1));
+            dirty.add(right);
+            if (!dirty.contains(parent)) {
+                dirty.add(parent);
+            }
+            node = parent;
+        }
+        return dirty;
+    }
+
+    /**
+     * Deletes the entry of a tuple of the table. Only its leaf is locked for
+     * writing.
+     *
+     * @param t a tuple of the table, whose RecordId is set
+     * @return the page modified
+     * @throws DbException if the tuple has no entry
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        final Field key = t.getField(keyField);
+        final int page = t.getRecordId().getPageId().getPageNumber();
+        final int slot = t.getRecordId().getTupleNumber();
+
+        BTreePage node = getPage(tid, ROOT, Permissions.READ_ONLY);
+        while (!node.isLeaf()) {
+            final int child = node.getChild(node.search(key, page, slot));
+            node = getPage(tid, child, Permissions.READ_ONLY);
+        }
+        node = getPage(tid, node.getId().getPageNumber(), Permissions.READ_WRITE);
+        final int i = node.search(key, page, slot) - 1;
+        if (i < 0 || BTreePage.compare(node.getKey(i), node.getPageNo(i), node.getSlot(i), key, page, slot) != 0) {
+            throw new DbException("no entry for the tuple " + t.getRecordId() + " in the index");
+        }
+        node.deleteEntry(i);
+        final ArrayList<Page> dirty = new ArrayList<Page>();
+        dirty.add(node);
+        return dirty;
+    }
+
+    /**
+     * @return all the entries of the index, in order
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, null, null);
+    }
+
+    /**
+     * Returns the entries whose key k satisfies "k op key", in order. An
+     * equality or a range reads the leaves of the matching keys only, from
+     * the leaf of the lowest one; NOT_EQUALS and LIKE read every leaf.
+     *
+     * @param op the operator of the predicate
+     * @param key the operand of the predicate
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field key) {
+        return new BTreeFileIterator(tid, op, key);
+    }
+
+    /**
+     * Rebuilds the index from the tuples of the table: the entries are
+     * sorted and written bottom-up to full pages, straight to the file,
+     * which is much faster than inserting them one at a time. The pages of
+     * the index must not be in the BufferPool, so this is done before the
+     * index is used (the catalog builds the indexes it loads when the table
+     * is newer).
+     *
+     * @param tid the transaction reading the table
+     */
+    public void build(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+        final ArrayList<Field> keys = new ArrayList<Field>();
+        final ArrayList<int[]> locations = new ArrayList<int[]>();
+        final DbFileIterator it = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            final Tuple t = it.next();
+            keys.add(t.getField(keyField));
+            locations.add(new int[]{t.getRecordId().getPageId().getPageNumber(), t.getRecordId().getTupleNumber()});
+        }
+        it.close();
+
+        final int n = keys.size();
+        final Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return BTreePage.compare(keys.get(a), locations.get(a)[0], locations.get(a)[1],
+                        keys.get(b), locations.get(b)[0], locations.get(b)[1]);
+            }
+        });
+
+        synchronized (this) {
+            try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                raf.setLength(0);
+            }
+            // the leaves, then each level of internal pages, spread evenly
+            // over as few pages as fit; the first entry of each page of a
+            // level separates it from the page on its left
+            final int leafCapacity = BTreePage.leafCapacity(keyType);
+            final int leaves = Math.max(1, (n + leafCapacity - 1) / leafCapacity);
+            int[] levelPages = new int[leaves];
+            int[] levelFirst = new int[leaves]; // the position in order of the first entry of each page
+            int nextPage = leaves == 1 ? ROOT : ROOT + 1;
+            for (int j = 0; j < leaves; j++) {
+                levelPages[j] = nextPage++;
+                levelFirst[j] = (int) ((long) n * j / leaves);
+            }
+            for (int j = 0; j < leaves; j++) {
+                final BTreePage leaf = emptyPage(levelPages[j]);
+                final int end = j + 1 < leaves ? levelFirst[j + 1] : n;
+                for (int i = levelFirst[j]; i < end; i++) {
+                    final int e = order[i];
+                    leaf.appendEntry(keys.get(e), locations.get(e)[0], locations.get(e)[1]);
+                }
+                leaf.setNextLeaf(j + 1 < leaves ? levelPages[j + 1] : 0);
+                writePage(leaf);
+            }
+
+            final int fanout = BTreePage.internalCapacity(keyType) + 1;
+            while (levelPages.length > 1) {
+                final int count = (levelPages.length + fanout - 1) / fanout;
+                final int[] upperPages = new int[count];
+                final int[] upperFirst = new int[count];
+                for (int j = 0; j < count; j++) {
+                    final int from = (int) ((long) levelPages.length * j / count);
+                    final int to = (int) ((long) levelPages.length * (j + 1) / count);
+                    upperPages[j] = count == 1 ? ROOT : nextPage++;
+                    upperFirst[j] = levelFirst[from];
+                    final int[] childPages = Arrays.copyOfRange(levelPages, from, to);
+                    final Field[] sepKeys = new Field[to - from - 1];
+                    final int[] sepPages = new int[to - from - 1];
+                    final int[] sepSlots = new int[to - from - 1];
+                    for (int c = from + 1; c < to; c++) {
+                        final int e = order[levelFirst[c]];
+                        sepKeys[c - from - 1] = keys.get(e);
+                        sepPages[c - from - 1] = locations.get(e)[0];
+                        sepSlots[c - from - 1] = locations.get(e)[1];
+                    }
+                    final BTreePage internal = emptyPage(upperPages[j]);
+                    internal.setChildren(childPages, sepKeys, sepPages, sepSlots);
+                    writePage(internal);
+                }
+                levelPages = upperPages;
+                levelFirst = upperFirst;
+            }
+        }
+        Debug.log("Built index %s with %d entries", f.getName(), n);
+    }
+
+    private BTreePage emptyPage(int pageno) throws IOException {
+        return new BTreePage(new BTreePageId(fileId, pageno), new byte[BufferPool.getPageSize()], keyType);
+    }
+
+    /**
+     * Iterates over the entries of the leaves from left to right, starting
+     * at the leaf of the lowest key that can match. The entries of a leaf are
+     * copied when it is reached, so that the tuples returned so far can be
+     * deleted (as by a Delete reading this iterator) without moving the
+     * next entries.
+     */
+    private class BTreeFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final Predicate.Op op; // null to return every entry
+        private final Field key;
+        private ArrayList<Tuple> entries = null; // of the current leaf
+        private int position = 0;
+        private int nextLeaf = 0;
+
+        private BTreeFileIterator(TransactionId tid, Predicate.Op op, Field key) {
+            this.tid = tid;
+            this.op = op;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            // the entries from the first that may match on: the lowest key
+            // for an upper bound, or the first key not below the lower bound
+            final boolean lowerBound = op == Predicate.Op.EQUALS
+                    || op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+            final boolean orEqual = op == Predicate.Op.GREATER_THAN;
+            BTreePage node = getPage(tid, ROOT, Permissions.READ_ONLY);
+            while (!node.isLeaf()) {
+                node = getPage(tid, node.getChild(lowerBound ? node.searchKey(key, orEqual) : 0),
+                        Permissions.READ_ONLY);
+            }
+            load(node);
+            position = lowerBound ? node.searchKey(key, orEqual) : 0;
+        }
+
+        private void load(BTreePage leaf) {
+            entries = new ArrayList<Tuple>(leaf.getNumEntries());
+            for (int i = 0; i < leaf.getNumEntries(); i++) {
+                final Tuple entry = new Tuple(td);
+                entry.setField(0, leaf.getKey(i));
+                entry.setField(1, new IntField(leaf.getPageNo(i)));
+                entry.setField(2, new IntField(leaf.getSlot(i)));
+                entries.add(entry);
+            }
+            position = 0;
+            nextLeaf = leaf.getNextLeaf();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (entries == null) {
+                return null;
+            }
+            while (true) {
+                if (position == entries.size()) {
+                    if (nextLeaf == 0) {
+                        return null;
+                    }
+                    load(getPage(tid, nextLeaf, Permissions.READ_ONLY));
+                    continue;
+                }
+                final Tuple entry = entries.get(position++);
+                if (op == null || entry.getField(0).compare(op, key)) {
+                    return entry;
+                }
+                if (op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                        || op == Predicate.Op.LESS_THAN_OR_EQ) {
+                    entries = null; // the next keys are greater
+                    return null;
+                }
+            }
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            entries = null;
+        }
+    }
+}
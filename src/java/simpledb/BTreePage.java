@@ -0,0 +1,408 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Each instance of BTreePage stores one page of a BTreeFile: a leaf, whose
+ * entries point to tuples of the indexed table, or an internal page, whose
+ * entries separate its children.
+ * <p>
+ * An entry is a key with the page number and the slot of a tuple of the
+ * table, and entries are ordered by key, then page number, then slot, so
+ * that every entry is unique even when keys are not. The entries of the
+ * child i of an internal page are not lower than its entry i-1 and are
+ * lower than its entry i.
+ *
+ * @see BTreeFile
+ */
+public class BTreePage implements Page {
+
+    /** The size of the header: kind of page, number of entries and next leaf */
+    private static final int HEADER_SIZE = 12;
+
+    private static final int LEAF = 0;
+    private static final int INTERNAL = 1;
+
+    private final BTreePageId pid;
+    private final Type keyType;
+
+    private int kind = LEAF;
+    private int count = 0;
+    private int next = 0; // leaves: page number of the leaf on the right, 0 if none
+    // one entry more than a page holds, for the entry that makes it split
+    private final Field[] keys;
+    private final int[] pages;
+    private final int[] slots;
+    private final int[] children; // internal pages: count + 1 children
+
+    private byte[] oldData;
+    private final Byte oldDataLock = new Byte((byte) 0);
+
+    private boolean dirtyFlag = false;
+    private TransactionId dirtyTid;
+
+    /**
+     * Create a BTreePage from a set of bytes of data read from disk, with the
+     * key type of its index in the catalog. The format of a BTreePage is a
+     * header of three ints (0 for a leaf or 1 for an internal page, the
+     * number of entries, the page number of the next leaf), the entries
+     * (key, page number and slot of each) and, for internal pages, the page
+     * numbers of the children. A page of zeros is an empty leaf.
+     *
+     * @see BTreeFile#getKeyType
+     */
+    public BTreePage(BTreePageId id, byte[] data) throws IOException {
+        this(id, data, ((BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId())).getKeyType());
+    }
+
+    /**
+     * Create a BTreePage of an index on keys of type keyType, which does not
+     * have to be in the catalog
+     */
+    public BTreePage(BTreePageId id, byte[] data, Type keyType) throws IOException {
+        this.pid = id;
+        this.keyType = keyType;
+        final int capacity = Math.max(leafCapacity(keyType), internalCapacity(keyType)) + 1;
+        this.keys = new Field[capacity];
+        this.pages = new int[capacity];
+        this.slots = new int[capacity];
+        this.children = new int[capacity + 1];
+        if (data.length < BufferPool.getPageSize()) {
+            throw new EOFException("page " + id.getPageNumber() + " is truncated");
+        }
+
+        final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        kind = dis.readInt();
+        count = dis.readInt();
+        next = dis.readInt();
+        if ((kind != LEAF && kind != INTERNAL) || count < 0 || count >= capacity) {
+            throw new IOException("page " + id.getPageNumber() + " is not a page of a B+ tree");
+        }
+        try {
+            for (int i = 0; i < count; i++) {
+                keys[i] = keyType.parse(dis);
+                pages[i] = dis.readInt();
+                slots[i] = dis.readInt();
+            }
+        } catch (ParseException e) {
+            throw new IOException("parsing error in page " + id.getPageNumber(), e);
+        }
+        if (kind == INTERNAL) {
+            for (int i = 0; i <= count; i++) {
+                children[i] = dis.readInt();
+            }
+        }
+        dis.close();
+
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of entries a leaf of an index on keyType holds
+     */
+    public static int leafCapacity(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getLen() + 8);
+    }
+
+    /**
+     * @return the number of entries an internal page of an index on keyType
+     *         holds, with one child more
+     */
+    public static int internalCapacity(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE - 4) / (keyType.getLen() + 12);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public BTreePage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new BTreePage(pid, oldDataRef, keyType);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * can be passed to the BTreePage constructor.
+     */
+    public synchronized byte[] getPageData() {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        final DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(kind);
+            dos.writeInt(count);
+            dos.writeInt(next);
+            for (int i = 0; i < count; i++) {
+                keys[i].serialize(dos);
+                dos.writeInt(pages[i]);
+                dos.writeInt(slots[i]);
+            }
+            if (kind == INTERNAL) {
+                for (int i = 0; i <= count; i++) {
+                    dos.writeInt(children[i]);
+                }
+            }
+            dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtyFlag = dirty;
+        if (dirty) {
+            dirtyTid = tid;
+        }
+    }
+
+    public TransactionId isDirty() {
+        return dirtyFlag ? dirtyTid : null;
+    }
+
+    public boolean isLeaf() {
+        return kind == LEAF;
+    }
+
+    public int getNumEntries() {
+        return count;
+    }
+
+    /**
+     * @return whether the page holds more entries than fit on disk, so it
+     *         must be split
+     */
+    public boolean isOverfull() {
+        return count > (kind == LEAF ? leafCapacity(keyType) : internalCapacity(keyType));
+    }
+
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /** @return the page number in the table of the tuple of entry i */
+    public int getPageNo(int i) {
+        return pages[i];
+    }
+
+    /** @return the slot in its page of the tuple of entry i */
+    public int getSlot(int i) {
+        return slots[i];
+    }
+
+    /** @return the page number of the child i of an internal page */
+    public int getChild(int i) {
+        return children[i];
+    }
+
+    /** @return the page number of the leaf on the right of a leaf, 0 if none */
+    public int getNextLeaf() {
+        return next;
+    }
+
+    /**
+     * Compares two entries, by key, then page number, then slot
+     */
+    public static int compare(Field key1, int page1, int slot1, Field key2, int page2, int slot2) {
+        final int c = compareKeys(key1, key2);
+        if (c != 0) {
+            return c;
+        }
+        if (page1 != page2) {
+            return page1 < page2 ? -1 : 1;
+        }
+        return slot1 < slot2 ? -1 : (slot1 == slot2 ? 0 : 1);
+    }
+
+    private static int compareKeys(Field key1, Field key2) {
+        if (key1.compare(Predicate.Op.LESS_THAN, key2)) {
+            return -1;
+        }
+        return key1.compare(Predicate.Op.EQUALS, key2) ? 0 : 1;
+    }
+
+    /**
+     * @return the number of entries not greater than (key, page, slot): the
+     *         child of an internal page to look for the entry in, or the
+     *         position of the entry in a leaf plus one if it is there
+     */
+    public int search(Field key, int page, int slot) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (compare(keys[mid], pages[mid], slots[mid], key, page, slot) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @param orEqual whether to count the entries with the key too
+     * @return the number of entries with a key lower than key (or equal, if
+     *         orEqual)
+     */
+    public int searchKey(Field key, boolean orEqual) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int c = compareKeys(keys[mid], key);
+            if (c < 0 || (orEqual && c == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Inserts an entry in a leaf
+     * @param i the position of the entry, see {@link #search}
+     */
+    public void insertEntry(int i, Field key, int page, int slot) {
+        assert kind == LEAF && count < keys.length;
+        System.arraycopy(keys, i, keys, i + 1, count - i);
+        System.arraycopy(pages, i, pages, i + 1, count - i);
+        System.arraycopy(slots, i, slots, i + 1, count - i);
+        setEntry(i, key, page, slot);
+        count++;
+    }
+
+    /**
+     * Removes the entry i of a leaf. Leaves are not merged when they empty:
+     * the pages keep their place in the tree until it is rebuilt.
+     */
+    public void deleteEntry(int i) {
+        assert kind == LEAF && i < count;
+        System.arraycopy(keys, i + 1, keys, i, count - i - 1);
+        System.arraycopy(pages, i + 1, pages, i, count - i - 1);
+        System.arraycopy(slots, i + 1, slots, i, count - i - 1);
+        count--;
+        keys[count] = null;
+    }
+
+    /**
+     * Inserts a separator in an internal page, with the child on its right
+     * @param i the position of the separator, so the child is child i + 1
+     */
+    private void insertSeparator(int i, Field key, int page, int slot, int child) {
+        assert kind == INTERNAL && count < keys.length;
+        System.arraycopy(keys, i, keys, i + 1, count - i);
+        System.arraycopy(pages, i, pages, i + 1, count - i);
+        System.arraycopy(slots, i, slots, i + 1, count - i);
+        System.arraycopy(children, i + 1, children, i + 2, count - i);
+        setEntry(i, key, page, slot);
+        children[i + 1] = child;
+        count++;
+    }
+
+    private void setEntry(int i, Field key, int page, int slot) {
+        keys[i] = key;
+        pages[i] = page;
+        slots[i] = slot;
+    }
+
+    /**
+     * Appends an entry to a leaf being filled in order
+     */
+    public void appendEntry(Field key, int page, int slot) {
+        insertEntry(count, key, page, slot);
+    }
+
+    /**
+     * Turns this page into an internal page with the given children and
+     * separators
+     */
+    public void setChildren(int[] childPages, Field[] sepKeys, int[] sepPages, int[] sepSlots) {
+        kind = INTERNAL;
+        count = sepKeys.length;
+        next = 0;
+        for (int i = 0; i < count; i++) {
+            setEntry(i, sepKeys[i], sepPages[i], sepSlots[i]);
+        }
+        System.arraycopy(childPages, 0, children, 0, count + 1);
+    }
+
+    public void setNextLeaf(int next) {
+        this.next = next;
+    }
+
+    /**
+     * Moves the content of this page, the root, to an empty page, and makes
+     * this page an internal page with that page as its only child. The tree
+     * grows a level this way, keeping its root at the same page.
+     */
+    public void pushDown(BTreePage child) {
+        child.kind = kind;
+        child.count = count;
+        child.next = next;
+        System.arraycopy(keys, 0, child.keys, 0, count);
+        System.arraycopy(pages, 0, child.pages, 0, count);
+        System.arraycopy(slots, 0, child.slots, 0, count);
+        System.arraycopy(children, 0, child.children, 0, count + 1);
+        Arrays.fill(keys, null);
+        kind = INTERNAL;
+        count = 0;
+        next = 0;
+        children[0] = child.pid.getPageNumber();
+    }
+
+    /**
+     * Moves the upper half of the entries of this page, which is overfull, to
+     * right, an empty page, and adds the separator of the two pages to their
+     * parent. A leaf copies its first entry left in right to the parent; an
+     * internal page moves its middle entry up, whose children stay on both
+     * sides of it.
+     *
+     * @param parent the parent of this page
+     * @param position this page is the child at position of parent
+     */
+    public void split(BTreePage right, BTreePage parent, int position) {
+        final int mid = count / 2;
+        final int from = kind == LEAF ? mid : mid + 1;
+        final int moved = count - from;
+        right.kind = kind;
+        right.count = moved;
+        System.arraycopy(keys, from, right.keys, 0, moved);
+        System.arraycopy(pages, from, right.pages, 0, moved);
+        System.arraycopy(slots, from, right.slots, 0, moved);
+        if (kind == LEAF) {
+            right.next = next;
+            next = right.pid.getPageNumber();
+        } else {
+            System.arraycopy(children, from, right.children, 0, moved + 1);
+        }
+        parent.insertSeparator(position, keys[mid], pages[mid], slots[mid], right.pid.getPageNumber());
+        Arrays.fill(keys, mid, count, null);
+        count = mid;
+    }
+}
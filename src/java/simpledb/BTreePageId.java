@@ -0,0 +1,76 @@
+package simpledb;
+
+/** Unique identifier for BTreePage objects. */
+public class BTreePageId implements PageId {
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific index.
+     *
+     * @param tableId The index that is being referenced, see BTreeFile#getId
+     * @param pgNo The page number in that index.
+     */
+    public BTreePageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the index associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the index getTableId() associated with
+     *   this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return a hash code for this page, made of the index number and the
+     *   page number
+     * @see BufferPool
+     */
+    public int hashCode() {
+        return 31 * this.tableId + this.pgNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and index
+     *   ids are the same)
+     */
+    public boolean equals(Object o) {
+        if ( !(o instanceof BTreePageId) ) return false;
+        BTreePageId that = (BTreePageId)o;
+        return that.getPageNumber() == this.getPageNumber() &&
+                that.getTableId() == this.getTableId();
+    }
+
+    public String toString() {
+        return "BTreePageId(" + tableId + ", " + pgNo + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        int data[] = new int[2];
+
+        data[0] = getTableId();
+        data[1] = getPageNumber();
+
+        return data;
+    }
+
+}
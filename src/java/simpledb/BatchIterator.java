@@ -0,0 +1,22 @@
+package simpledb;
+
+/**
+ * An OpIterator that can also return its tuples a batch at a time, in
+ * columnar form (vectorized execution). Operators consuming batches avoid a
+ * virtual call and a Tuple object per row, and work on primitive int[]
+ * columns.
+ * <p>
+ * Between open (or rewind) and close, a caller uses either next/hasNext or
+ * nextBatch, not both. Operators read their children in batches through
+ * {@link TupleBatchAdapter#of}, so a child that only implements OpIterator
+ * can be used too; {@link BatchTupleAdapter} goes the other way.
+ */
+public interface BatchIterator extends OpIterator {
+
+    /**
+     * @return the next non empty batch of tuples, or null if there are no
+     *         more tuples. The batch may be reused by the iterator, so it is
+     *         only valid until the next call to nextBatch, rewind or close.
+     */
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException;
+}
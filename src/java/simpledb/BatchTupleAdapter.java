@@ -0,0 +1,61 @@
+package simpledb;
+
+/**
+ * Returns one at a time the tuples of the batches of a BatchIterator, to
+ * use a pipeline run in batches where tuples are expected.
+ */
+public class BatchTupleAdapter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private BatchIterator child;
+    private transient ColumnBatch batch = null;
+    private transient int position = 0;
+
+    public BatchTupleAdapter(BatchIterator child) {
+        this.child = child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (batch == null || position == batch.size()) {
+            batch = child.nextBatch();
+            position = 0;
+            if (batch == null) {
+                return null;
+            }
+        }
+        return batch.getTuple(position++);
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = TupleBatchAdapter.of(children[0]);
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * A Join that reads child1 a block of tuples at a time: each tuple of
+ * child2 is compared with every tuple of the block, so child2 is read once
+ * per block instead of once per tuple of child1. A block holds the tuples
+ * of a number of pages of child1 (as many as a HeapPage holds), set by the
+ * constructor or by the property simpledb.join.blockPages.
+ * <p>
+ * The tuples returned are those of {@link Join}, in the order of the
+ * blocks, then of child2, then of the tuples of the block.
+ */
+public class BlockNestedLoopJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default number of pages of child1 in a block, set by the property simpledb.join.blockPages */
+    public static final int DEFAULT_BLOCK_PAGES = Integer.getInteger("simpledb.join.blockPages", 100);
+
+    private final JoinPredicate p;
+    private final int blockTuples;
+
+    private transient ArrayList<Tuple> block = null;
+    private transient Tuple currentTuple2 = null; // the tuple of child2 compared with the block
+    private transient int blockIndex = 0;
+    private transient long passes = 0;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor for a join with a given block size
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join, read a block
+     *            at a time
+     * @param child2
+     *            Iterator for the right(inner) relation to join, read once
+     *            per block
+     * @param blockPages
+     *            The number of pages of tuples of child1 in a block
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int blockPages) {
+        super(p, child1, child2);
+        this.p = p;
+        final int tuplesPerPage = (BufferPool.getPageSize() * 8) / (child1.getTupleDesc().getSize() * 8 + 1);
+        this.blockTuples = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1L, (long) blockPages * tuplesPerPage));
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        resetBlock();
+    }
+
+    public void close() {
+        super.close();
+        block = null;
+        currentTuple2 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.rewind();
+        resetBlock();
+    }
+
+    private void resetBlock() {
+        block = new ArrayList<Tuple>();
+        currentTuple2 = null;
+        blockIndex = 0;
+        passes = 0;
+    }
+
+    /**
+     * @return the number of passes over child2 since the last open or rewind
+     */
+    public long getPasses() {
+        return passes;
+    }
+
+    /**
+     * Reads the next block of child1, and starts a new pass over child2
+     * @return false if child1 has no more tuples
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        final OpIterator[] children = getChildren();
+        block.clear();
+        while (block.size() < blockTuples && children[0].hasNext()) {
+            block.add(children[0].next());
+        }
+        if (block.isEmpty()) {
+            return false;
+        }
+        if (passes > 0) {
+            QueryContext.checkCurrent(); // a pass over child2 can be long, e.g. a cross product
+            children[1].rewind();
+        }
+        passes++;
+        return true;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples, comparing the current tuple of child2 with the rest of the
+     * block, then the next tuples of child2, then reading the next block.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        final OpIterator child2 = getChildren()[1];
+        while (true) {
+            if (currentTuple2 != null) {
+                while (blockIndex < block.size()) {
+                    final Tuple t1 = block.get(blockIndex++);
+                    if (p.filter(t1, currentTuple2)) {
+                        return Tuple.merge(t1, currentTuple2);
+                    }
+                }
+                currentTuple2 = null;
+            }
+            if (!block.isEmpty() && child2.hasNext()) {
+                currentTuple2 = child2.next();
+                blockIndex = 0;
+            } else if (!loadBlock()) {
+                return null;
+            }
+        }
+    }
+
+}
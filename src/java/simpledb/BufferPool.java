@@ -3,7 +3,7 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -13,6 +13,9 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Which page is evicted when the pool is full is decided by an {@link EvictionPolicy},
+ * chosen with the system property simpledb.eviction (clock by default).
  * 
  * @Threadsafe, all fields are final
  */
@@ -26,34 +29,102 @@ public class BufferPool {
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
+
+    /** Eviction policy used when none is given to the constructor. */
+    public static final String DEFAULT_EVICTION_POLICY = "clock";
+
+    /** Number of private buffers of the ring used by large sequential scans. */
+    public static final int DEFAULT_SCAN_RING_PAGES = 8;
     
     private final int numPages; // Number of pages of the BufferPool
     private Map<PageId, Page> pages; // Initial design: Map structure to maximize random access
-    private Queue<PageId> pageQueue; // Queue structure that keeps track of history of PageIds
+    private final EvictionPolicy policy; // Keeps track of the PageIds in the pool and picks the victims
+    private final Map<PageId, BufferRing> ringPages; // Pages owned by a scan ring rather than by the policy
+    private final EvictionPolicy.Evictable notDirty; // NO STEAL: only clean pages may be evicted
     
     private final LockManager lockManager;
+    private final Prefetcher prefetcher;
+
+    // Tables with more pages than this are scanned through a BufferRing
+    private final int scanRingThreshold;
+    private final int scanRingPages;
+
+    // Statistics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, evicting pages with the
+     * policy named by the system property simpledb.eviction.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, EvictionPolicy.create(
+                System.getProperty("simpledb.eviction", DEFAULT_EVICTION_POLICY), numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the policy choosing the pages to evict, must not track any page yet
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
         this.numPages = numPages;
         this.pages = new ConcurrentHashMap<>();
-        this.pageQueue = new ConcurrentLinkedQueue<>();
+        this.ringPages = new ConcurrentHashMap<>();
+        this.policy = policy;
         this.lockManager = new LockManager();
+        this.prefetcher = Prefetcher.fromProperties(numPages);
+        this.scanRingThreshold = Integer.getInteger("simpledb.scan.ringThreshold", numPages);
+        this.scanRingPages = Integer.getInteger("simpledb.scan.ringPages", DEFAULT_SCAN_RING_PAGES);
+        this.notDirty = new EvictionPolicy.Evictable() {
+            @Override
+            public boolean canEvict(PageId pid) {
+                final Page page = pages.get(pid);
+                return page == null || page.isDirty() == null;
+            }
+        };
     }
     
     /**
      * Checks representation invariant of the class to ensure consistency:
-     * 1. pages.size should be always equal to pageQueue.size
+     * 1. every page is tracked either by the policy or by a scan ring
      * 2. pages.size should not exceed numPages
      */
     private void checkRep() {
-        assert pageQueue.size() == pages.size() : "BufferPool corrupted: inconsistency detected";
+        assert policy.size() + ringPages.size() == pages.size() : "BufferPool corrupted: inconsistency detected";
         assert pages.size() <= numPages : "BufferPool corrupted: more pages detected";
     }
+
+    /**
+     * @return the number of getPage calls served from the pool
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of getPage calls that had to read the page from disk
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the fraction of getPage calls served from the pool, 0 if there was none
+     */
+    public double getHitRatio() {
+        final long h = hits.get();
+        final long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+    }
     
     public static int getPageSize() {
       return pageSize;
@@ -71,8 +142,8 @@ public class BufferPool {
     
     /**
      * Add a page to BufferPool consistently.
-     * If the page already exists in the Buffer, update the page and move the page
-     * to the tail of the queue (mark it as the newest page)
+     * If the page already exists in the Buffer, update the page and report an access
+     * to the eviction policy.
      * If BufferPool reaches maximal number of pages, evict one page
      * @param pid the page id
      * @param page the page
@@ -80,14 +151,13 @@ public class BufferPool {
     private synchronized void addPage(PageId pid, Page page) throws DbException {
         if (pages.containsKey(pid)) {
             pages.put(pid, page); // update in the map
-            pageQueue.remove(pid);
-            pageQueue.add(pid); // move the page to the tail
+            touch(pid);
         } else {
             if (pages.size() == this.numPages) {
                 evictPage();
             }
             pages.put(pid, page);
-            pageQueue.add(pid);
+            policy.pageAdded(pid);
         }
     }
 
@@ -112,13 +182,17 @@ public class BufferPool {
         
         lockManager.acquireLock(tid, pid, perm);
         
-        if (pages.containsKey(pid)) {
-            return pages.get(pid);
+        final Page cached = pages.get(pid);
+        if (cached != null) {
+            hits.incrementAndGet();
+            touch(pid);
+            return cached;
         } else {
+            misses.incrementAndGet();
             Catalog catalog = Database.getCatalog(); // singleton pattern
             try {
                 final DbFile file = catalog.getDatabaseFile(pid.getTableId());
-                final Page page = file.readPage(pid);
+                final Page page = readPage(file, pid);
                 addPage(pid, page);
                 checkRep(); // check consistency
                 return page;
@@ -130,6 +204,146 @@ public class BufferPool {
         }
     }
 
+    /**
+     * Reads a page that is not cached, using the prefetched copy if there is one
+     */
+    private Page readPage(DbFile file, PageId pid) {
+        final Page staged = prefetcher.take(pid);
+        return staged != null ? staged : file.readPage(pid);
+    }
+
+    /**
+     * @return the number of pages sequential scans should read ahead, 0 if they should not
+     */
+    public int getPrefetchDepth() {
+        return prefetcher.getDepth();
+    }
+
+    /**
+     * Asks for a page to be read in the background because a scan will need it soon. The page
+     * enters the pool only once it is requested with getPage, which takes the lock as usual.
+     * Nothing happens if the page is already cached.
+     * @param pid the page
+     */
+    public void prefetch(PageId pid) {
+        if (!pages.containsKey(pid)) {
+            prefetcher.prefetch(pid);
+        }
+    }
+
+    public Prefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Reports an access to a cached page. A page owned by a scan ring is handed over to the
+     * eviction policy, since somebody else than the scan uses it.
+     */
+    private void touch(PageId pid) {
+        if (ringPages.containsKey(pid)) {
+            synchronized (this) {
+                if (ringPages.remove(pid) != null) {
+                    policy.pageAdded(pid);
+                    return;
+                }
+            }
+        }
+        policy.pageAccessed(pid);
+    }
+
+    /**
+     * Chooses the access strategy of a sequential scan. Tables that fit in the pool are
+     * scanned through it as usual; larger tables would only flush it, so they get a ring
+     * of a few buffers (the threshold and the ring size can be set with the system
+     * properties simpledb.scan.ringThreshold and simpledb.scan.ringPages; the ring never
+     * takes more than a quarter of the pool).
+     *
+     * @param tablePages the number of pages of the scanned table
+     * @return the ring to pass to getPage, or null if the scan should use the pool
+     */
+    public BufferRing newScanRing(int tablePages) {
+        if (tablePages <= scanRingThreshold || scanRingPages <= 0) {
+            return null;
+        }
+        return new BufferRing(Math.min(scanRingPages, Math.max(1, numPages / 4)));
+    }
+
+    /**
+     * Retrieves a page for a sequential scan. Like {@link #getPage(TransactionId, PageId, Permissions)},
+     * the lock is acquired and a cached page is returned from the pool, but a page that is
+     * not cached is loaded into a frame of the ring: once the ring is full, the frame of its
+     * oldest page is reused, so the pages tracked by the eviction policy stay in the pool.
+     *
+     * @param ring the ring of the scan, or null to go through the pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        if (ring == null || perm != Permissions.READ_ONLY) {
+            return getPage(tid, pid, perm);
+        }
+
+        lockManager.acquireLock(tid, pid, perm);
+
+        final Page cached = pages.get(pid);
+        if (cached != null) {
+            hits.incrementAndGet();
+            if (ringPages.get(pid) != ring) {
+                touch(pid);
+            }
+            return cached;
+        }
+        misses.incrementAndGet();
+        try {
+            final Page page = readPage(Database.getCatalog().getDatabaseFile(pid.getTableId()), pid);
+            return addRingPage(pid, page, ring);
+        } catch (NoSuchElementException e) {
+            throw new DbException("Table ID " + pid.getTableId() + " doesn't exist.");
+        } catch (IllegalArgumentException e) {
+            throw new DbException("Page ID " + pid + " doesn't exist.");
+        }
+    }
+
+    /**
+     * Adds a page read by a scan to the pool, in a frame owned by its ring
+     * @return the cached page, which may have been loaded concurrently by somebody else
+     */
+    private synchronized Page addRingPage(PageId pid, Page page, BufferRing ring) throws DbException {
+        final Page cached = pages.get(pid);
+        if (cached != null) {
+            return cached;
+        }
+        final PageId recycled = ring.nextVictim();
+        if (recycled != null && ringPages.remove(recycled, ring)) {
+            pages.remove(recycled); // ring pages are never dirty, see addPage
+        } else if (pages.size() == this.numPages) {
+            evictPage();
+        }
+        pages.put(pid, page);
+        ringPages.put(pid, ring);
+        ring.fill(pid);
+        checkRep();
+        return page;
+    }
+
+    /**
+     * Drops the clean pages still owned by a ring, once its scan is over
+     * @param ring the ring of a closed scan, may be null
+     */
+    public synchronized void releaseRing(BufferRing ring) {
+        if (ring == null) {
+            return;
+        }
+        final Iterator<Map.Entry<PageId, BufferRing>> it = ringPages.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<PageId, BufferRing> entry = it.next();
+            if (entry.getValue() == ring) {
+                it.remove();
+                pages.remove(entry.getKey());
+            }
+        }
+        checkRep();
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -193,6 +407,7 @@ public class BufferPool {
      * their markDirty bit, and adds versions of any pages that have 
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
+     * The entry of the tuple is added to each index of the table.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -202,6 +417,10 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         DbFile file = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> dirtyPages = file.insertTuple(tid, t);
+        // the entries of t go to the indexes of the table, now that t has a RecordId
+        for (BTreeFile index : Database.getCatalog().getIndexes(tableId)) {
+            dirtyPages.addAll(index.insertTuple(tid, t));
+        }
         for (Page page : dirtyPages) {
             page.markDirty(true, tid);
             addPage(page.getId(), page);
@@ -218,14 +437,20 @@ public class BufferPool {
      * their markDirty bit, and adds versions of any pages that have 
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
+     * The entry of the tuple is removed from each index of the table.
      *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
-        List<Page> dirtyPages = file.deleteTuple(tid, t);
+        final int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        List<Page> dirtyPages = new ArrayList<>();
+        for (BTreeFile index : Database.getCatalog().getIndexes(tableId)) {
+            dirtyPages.addAll(index.deleteTuple(tid, t));
+        }
+        dirtyPages.addAll(file.deleteTuple(tid, t));
         for (Page page : dirtyPages) {
             page.markDirty(true, tid);
             addPage(page.getId(), page);
@@ -257,9 +482,12 @@ public class BufferPool {
         are removed from the cache so they can be reused safely
     */
     public synchronized void discardPage(PageId pid) {
-        assert pages.containsKey(pid) && pageQueue.contains(pid) : "Page not in buffer";
-        pageQueue.remove(pid);
+        assert pages.containsKey(pid) && (policy.contains(pid) || ringPages.containsKey(pid)) : "Page not in buffer";
+        if (ringPages.remove(pid) == null) {
+            policy.pageRemoved(pid);
+        }
         pages.remove(pid);
+        prefetcher.invalidate(pid);
         checkRep(); // check consistency
     }
 
@@ -272,6 +500,7 @@ public class BufferPool {
         final DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
         final Page page = pages.get(pid);
         file.writePage(page);
+        prefetcher.invalidate(pid); // the staged copy, if any, is older than what was just written
         page.markDirty(false, null);
         /*
          * Note: since the second argument is not used if this function is called to mark
@@ -288,24 +517,25 @@ public class BufferPool {
     }
 
     /**
-     * Discards a page from the buffer pool while satisfying NO STEAL policy
-     * 1. the oldest page without updates && is not dirty
-     * 2. if all the pages are dirty, DbException is thrown
+     * Discards a page from the buffer pool while satisfying NO STEAL policy:
+     * pages left by scan rings go first, then the eviction policy picks its victim
+     * among the pages that are not dirty.
+     * If all the pages are dirty, DbException is thrown
      */
     private synchronized  void evictPage() throws DbException {
-        for (int i = 0; i < pages.size(); i++) {
-            final PageId pid = pageQueue.poll();
-            assert pages.containsKey(pid) : "Inconsistency detected";
-            if (pages.get(pid).isDirty() != null) {
-                // the page is dirty, cannot be evicted
-                pageQueue.add(pid); // add back to the head of the queue
-            } else {
-                pages.remove(pid);
-                checkRep();
-                return;
-            }
+        for (PageId ringPage : ringPages.keySet()) {
+            ringPages.remove(ringPage);
+            pages.remove(ringPage);
+            checkRep();
+            return;
         }
-        throw new DbException("No page can be evicted, all pages are dirty in buffer pool.");
+        final PageId pid = policy.evict(notDirty);
+        if (pid == null) {
+            throw new DbException("No page can be evicted, all pages are dirty in buffer pool.");
+        }
+        assert pages.containsKey(pid) : "Inconsistency detected";
+        pages.remove(pid);
+        checkRep();
     }
 
 }
@@ -0,0 +1,44 @@
+package simpledb;
+
+/**
+ * The private buffers of one large sequential scan. The pages read by the scan still live in
+ * the BufferPool (so every reader sees the same page objects and the pool capacity is
+ * respected), but they are owned by the ring instead of the eviction policy: once the ring is
+ * full, the frame of its oldest page is recycled for the next page, so the scan never pushes
+ * the hot pages out of the pool. A ring page that is used by anybody else is handed over to
+ * the eviction policy and leaves the ring.
+ *
+ * @see BufferPool#newScanRing(int)
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+ */
+public class BufferRing {
+
+    private final PageId[] slots;
+    private int next = 0;
+
+    /**
+     * @param size the number of pages held by the ring
+     */
+    public BufferRing(int size) {
+        this.slots = new PageId[Math.max(1, size)];
+    }
+
+    /**
+     * @return the page whose frame is recycled next, null if the ring is not full yet
+     */
+    synchronized PageId nextVictim() {
+        return slots[next];
+    }
+
+    /**
+     * Puts pid in the slot returned by nextVictim and moves on to the next slot
+     */
+    synchronized void fill(PageId pid) {
+        slots[next] = pid;
+        next = (next + 1) % slots.length;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+}
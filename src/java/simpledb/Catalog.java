@@ -20,6 +20,7 @@ public class Catalog {
     
     private Map<String, DbFile> fileMap; // Map from table name to the table file
     private Map<String, String> pkeyMap; // Map from table name to the primary key field
+    private Map<Integer, BTreeFile> indexMap; // Map from index id to the index file
 
     /**
      * Constructor.
@@ -28,6 +29,7 @@ public class Catalog {
     public Catalog() {
         fileMap = new ConcurrentHashMap<>();
         pkeyMap = new ConcurrentHashMap<>();
+        indexMap = new ConcurrentHashMap<>();
     }
 
     /**
@@ -94,13 +96,17 @@ public class Catalog {
 
     /**
      * Returns the DbFile that can be used to read the contents of the
-     * specified table.
+     * specified table, or of the specified index.
      * @param tableid The id of the table, as specified by the DbFile.getId()
-     *     function passed to addTable
+     *     function passed to addTable, or the id of an index passed to addIndex
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         final String name = getTableName(tableid);
         if (name == null) {
+            final BTreeFile index = indexMap.get(tableid);
+            if (index != null) {
+                return index;
+            }
             throw new NoSuchElementException("Cannot find table with id " + tableid);
         } else {
             return this.fileMap.get(name);
@@ -123,6 +129,44 @@ public class Catalog {
         }
     }
 
+    /**
+     * Add an index on a field of a table to the catalog. Its pages can then
+     * be read through the BufferPool, and the BufferPool maintains it when
+     * tuples are inserted into or deleted from the table.
+     * @param index the index; an index of the same file replaces it
+     */
+    public void addIndex(BTreeFile index) {
+        indexMap.put(index.getId(), index);
+    }
+
+    /**
+     * @param tableid the id of a table
+     * @return the indexes on fields of the table, empty if there are none
+     */
+    public List<BTreeFile> getIndexes(int tableid) {
+        final List<BTreeFile> indexes = new ArrayList<>();
+        for (BTreeFile index : indexMap.values()) {
+            if (index.getTableId() == tableid) {
+                indexes.add(index);
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * @param tableid the id of a table
+     * @param field the index of a field of the table
+     * @return an index on the field, null if there is none
+     */
+    public BTreeFile getIndex(int tableid, int field) {
+        for (BTreeFile index : indexMap.values()) {
+            if (index.getTableId() == tableid && index.getKeyField() == field) {
+                return index;
+            }
+        }
+        return null;
+    }
+
     public Iterator<Integer> tableIdIterator() {
         final Set<Integer> allId = new HashSet<>();
         for (String name : fileMap.keySet()) {
@@ -145,14 +189,18 @@ public class Catalog {
         return null;
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables and indexes from the catalog */
     public void clear() {
         fileMap = new ConcurrentHashMap<>();
         pkeyMap = new ConcurrentHashMap<>();
+        indexMap = new ConcurrentHashMap<>();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * A field annotated with pk is the primary key of its table; a field
+     * annotated with idx gets an index, stored in the file table.field.idx,
+     * which is rebuilt if the table file is newer.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -169,6 +217,7 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<String> indexed = new ArrayList<String>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -180,11 +229,13 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("idx"))
+                            indexed.add(els2[0].trim());
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -195,7 +246,21 @@ public class Catalog {
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (String field : indexed) {
+                    File indexFile = new File(baseFolder+"/"+name + "." + field + ".idx");
+                    BTreeFile index = new BTreeFile(indexFile, tabHf, names.indexOf(field));
+                    addIndex(index);
+                    if (tabHf.getFile().exists() && indexFile.lastModified() < tabHf.getFile().lastModified()) {
+                        TransactionId tid = new TransactionId();
+                        index.build(tid);
+                        Database.getBufferPool().transactionComplete(tid);
+                    }
+                    System.out.println("Added index : " + name + "." + field);
+                }
             }
+        } catch (DbException | TransactionAbortedException e) {
+            e.printStackTrace();
+            System.exit(0);
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CLOCK (second chance) eviction: pages sit in a circular array of frames with a reference bit
+ * that is set on every hit. The hand sweeps the frames, clearing set bits, and evicts the first
+ * evictable page whose bit is already clear. Hits and additions are O(1).
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private PageId[] frames;
+    private boolean[] referenced;
+    private final Map<PageId, Integer> frameOf = new HashMap<>();
+    private final Deque<Integer> freeFrames = new ArrayDeque<>();
+    private int hand = 0;
+
+    /**
+     * @param capacity the expected number of pages; the clock grows if more pages are added
+     */
+    public ClockEvictionPolicy(int capacity) {
+        frames = new PageId[Math.max(1, capacity)];
+        referenced = new boolean[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            freeFrames.add(i);
+        }
+    }
+
+    @Override
+    public synchronized void pageAdded(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        if (freeFrames.isEmpty()) {
+            grow();
+        }
+        final int frame = freeFrames.poll();
+        frames[frame] = pid;
+        referenced[frame] = true;
+        frameOf.put(pid, frame);
+    }
+
+    @Override
+    public synchronized void pageAccessed(PageId pid) {
+        final Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            referenced[frame] = true;
+        }
+    }
+
+    @Override
+    public synchronized void pageRemoved(PageId pid) {
+        final Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames[frame] = null;
+            referenced[frame] = false;
+            freeFrames.add(frame);
+        }
+    }
+
+    @Override
+    public synchronized PageId evict(Evictable evictable) {
+        // two full turns: the first one may only clear reference bits
+        for (int step = 0; step < 2 * frames.length; step++) {
+            final int frame = hand;
+            hand = (hand + 1) % frames.length;
+            final PageId pid = frames[frame];
+            if (pid == null) {
+                continue;
+            }
+            if (referenced[frame]) {
+                referenced[frame] = false;
+            } else if (evictable.canEvict(pid)) {
+                pageRemoved(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return frameOf.size();
+    }
+
+    @Override
+    public synchronized boolean contains(PageId pid) {
+        return frameOf.containsKey(pid);
+    }
+
+    private void grow() {
+        final int oldLength = frames.length;
+        final PageId[] newFrames = new PageId[oldLength * 2];
+        final boolean[] newReferenced = new boolean[oldLength * 2];
+        System.arraycopy(frames, 0, newFrames, 0, oldLength);
+        System.arraycopy(referenced, 0, newReferenced, 0, oldLength);
+        frames = newFrames;
+        referenced = newReferenced;
+        for (int i = oldLength; i < frames.length; i++) {
+            freeFrames.add(i);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package simpledb;
+
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * A batch of rows stored by column, exchanged by the operators implementing
+ * {@link BatchIterator}. INT columns are stored as int[], so they can be
+ * filtered and aggregated without a Field object per value; the other
+ * columns are stored as Field[].
+ * <p>
+ * Filtering a batch does not move its rows: it sets a selection vector, the
+ * (increasing) indexes of the rows still in the batch. size() and row(i)
+ * only see the selected rows, so operators loop over a batch as
+ * <pre>
+ *     for (int i = 0; i &lt; batch.size(); i++) {
+ *         int row = batch.row(i);
+ *         ... batch.getIntColumn(c)[row] ...
+ *     }
+ * </pre>
+ */
+public class ColumnBatch {
+
+    /** The number of rows of the batches built by the operators */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int[][] ints; // INT_TYPE columns, null for the others
+    private final Field[][] fields; // the other columns, null for INT_TYPE columns
+    private int capacity;
+    private int rows = 0;
+    private int[] selection = null; // null when every row is selected
+    private int selected = 0;
+
+    /**
+     * Creates an empty batch
+     * @param td the schema of the rows
+     * @param capacity the number of rows the batch can hold
+     */
+    public ColumnBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.fields = new Field[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else {
+                fields[i] = new Field[capacity];
+            }
+        }
+    }
+
+    private ColumnBatch(TupleDesc td, int[][] ints, Field[][] fields, ColumnBatch rows) {
+        this.td = td;
+        this.ints = ints;
+        this.fields = fields;
+        this.capacity = rows.capacity;
+        this.rows = rows.rows;
+        this.selection = rows.selection;
+        this.selected = rows.selected;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int size() {
+        return selection == null ? rows : selected;
+    }
+
+    /**
+     * @return the index in the columns of the ith selected row
+     */
+    public int row(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    /**
+     * @return the selection vector, null if every row is selected
+     */
+    public int[] getSelection() {
+        return selection;
+    }
+
+    /**
+     * Keeps only some rows in the batch
+     * @param selection the indexes of the rows kept, in increasing order
+     * @param count the number of indexes used in selection
+     */
+    public void select(int[] selection, int count) {
+        this.selection = selection;
+        this.selected = count;
+    }
+
+    public boolean isFull() {
+        return rows == capacity;
+    }
+
+    /**
+     * Removes all rows, so the batch can be filled again
+     */
+    public void clear() {
+        rows = 0;
+        selection = null;
+        selected = 0;
+    }
+
+    /**
+     * Makes room for at least capacity rows
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= this.capacity) {
+            return;
+        }
+        final int newCapacity = Math.max(capacity, this.capacity * 2);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (ints[i] != null) {
+                ints[i] = Arrays.copyOf(ints[i], newCapacity);
+            } else {
+                fields[i] = Arrays.copyOf(fields[i], newCapacity);
+            }
+        }
+        this.capacity = newCapacity;
+    }
+
+    /**
+     * @return the values of an INT_TYPE column, indexed by row
+     * @throws IllegalArgumentException if the column is not an INT_TYPE column
+     */
+    public int[] getIntColumn(int col) {
+        if (ints[col] == null) {
+            throw new IllegalArgumentException("column " + col + " is not an INT_TYPE column");
+        }
+        return ints[col];
+    }
+
+    /**
+     * @return the value in a column of a row (an index in the columns, see row).
+     *         The values of INT columns are wrapped in a new IntField, so
+     *         operators read them through getIntColumn instead.
+     */
+    public Field getField(int col, int row) {
+        return ints[col] != null ? new IntField(ints[col][row]) : fields[col][row];
+    }
+
+    /**
+     * @return the ith selected row, as a Tuple
+     */
+    public Tuple getTuple(int i) {
+        final int row = row(i);
+        final Tuple t = new Tuple(td);
+        for (int col = 0; col < td.numFields(); col++) {
+            t.setField(col, getField(col, row));
+        }
+        return t;
+    }
+
+    /**
+     * Adds a row at the end of the batch, which must not be full nor filtered
+     * @return the index of the new row, whose values are to be set with copyRow
+     */
+    public int addRow() {
+        assert rows < capacity && selection == null : "batch full or filtered";
+        return rows++;
+    }
+
+    /**
+     * Adds a tuple at the end of the batch, which must not be full nor filtered
+     */
+    public void append(Tuple t) {
+        final int row = addRow();
+        for (int col = 0; col < td.numFields(); col++) {
+            if (ints[col] != null) {
+                ints[col][row] = ((IntField) t.getField(col)).getValue();
+            } else {
+                fields[col][row] = t.getField(col);
+            }
+        }
+    }
+
+    /**
+     * Adds a row at the end of the batch, which must not be full nor
+     * filtered, decoded from a tuple serialized in data at offset. The INT
+     * columns are decoded into their int[], without any Field.
+     * @throws ParseException if a value cannot be decoded
+     */
+    public void append(byte[] data, int offset) throws ParseException {
+        final int row = addRow();
+        for (int col = 0; col < td.numFields(); col++) {
+            final int fieldOffset = offset + td.getFieldOffset(col);
+            if (ints[col] != null) {
+                ints[col][row] = Type.readInt(data, fieldOffset);
+            } else {
+                fields[col][row] = td.getFieldType(col).parse(data, fieldOffset);
+            }
+        }
+    }
+
+    /**
+     * Copies all the columns of a row of src into the columns firstCol,
+     * firstCol+1... of a row of this batch
+     */
+    public void copyRow(ColumnBatch src, int srcRow, int row, int firstCol) {
+        for (int col = 0; col < src.td.numFields(); col++) {
+            if (src.ints[col] != null) {
+                ints[firstCol + col][row] = src.ints[col][srcRow];
+            } else {
+                fields[firstCol + col][row] = src.fields[col][srcRow];
+            }
+        }
+    }
+
+    /**
+     * @return a batch with the same rows and selection, made of some of the
+     *         columns of this batch. The columns are shared, not copied.
+     * @param cols the columns kept, in their new order
+     * @param td the schema of the new batch
+     */
+    public ColumnBatch project(int[] cols, TupleDesc td) {
+        final int[][] newInts = new int[cols.length][];
+        final Field[][] newFields = new Field[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            newInts[i] = ints[cols[i]];
+            newFields[i] = fields[cols[i]];
+        }
+        return new ColumnBatch(td, newInts, newFields, this);
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb;
+
+/**
+ * Decides which page the BufferPool evicts when it is full.<br>
+ * The BufferPool reports every page it caches, every hit and every page it drops; the policy keeps
+ * its own bookkeeping of the cached pages and picks a victim among the pages the BufferPool allows
+ * to be evicted (e.g. pages that are not dirty, to respect NO STEAL).
+ * <p>
+ * The policy used by new BufferPools is chosen with the system property simpledb.eviction
+ * (clock, lru-k or 2q, see {@link #create}).
+ *
+ * @Threadsafe, implementations synchronize internally since hits are reported without the
+ * BufferPool lock
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Tells which pages may be evicted
+     */
+    interface Evictable {
+        boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Called when a page that was not cached is added to the BufferPool
+     * @param pid the id of the page
+     */
+    void pageAdded(PageId pid);
+
+    /**
+     * Called when a cached page is requested or replaced by a newer version
+     * @param pid the id of the page
+     */
+    void pageAccessed(PageId pid);
+
+    /**
+     * Called when the BufferPool drops a page on its own (e.g. discardPage)
+     * @param pid the id of the page
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Chooses a page to evict and stops tracking it
+     * @param evictable tells which pages may be chosen
+     * @return the evicted page, or null if no tracked page can be evicted
+     */
+    PageId evict(Evictable evictable);
+
+    /**
+     * @return the number of pages tracked by the policy
+     */
+    int size();
+
+    /**
+     * @return true if pid is tracked by the policy
+     */
+    boolean contains(PageId pid);
+
+    /**
+     * Creates a policy by name
+     * @param name clock, lru-k (K = 2) or 2q, case insensitive
+     * @param capacity the number of pages of the BufferPool
+     * @return the policy
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static EvictionPolicy create(String name, int capacity) {
+        switch (name.toLowerCase()) {
+            case "clock":
+                return new ClockEvictionPolicy(capacity);
+            case "lru-k":
+            case "lru-2":
+            case "lruk":
+                return new LruKEvictionPolicy(2);
+            case "2q":
+                return new TwoQueueEvictionPolicy(capacity);
+            default:
+                throw new IllegalArgumentException("Unknown eviction policy: " + name);
+        }
+    }
+}
@@ -5,11 +5,13 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final Predicate p;
+    private transient BatchIterator batchChild = null;
+    private transient int[] selection = null;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -69,6 +71,54 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Reads the child batches and returns those with rows passing the
+     * predicate; the rows that do not pass are removed from the selection
+     * vector of the batch.
+     */
+    public ColumnBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batchChild == null) {
+            batchChild = TupleBatchAdapter.of(child);
+        }
+        ColumnBatch batch;
+        while ((batch = batchChild.nextBatch()) != null) {
+            filter(batch);
+            if (batch.size() > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private void filter(ColumnBatch batch) {
+        if (selection == null || selection.length < batch.capacity()) {
+            selection = new int[batch.capacity()];
+        }
+        final int field = p.getField();
+        final Predicate.Op op = p.getOp();
+        final int n = batch.size();
+        int count = 0;
+        // the selection may be the array being written: a row is read before its slot is reused
+        if (batch.getTupleDesc().getFieldType(field) == Type.INT_TYPE && p.getOperand() instanceof IntField) {
+            final int[] values = batch.getIntColumn(field);
+            final int operand = ((IntField) p.getOperand()).getValue();
+            for (int i = 0; i < n; i++) {
+                final int row = batch.row(i);
+                if (IntField.compare(op, values[row], operand)) {
+                    selection[count++] = row;
+                }
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                final int row = batch.row(i);
+                if (batch.getField(field, row).compare(op, p.getOperand())) {
+                    selection[count++] = row;
+                }
+            }
+        }
+        batch.select(selection, count);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{child};
@@ -78,6 +128,7 @@ public class Filter extends Operator {
     public void setChildren(OpIterator[] children) {
         assert children.length == 1 : "Incorrent length of OpIterator[]!";
         child = children[0];
+        batchChild = null;
     }
 
 }
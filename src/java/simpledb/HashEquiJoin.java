@@ -4,15 +4,31 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin loads child1 in a hash table and probes it with the rows of
+ * child2, a batch at a time. When child1 does not fit in its memory budget,
+ * it becomes a Grace hash join: both children are split on the hash of
+ * their join field into partitions written to temporary files (see
+ * {@link SpillBuffer}), and every pair of partitions is then joined on its
+ * own, so each child is read once whatever its size. A partition that still
+ * does not fit (e.g. a key repeated more than the budget allows) is joined
+ * a part at a time, reading its probe partition once per part. The number
+ * of partitions, spilled rows and hash tables built can be read with the
+ * getters below.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The default memory budget, set by the property simpledb.join.memoryBytes */
+    public static final long DEFAULT_MEMORY_BYTES =
+            Long.getLong("simpledb.join.memoryBytes", SpillBuffer.DEFAULT_MEMORY_BYTES);
+    private static final int MAX_PARTITIONS = 64;
+
     private JoinPredicate pred;
     private OpIterator child1, child2;
     private TupleDesc comboTD;
-    transient private Tuple t1 = null;
-    transient private Tuple t2 = null;
+    private final long memoryBytes;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -26,9 +42,27 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Constructor for a join with a given memory budget
+     * 
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join, loaded in the
+     *            hash table
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param memoryBytes
+     *            The size of the rows of child1 kept in the hash table at once
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, long memoryBytes) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryBytes = memoryBytes;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -50,32 +84,10 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
-
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
-            }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
-        }
-        return cnt > 0;
-
-    }
-
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
         super.open();
     }
 
@@ -83,24 +95,65 @@ public class HashEquiJoin extends Operator {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        if (partitions1 != null) {
+            Debug.log("HashEquiJoin: %d partitions, %d rows spilled, %d hash tables built",
+                    partitions1.length, spilledRows, buildPasses);
+        }
+        resetBatches();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        child1.rewind();
-        child2.rewind();
+        pending = null;
+        if (partitions1 != null) {
+            // the children have been read into the partitions already
+            match = -1;
+            probe = null;
+            openPartition(0);
+        } else if (buildSource != null && buildDone) {
+            // the whole of child1 is in the hash table
+            match = -1;
+            probe = null;
+            child2.rewind();
+            probeSource = new ChildSource(TupleBatchAdapter.of(child2));
+        } else {
+            child1.rewind();
+            child2.rewind();
+            resetBatches();
+        }
     }
 
-    transient Iterator<Tuple> listIt = null;
+    /**
+     * @return the number of partitions each child was split into, 0 if
+     *         child1 fit in memory
+     */
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    /**
+     * @return the number of rows of both children written to partitions
+     */
+    public long getSpilledRows() {
+        return spilledRows;
+    }
+
+    /**
+     * @return the number of hash tables built: 1 if child1 fit in memory,
+     *         one per partition or more if some partitions did not fit
+     */
+    public long getBuildPasses() {
+        return buildPasses;
+    }
+
+    // the batch being returned by fetchNext
+    transient private ColumnBatch pending = null;
+    transient private int pendingIndex = 0;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate. The tuples are taken from the batches of
+     * nextBatch.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -114,51 +167,315 @@ public class HashEquiJoin extends Operator {
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (pending == null || pendingIndex == pending.size()) {
+            pending = nextBatch();
+            pendingIndex = 0;
+            if (pending == null) {
+                return null;
+            }
+        }
+        return pending.getTuple(pendingIndex++);
+    }
 
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
+    /**
+     * The rows of one side of the join: a child, or one of its partitions
+     */
+    private interface Source {
+        ColumnBatch nextBatch() throws DbException, TransactionAbortedException;
+    }
 
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+    /**
+     * Reads a partition in batches
+     */
+    private static class PartitionSource implements Source {
+        private final DbFileIterator it;
+        private final ColumnBatch batch;
 
+        PartitionSource(SpillBuffer partition) throws DbException, TransactionAbortedException {
+            this.it = partition.iterator();
+            this.batch = new ColumnBatch(partition.getTupleDesc(), ColumnBatch.DEFAULT_SIZE);
+            it.open();
+        }
+
+        public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+            QueryContext.checkCurrent(); // once per batch, like TupleBatchAdapter
+            batch.clear();
+            while (!batch.isFull() && it.hasNext()) {
+                batch.append(it.next());
+            }
+            return batch.size() == 0 ? null : batch;
+        }
+
+        void close() {
+            it.close();
+        }
     }
 
-    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+    /**
+     * Reads a child in batches
+     */
+    private static class ChildSource implements Source {
+        private final BatchIterator child;
+
+        ChildSource(BatchIterator child) {
+            this.child = child;
         }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+        public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+            return child.nextBatch();
+        }
+    }
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
+    // State of the join run in batches: the rows of child1 (or of a partition
+    // of child1) loaded so far, with a chain per key (head: last row with the
+    // key, in intHeads for INT_TYPE keys and in heads otherwise, chain:
+    // previous row with the same key, -1 at the end), and the position in
+    // the current probe batch
+    transient private Source buildSource = null, probeSource = null;
+    transient private ColumnBatch build = null, probe = null, out = null;
+    transient private IntHashMap intHeads = null;
+    transient private HashMap<Field, Integer> heads = null;
+    transient private int[] chain = null;
+    transient private boolean buildDone = false;
+    transient private int probeIndex = 0, probeRow = 0, match = -1;
+    // set once the children have been split into partitions
+    transient private SpillBuffer[] partitions1 = null, partitions2 = null;
+    transient private int partition = 0;
+    // statistics of the last run
+    transient private int partitionCount = 0;
+    transient private long spilledRows = 0, buildPasses = 0;
 
-            return processList();
+    private void resetBatches() {
+        closePartitionSources();
+        buildSource = null;
+        probeSource = null;
+        build = null;
+        probe = null;
+        intHeads = null;
+        heads = null;
+        chain = null;
+        match = -1;
+        pending = null;
+        if (partitions1 != null) {
+            for (int i = 0; i < partitions1.length; i++) {
+                partitions1[i].close();
+                partitions2[i].close();
+            }
+            partitions1 = null;
+            partitions2 = null;
+        }
+    }
 
+    private void closePartitionSources() {
+        if (buildSource instanceof PartitionSource) {
+            ((PartitionSource) buildSource).close();
+        }
+        if (probeSource instanceof PartitionSource) {
+            ((PartitionSource) probeSource).close();
         }
+    }
 
-        // child2 is done: advance child1
-        if (child1.hasNext()) { // only need to load map/rewind child2 if child1 is not done
-            child2.rewind();
-            if (loadMap()) {
-                return fetchNext();
+    /**
+     * @return true if both join fields are INT_TYPE fields, whose keys are
+     *         then kept in an IntHashMap
+     */
+    private boolean intKeys() {
+        return child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE;
+    }
+
+    /**
+     * @return the first row of the build table with the key of a row, or -1
+     */
+    private int head(ColumnBatch batch, int col, int row) {
+        if (intHeads != null) {
+            return intHeads.get(batch.getIntColumn(col)[row]);
+        }
+        final Integer head = heads.get(batch.getField(col, row));
+        return head == null ? -1 : head;
+    }
+
+    /**
+     * @return the partition of a row, from the high bits of the scrambled
+     *         hash of its key, so that it does not follow the hash table
+     *         buckets
+     */
+    private static int partitionOf(ColumnBatch batch, int col, int row, int numPartitions) {
+        final int key = batch.getTupleDesc().getFieldType(col) == Type.INT_TYPE
+                ? batch.getIntColumn(col)[row] : batch.getField(col, row).hashCode();
+        return (key * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(numPartitions));
+    }
+
+    /**
+     * Loads the next rows of the build source in the hash table, as many as
+     * fit in the memory budget
+     * @return true if rows were loaded
+     */
+    private boolean loadBuild() throws DbException, TransactionAbortedException {
+        if (build == null) {
+            build = new ColumnBatch(child1.getTupleDesc(), ColumnBatch.DEFAULT_SIZE);
+            if (intKeys()) {
+                intHeads = new IntHashMap(ColumnBatch.DEFAULT_SIZE);
+            } else {
+                heads = new HashMap<Field, Integer>();
+            }
+            chain = new int[ColumnBatch.DEFAULT_SIZE];
+        }
+        final long maxRows = Math.max(1, memoryBytes / child1.getTupleDesc().getSize());
+        final int col = pred.getField1();
+        build.clear();
+        if (intHeads != null) {
+            intHeads.clear();
+        } else {
+            heads.clear();
+        }
+        while (build.size() < maxRows) {
+            final ColumnBatch batch = buildSource.nextBatch();
+            if (batch == null) {
+                buildDone = true;
+                break;
+            }
+            build.ensureCapacity(build.size() + batch.size());
+            if (chain.length < build.capacity()) {
+                chain = Arrays.copyOf(chain, build.capacity());
+            }
+            if (intHeads != null) {
+                final int[] keys = batch.getIntColumn(col);
+                for (int i = 0; i < batch.size(); i++) {
+                    final int row = build.addRow();
+                    build.copyRow(batch, batch.row(i), row, 0);
+                    chain[row] = intHeads.put(keys[batch.row(i)], row); // MISSING is -1
+                }
+            } else {
+                for (int i = 0; i < batch.size(); i++) {
+                    final int row = build.addRow();
+                    build.copyRow(batch, batch.row(i), row, 0);
+                    final Integer previous = heads.put(batch.getField(col, batch.row(i)), row);
+                    chain[row] = previous == null ? -1 : previous;
+                }
+            }
+        }
+        if (build.size() > 0) {
+            buildPasses++;
+        }
+        return build.size() > 0;
+    }
+
+    /**
+     * Splits both children into partitions, starting with the rows of
+     * child1 already in the hash table, and starts joining the first pair
+     */
+    private void partition() throws DbException, TransactionAbortedException {
+        final long pages = Math.max(2, memoryBytes / BufferPool.getPageSize());
+        final int numPartitions = Integer.highestOneBit((int) Math.min(MAX_PARTITIONS, pages));
+        partitionCount = numPartitions;
+        partitions1 = new SpillBuffer[numPartitions];
+        partitions2 = new SpillBuffer[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            partitions1[i] = new SpillBuffer(child1.getTupleDesc(), 0); // spills from the start
+            partitions2[i] = new SpillBuffer(child2.getTupleDesc(), 0);
+        }
+        write(build, pred.getField1(), partitions1);
+        for (ColumnBatch batch = buildSource.nextBatch(); batch != null; batch = buildSource.nextBatch()) {
+            write(batch, pred.getField1(), partitions1);
+        }
+        for (ColumnBatch batch = probeSource.nextBatch(); batch != null; batch = probeSource.nextBatch()) {
+            write(batch, pred.getField2(), partitions2);
+        }
+        openPartition(0);
+    }
+
+    private void write(ColumnBatch batch, int col, SpillBuffer[] partitions) throws DbException {
+        for (int i = 0; i < batch.size(); i++) {
+            final int row = batch.row(i);
+            partitions[partitionOf(batch, col, row, partitions.length)].add(batch.getTuple(i));
+        }
+        spilledRows += batch.size();
+    }
+
+    /**
+     * Starts joining a pair of partitions, skipping the pairs with an empty
+     * side
+     * @return false if there are no more pairs
+     */
+    private boolean openPartition(int first) throws DbException, TransactionAbortedException {
+        closePartitionSources();
+        for (partition = first; partition < partitions1.length; partition++) {
+            if (partitions1[partition].size() == 0 || partitions2[partition].size() == 0) {
+                continue;
             }
+            buildSource = new PartitionSource(partitions1[partition]);
+            probeSource = new PartitionSource(partitions2[partition]);
+            buildDone = false;
+            probe = null;
+            return loadBuild();
         }
+        buildSource = null;
+        probeSource = null;
+        return false;
+    }
 
-        return null;
+    /**
+     * Joins the rows of child1 and child2 a batch at a time: child1 is loaded
+     * in a hash table, or, if it does not fit, both children are partitioned
+     * and each pair of partitions is joined in turn.
+     */
+    public ColumnBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (buildSource == null) {
+            if (partitions1 != null) {
+                return null; // every pair of partitions has been joined
+            }
+            buildSource = new ChildSource(TupleBatchAdapter.of(child1));
+            probeSource = new ChildSource(TupleBatchAdapter.of(child2));
+            buildDone = false;
+            partitionCount = 0;
+            spilledRows = 0;
+            buildPasses = 0;
+            if (!loadBuild()) {
+                return null;
+            }
+            if (!buildDone) {
+                partition();
+                if (buildSource == null) {
+                    return null;
+                }
+            }
+        }
+        if (out == null) {
+            out = new ColumnBatch(comboTD, ColumnBatch.DEFAULT_SIZE);
+        }
+        out.clear();
+        final int width1 = child1.getTupleDesc().numFields();
+        while (!out.isFull()) {
+            if (match >= 0) {
+                final int row = out.addRow();
+                out.copyRow(build, match, row, 0);
+                out.copyRow(probe, probeRow, row, width1);
+                match = chain[match];
+            } else if (probe != null && probeIndex < probe.size()) {
+                probeRow = probe.row(probeIndex++);
+                match = head(probe, pred.getField2(), probeRow);
+            } else {
+                probe = probeSource.nextBatch();
+                probeIndex = 0;
+                if (probe != null) {
+                    continue;
+                }
+                if (!buildDone) {
+                    // a partition too large for the budget: go on with its next part
+                    ((PartitionSource) probeSource).close();
+                    probeSource = new PartitionSource(partitions2[partition]);
+                    if (loadBuild()) {
+                        continue;
+                    }
+                }
+                if (partitions1 == null || !openPartition(partition + 1)) {
+                    break;
+                }
+            }
+        }
+        return out.size() == 0 ? null : out;
     }
 
     @Override
@@ -170,6 +487,7 @@ public class HashEquiJoin extends Operator {
     public void setChildren(OpIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        resetBatches();
     }
     
 }
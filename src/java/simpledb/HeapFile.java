@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -19,6 +21,13 @@ public class HeapFile implements DbFile {
     private final TupleDesc td;
     private final int fileId;
 
+    // Opened on first use and kept open, all reads and writes are positional
+    private volatile FileChannel channel = null;
+    // Number of pages seen the last time the size of the file was checked
+    private volatile int cachedNumPages = -1;
+    // Direct buffers let the channel read straight into native memory, one per reading thread
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER = new ThreadLocal<>();
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -72,18 +81,25 @@ public class HeapFile implements DbFile {
             throw new IllegalArgumentException("Not the correct table");
         }
         final int pageno = pid.getPageNumber();
-        if (pageno >= numPages() || pageno < 0) {
+        // only look at the file again if the page is beyond what we know of
+        if (pageno < 0 || (pageno >= cachedNumPages && pageno >= numPages())) {
             throw new IllegalArgumentException("Invalid page number");
         }
         final int pageSize = BufferPool.getPageSize();
         final byte[] data = new byte[pageSize];
 
-        try (BufferedInputStream br = new BufferedInputStream(new FileInputStream(f))) {
-            final long skipN = br.skip(pageno*pageSize);
-            assert skipN == pageno*pageSize : "InputStream skip() failed";
-            br.read(data);
-            br.close();
-            return new HeapPage(new HeapPageId(tableid, pageno), data);
+        try {
+            final ByteBuffer buffer = readBuffer(pageSize);
+            final FileChannel ch = getChannel();
+            final long offset = (long) pageno * pageSize;
+            while (buffer.hasRemaining()) {
+                if (ch.read(buffer, offset + buffer.position()) < 0) {
+                    break; // a truncated last page reads as zeros, like the stream did
+                }
+            }
+            buffer.flip();
+            buffer.get(data, 0, buffer.remaining());
+            return new HeapPage(new HeapPageId(tableid, pageno), data, td);
         } catch (IOException e) {
             e.printStackTrace();
             throw new IllegalArgumentException("I/O error detected reading the page");
@@ -92,12 +108,17 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public synchronized void writePage(Page page) throws IOException {
-        RandomAccessFile raf = new RandomAccessFile(f, "rw");
-        final int skipIntended = page.getId().getPageNumber() * BufferPool.getPageSize();
-        final int skipActual = raf.skipBytes(skipIntended);
-        assert skipActual == skipIntended : "IO error: fail to skip bytes";
-        raf.write(page.getPageData());
-        raf.close();
+        final int pageSize = BufferPool.getPageSize();
+        final ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        final long offset = (long) page.getId().getPageNumber() * pageSize;
+        final FileChannel ch = getChannel();
+        while (data.hasRemaining()) {
+            ch.write(data, offset + data.position());
+        }
+        final int pages = page.getId().getPageNumber() + 1;
+        if (pages > cachedNumPages) {
+            cachedNumPages = pages;
+        }
     }
     
     /**
@@ -105,17 +126,19 @@ public class HeapFile implements DbFile {
      * @throws IOException if there is IO exception
      */
     public synchronized void appendEmptyPage() throws IOException {
-        final HeapPage page = new HeapPage(new HeapPageId(getId(), numPages()), HeapPage.createEmptyPageData());
+        final HeapPage page = new HeapPage(new HeapPageId(getId(), numPages()), HeapPage.createEmptyPageData(), td);
         writePage(page);
     }
 
     /**
      * Returns the number of pages in this HeapFile.
+     * The size is read from the open channel, so pages appended to the file by
+     * somebody else are seen too.
      */
-    public synchronized int numPages() {
-        try (BufferedInputStream br = new BufferedInputStream(new FileInputStream(f))) {
-            final int numPages = br.available() / BufferPool.getPageSize();
-            br.close();
+    public int numPages() {
+        try {
+            final int numPages = (int) (getChannel().size() / BufferPool.getPageSize());
+            cachedNumPages = numPages;
             return numPages;
         } catch (IOException e) {
             e.printStackTrace();
@@ -123,6 +146,55 @@ public class HeapFile implements DbFile {
         }
     }
 
+    /**
+     * Returns the number of tuples the pages of this HeapFile can hold, an
+     * estimate of its number of tuples that reads none of its pages.
+     */
+    public long maxTuples() {
+        return (long) numPages() * ((BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1));
+    }
+
+    /**
+     * Closes the channel to the file; it is reopened if the file is used again
+     */
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+
+    private FileChannel getChannel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    if (!f.exists()) {
+                        throw new FileNotFoundException(f.getPath());
+                    }
+                    ch = new RandomAccessFile(f, f.canWrite() ? "rw" : "r").getChannel();
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    private static ByteBuffer readBuffer(int pageSize) {
+        ByteBuffer buffer = READ_BUFFER.get();
+        if (buffer == null || buffer.capacity() != pageSize) {
+            buffer = ByteBuffer.allocateDirect(pageSize);
+            READ_BUFFER.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
@@ -156,26 +228,44 @@ public class HeapFile implements DbFile {
         return pages;
     }
     
-    private class HeapFileIterator extends AbstractDbFileIterator {
+    /**
+     * Reads the tuples of the file a page at a time, either as Tuples or, see
+     * {@link #readBatch}, decoded into batches
+     */
+    class HeapFileIterator extends AbstractDbFileIterator {
         
         private final TransactionId tid;
         private boolean activeFlag = false;
         private int currentPage = 0;
         private Iterator<Tuple> currentIterator;
+        private HeapPage batchPage = null; // the page read by readBatch, null until then
+        private int batchSlot = 0; // the next slot of batchPage read by readBatch
+        private BufferRing ring = null; // private buffers for tables larger than the pool
+        private int prefetchedUpTo = 0; // pages up to this one have been asked to the prefetcher
         
         private HeapFileIterator(TransactionId tid) {
             this.tid = tid;
         }
         
-        private Iterator<Tuple> getCurrentIterator() throws DbException, TransactionAbortedException {
+        private HeapPage getCurrentPage() throws DbException, TransactionAbortedException {
+            QueryContext.checkCurrent(); // once per page
             final HeapPageId pid = new HeapPageId(fileId, currentPage);
-            return ((HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY)).iterator();
+            return (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY, ring);
+        }
+
+        private Iterator<Tuple> getCurrentIterator() throws DbException, TransactionAbortedException {
+            return getCurrentPage().iterator();
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
+            if (!activeFlag) {
+                ring = Database.getBufferPool().newScanRing(numPages());
+            }
             activeFlag = true;
             currentIterator = getCurrentIterator();
+            batchPage = null;
+            batchSlot = 0;
         }
 
         @Override
@@ -184,6 +274,7 @@ public class HeapFile implements DbFile {
                 throw new DbException("The iterator has been closed or never opened");
             }
             currentPage = 0;
+            prefetchedUpTo = 0;
             open();
         }
         
@@ -191,6 +282,22 @@ public class HeapFile implements DbFile {
         public void close() {
             super.close();
             activeFlag = false;
+            Database.getBufferPool().releaseRing(ring);
+            ring = null;
+            batchPage = null;
+        }
+
+        /**
+         * The scan has moved on to the next page, so it is sequential: keep the pages
+         * after the current one on their way from disk
+         */
+        private void readAhead() {
+            final BufferPool pool = Database.getBufferPool();
+            final int last = Math.min(currentPage + pool.getPrefetchDepth(), cachedNumPages - 1);
+            for (int page = Math.max(prefetchedUpTo, currentPage) + 1; page <= last; page++) {
+                pool.prefetch(new HeapPageId(fileId, page));
+            }
+            prefetchedUpTo = Math.max(prefetchedUpTo, last);
         }
 
         @Override
@@ -200,8 +307,9 @@ public class HeapFile implements DbFile {
             }
             if (currentIterator.hasNext()) {
                 return currentIterator.next();
-            } else if (currentPage + 1 < numPages()) {
+            } else if (currentPage + 1 < cachedNumPages || currentPage + 1 < numPages()) {
                 currentPage++;
+                readAhead();
                 currentIterator = getCurrentIterator();
                 if (currentIterator.hasNext()) {
                     return currentIterator.next();
@@ -209,6 +317,34 @@ public class HeapFile implements DbFile {
             }
             return null;
         }
+
+        /**
+         * Adds the next tuples of the file to the batch until it is full,
+         * decoding their fields straight from the pages, see
+         * {@link HeapPage#readInto}. A caller reads the file either with
+         * readBatch or with next, not both.
+         */
+        void readBatch(ColumnBatch batch) throws DbException, TransactionAbortedException {
+            if (activeFlag == false) {
+                return;
+            }
+            if (batchPage == null) {
+                batchPage = getCurrentPage();
+            }
+            while (true) {
+                batchSlot = batchPage.readInto(batch, batchSlot);
+                if (batch.isFull()) {
+                    return;
+                }
+                if (!(currentPage + 1 < cachedNumPages || currentPage + 1 < numPages())) {
+                    return;
+                }
+                currentPage++;
+                readAhead();
+                batchPage = getCurrentPage();
+                batchSlot = 0;
+            }
+        }
         
     }
 
@@ -18,6 +18,13 @@ public class HeapPage implements Page {
     final byte header[];
     final Tuple tuples[];
     final int numSlots;
+    final int tupleSize;
+
+    // the page as read or last written; never modified, so it is shared with the before image
+    private volatile byte[] data;
+    // slots inserted since data was read; their bytes in data are stale
+    private BitSet inserted = null;
+    private boolean modified = false;
 
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
@@ -37,30 +44,32 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps data instead of decoding it: a tuple is only built when it
+     * is first returned, and its fields are only decoded when they are read.
+     * data must not be modified by the caller afterwards.
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage of a file whose tuples are described by td, which
+     * does not have to be in the catalog
+     */
+    public HeapPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
+        this.tupleSize = td.getSize();
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        if (data.length < BufferPool.getPageSize()) {
+            throw new EOFException("page " + id.getPageNumber() + " is truncated");
         }
-        dis.close();
+        this.data = data;
+        this.header = Arrays.copyOf(data, getHeaderSize());
+        this.tuples = new Tuple[numSlots];
 
         setBeforeImage();
     }
@@ -70,7 +79,6 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         final int pageSize = BufferPool.getPageSize();
-        final int tupleSize = td.getSize();
         return (pageSize * 8) / (tupleSize * 8 + 1);
     }
 
@@ -95,7 +103,7 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid,oldDataRef,td);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -107,7 +115,13 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        if (modified) {
+            data = encode();
+            inserted = null;
+            modified = false;
+        }
+        // copy on write: data is replaced, never changed, when the page is modified
+        oldData = data;
         }
     }
 
@@ -119,37 +133,48 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple stored in slot slotId, which must be used
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private synchronized Tuple tupleAt(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new PageTuple(td, data, header.length + slotId * tupleSize);
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
         }
+        return t;
+    }
+
+    /**
+     * @return the tuple stored in slot slotId, or null if the slot is empty
+     */
+    public Tuple getTuple(int slotId) {
+        return slotId < numSlots && isSlotUsed(slotId) ? tupleAt(slotId) : null;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * Decodes the tuples of the used slots from slot from on into the batch,
+     * until it is full, without building a Tuple for the slots read from
+     * the page data (see {@link ColumnBatch#append(byte[], int)}).
+     * @return the slot to read next, numSlots once the whole page is read
+     */
+    public synchronized int readInto(ColumnBatch batch, int from) throws DbException {
+        int slot = from;
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+            for (; slot < numSlots && !batch.isFull(); slot++) {
+                if (!isSlotUsed(slot)) {
+                    continue;
+                }
+                if (inserted != null && inserted.get(slot)) {
+                    batch.append(tuples[slot]); // not in data yet
+                } else {
+                    batch.append(data, header.length + slot * tupleSize);
+                }
             }
         } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+            throw new DbException("cannot decode slot " + slot + " of " + pid + ": " + e.getMessage());
         }
-
-        return t;
+        return slot;
     }
 
     /**
@@ -164,64 +189,42 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+        synchronized(oldDataLock)
+        {
+        return modified ? encode() : data.clone();
         }
+    }
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
+    /**
+     * @return a new copy of data with the current header, the inserted tuples
+     *         and the empty slots cleared
+     */
+    private byte[] encode() {
+        final byte[] result = data.clone();
+        System.arraycopy(header, 0, result, 0, header.length);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+        final DataOutputStream dos = new DataOutputStream(baos);
+        for (int i=0; i<numSlots; i++) {
+            final int offset = header.length + i * tupleSize;
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
+                Arrays.fill(result, offset, offset + tupleSize, (byte) 0);
                 continue;
             }
-
-            // non-empty slot
+            if (inserted == null || !inserted.get(i)) {
+                continue;
+            }
+            baos.reset();
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
-                
+                    tuples[i].getField(j).serialize(dos);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             }
+            System.arraycopy(baos.toByteArray(), 0, result, offset, tupleSize);
         }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return result;
     }
 
     /**
@@ -252,6 +255,7 @@ public class HeapPage implements Page {
         final int tupleno = t.getRecordId().getTupleNumber();
         if (isSlotUsed(tupleno)) {
             markSlotUsed(tupleno, false);
+            tuples[tupleno] = null;
         } else {
             throw new DbException("tuple already deleted");
         }
@@ -273,6 +277,10 @@ public class HeapPage implements Page {
                 tuples[i] = t;
                 tuples[i].setRecordId(new RecordId(getId(), i));
                 markSlotUsed(i, true);
+                if (inserted == null) {
+                    inserted = new BitSet(numSlots);
+                }
+                inserted.set(i);
                 return;
             }
         }
@@ -344,6 +352,7 @@ public class HeapPage implements Page {
      */
     private void markSlotUsed(int i, boolean value) {
         assert i < this.numSlots : "Index exceeds page capacity";
+        modified = true;
         if (value) {
             header[i/8] |= mask[i%8];
         } else {
@@ -356,14 +365,119 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        final List<Tuple> tupleList = new ArrayList<>();
-        for (int i = 0; i < numSlots; i++){
-            if (isSlotUsed(i)) {
-                tupleList.add(tuples[i]);
+        // the slots used when the iteration starts, tuples are built as they are returned
+        final byte[] used = header.clone();
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                for (int i = from; i < numSlots; i++) {
+                    if ((used[i/8] & mask[i%8]) != 0) {
+                        return i;
+                    }
+                }
+                return numSlots;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (next >= numSlots) {
+                    throw new NoSuchElementException();
+                }
+                final Tuple t = tupleAt(next);
+                next = advance(next + 1);
+                return t;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * A tuple read from the page, whose fields are decoded from the page data
+     * the first time they are read. The data it refers to never changes.
+     */
+    private static class PageTuple extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient byte[] data;
+        private final int offset;
+
+        PageTuple(TupleDesc td, byte[] data, int offset) {
+            super(td);
+            this.data = data;
+            this.offset = offset;
+        }
+
+        @Override
+        public Field getField(int i) {
+            Field f = super.getField(i);
+            if (f == null && data != null) {
+                final TupleDesc td = getTupleDesc();
+                try {
+                    f = td.getFieldType(i).parse(data, offset + td.getFieldOffset(i));
+                } catch (java.text.ParseException e) {
+                    e.printStackTrace();
+                    throw new NoSuchElementException("parsing error!");
+                }
+                super.setField(i, f);
+            }
+            return f;
+        }
+
+        /**
+         * Decodes the fields not read yet, for the methods using all of them
+         */
+        private void decodeAll() {
+            for (int i = 0; i < getTupleDesc().numFields(); i++) {
+                getField(i);
+            }
+        }
+
+        @Override
+        public String toString() {
+            decodeAll();
+            return super.toString();
+        }
+
+        @Override
+        public String fastToString() {
+            decodeAll();
+            return super.fastToString();
+        }
+
+        @Override
+        public Iterator<Field> fields() {
+            decodeAll();
+            return super.fields();
+        }
+
+        @Override
+        public void resetTupleDesc(TupleDesc td) {
+            super.resetTupleDesc(td);
+            data = null;
+        }
+
+        /**
+         * Serialized as a plain tuple, without the page data
+         */
+        private Object writeReplace() {
+            final Tuple t = new Tuple(getTupleDesc());
+            for (int i = 0; i < getTupleDesc().numFields(); i++) {
+                t.setField(i, getField(i));
             }
+            t.setRecordId(getRecordId());
+            return t;
         }
-        return Collections.unmodifiableList(tupleList).iterator();
     }
 
 }
-
@@ -0,0 +1,140 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies a predicate, through a {@link BTreeFile}: it
+ * reads the leaves of the matching keys and the pages of the tuples they
+ * point to, instead of every page of the table as a SeqScan and a Filter
+ * do. The tuples come in the order of the indexed field.
+ */
+public class IndexScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final BTreeFile index;
+    private final Predicate.Op op;
+    private final Field operand;
+    private final String tableAlias;
+    private transient DbFileIterator entries = null;
+    private transient Tuple next = null;
+
+    /**
+     * Creates a scan of the tuples of the indexed table whose key k satisfies
+     * "k op operand", as a part of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to read, on a field of a HeapFile
+     * @param op
+     *            the operator of the predicate
+     * @param operand
+     *            the value the keys are compared with
+     * @param tableAlias
+     *            the alias of the table, see {@link SeqScan#SeqScan}
+     */
+    public IndexScan(TransactionId tid, BTreeFile index, Predicate.Op op, Field operand, String tableAlias) {
+        this.tid = tid;
+        this.index = index;
+        this.op = op;
+        this.operand = operand;
+        this.tableAlias = tableAlias;
+    }
+
+    /**
+     * @return the name of the table the operator scans, as in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /**
+     * @return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * @return the predicate the tuples satisfy, on their indexed field
+     */
+    public Predicate getPredicate() {
+        return new Predicate(index.getKeyField(), op, operand);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        entries = index.iterator(tid, op, operand);
+        entries.open();
+        next = null;
+    }
+
+    /**
+     * Returns the TupleDesc of the table with field names prefixed with the
+     * table alias, as {@link SeqScan#getTupleDesc} does.
+     */
+    public TupleDesc getTupleDesc() {
+        final TupleDesc originTd = Database.getCatalog().getTupleDesc(index.getTableId());
+        final int length = originTd.numFields();
+        final Type[] typeAr = new Type[length];
+        final String[] fieldAr = new String[length];
+        for (int i = 0; i < length; i++) {
+            typeAr[i] = originTd.getFieldType(i);
+            fieldAr[i] = tableAlias + "." + originTd.getFieldName(i);
+        }
+        return new TupleDesc(typeAr, fieldAr);
+    }
+
+    /**
+     * Reads the tuple of the next entry, skipping the entries of tuples
+     * deleted by this transaction since the entries of their leaf were read
+     */
+    private Tuple readNext() throws DbException, TransactionAbortedException {
+        while (entries.hasNext()) {
+            final Tuple entry = entries.next();
+            final int pageNo = ((IntField) entry.getField(1)).getValue();
+            final HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(index.getTableId(), pageNo), Permissions.READ_ONLY);
+            final Tuple t = page.getTuple(((IntField) entry.getField(2)).getValue());
+            if (t != null) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (entries == null) {
+            throw new IllegalStateException("IndexScan not open");
+        }
+        if (next == null) {
+            next = readNext();
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Tuple result = next;
+        next = null;
+        return result;
+    }
+
+    public void close() {
+        if (entries != null) {
+            entries.close();
+        }
+        entries = null;
+        next = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        entries.rewind();
+        next = null;
+    }
+}
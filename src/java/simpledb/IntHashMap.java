@@ -0,0 +1,143 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * A hash table from int keys to non negative ints, such as row or group
+ * indexes. Keys and values are stored in two int arrays with open
+ * addressing (linear probing), so a lookup neither boxes the key nor
+ * allocates an entry. HashEquiJoin and IntegerAggregator use it instead of
+ * a HashMap when their key column is an INT_TYPE column.
+ */
+public class IntHashMap {
+
+    /** Returned by get, put and putIfAbsent when a key is not in the table */
+    public static final int MISSING = -1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;
+    private int[] values; // MISSING in the free slots
+    private int mask;
+    private int size = 0;
+
+    public IntHashMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    /**
+     * @param expected the number of keys the table holds before growing
+     */
+    public IntHashMap(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2L * expected) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return the first slot to look for a key in. The key is mixed (as in
+     *         MurmurHash3) so that consecutive or strided keys are spread,
+     *         and keys sharing their high bits (as in a partition of a Grace
+     *         hash join) do not cluster.
+     */
+    private int slot(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & mask;
+    }
+
+    /**
+     * @return the value of key, or MISSING if it is not in the table
+     */
+    public int get(int key) {
+        for (int i = slot(key); values[i] != MISSING; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * Sets the value of a key
+     * @param value a non negative value
+     * @return the previous value of key, or MISSING if it was not in the table
+     */
+    public int put(int key, int value) {
+        return put(key, value, true);
+    }
+
+    /**
+     * Sets the value of a key that is not in the table yet
+     * @param value a non negative value
+     * @return the value of key if it was already in the table (which is then
+     *         left unchanged), MISSING if value was added
+     */
+    public int putIfAbsent(int key, int value) {
+        return put(key, value, false);
+    }
+
+    private int put(int key, int value, boolean replace) {
+        assert value >= 0 : "negative value " + value;
+        int i = slot(key);
+        for (; values[i] != MISSING; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                final int previous = values[i];
+                if (replace) {
+                    values[i] = value;
+                }
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+        return MISSING;
+    }
+
+    private void grow() {
+        final int[] oldKeys = keys;
+        final int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != MISSING) {
+                int i = slot(oldKeys[j]);
+                while (values[i] != MISSING) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * @return the number of keys in the table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all keys, keeping the arrays so the table can be filled again
+     */
+    public void clear() {
+        Arrays.fill(values, MISSING);
+        size = 0;
+    }
+}
@@ -2,9 +2,9 @@ package simpledb;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
@@ -16,10 +16,22 @@ public class IntegerAggregator implements Aggregator {
     private final Type gbfieldtype;
     private final int afield;
     private final Op what;
-    private final Map<Field, Integer> results; // The results stored in a Map object
-    private final List<Map<Field,Integer>> count_sum; // Auxiliary Maps for average calculation
+    // The groups are numbered in the order they are met. Their number is
+    // looked up in intGroups when grouping on an INT_TYPE field, in
+    // fieldGroups when grouping on another field, and is always 0 without
+    // grouping. The keys and the state of the groups are kept in arrays
+    // indexed by that number, so merging a row allocates nothing.
+    private final IntHashMap intGroups;
+    private final Map<Field, Integer> fieldGroups;
+    private final List<Field> fieldKeys;
+    private int[] intKeys = new int[INITIAL_GROUPS];
+    private int[] values = new int[INITIAL_GROUPS]; // MIN, MAX, SUM; the sum for COUNT, AVG, SUM_COUNT and SC_AVG
+    private int[] counts = new int[INITIAL_GROUPS]; // the number of rows merged, the sum of the counts for SC_AVG
+    private int groupCount = 0;
     private TupleDesc td = null; // the TupleDesc of tuples
 
+    private static final int INITIAL_GROUPS = 16;
+
     /**
      * Aggregate constructor
      * 
@@ -32,27 +44,28 @@ public class IntegerAggregator implements Aggregator {
      * @param afield
      *            the 0-based index of the aggregate field in the tuple
      * @param what
-     *            the aggregation operator
+     *            the aggregation operator. SUM_COUNT returns the sum and the
+     *            count of each group, the partial state of a distributed AVG;
+     *            SC_AVG merges such states, with the sums in afield and the
+     *            counts in afield + 1, into the average of each group.
      */
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         this.gbfield = gbfield;
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        this.results = new ConcurrentHashMap<>();
-        if (what == Op.AVG) {
-            this.count_sum = Arrays.asList(new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
-        } else {
-            this.count_sum = null;
-        }
+        final boolean grouping = gbfield != Aggregator.NO_GROUPING;
+        this.intGroups = (grouping && gbfieldtype == Type.INT_TYPE) ? new IntHashMap() : null;
+        this.fieldGroups = (grouping && gbfieldtype != Type.INT_TYPE) ? new HashMap<Field, Integer>() : null;
+        this.fieldKeys = (fieldGroups != null) ? new ArrayList<Field>() : null;
     }
-    
+
     /**
      * Get the updated value based on the operation type
-     * @param oldValue the old value stored in the Map object
+     * @param oldValue the old value stored for the group
      * @param fieldValue the integer value of the field
-     * @param what the type of operator, only supports MIN, MAX, SUM, and COUNT
-     * @return the updated value to be stored in the Map object
+     * @param what the type of operator, only supports MIN, MAX and SUM
+     * @return the updated value to be stored for the group
      */
     private static int getUpdatedValue(int oldValue, int fieldValue, Op what) {
         if (what == Op.MIN) {
@@ -61,13 +74,70 @@ public class IntegerAggregator implements Aggregator {
             return (fieldValue > oldValue) ? fieldValue : oldValue;
         } else if (what == Op.SUM) {
             return oldValue + fieldValue;
-        } else if (what == Op.COUNT) {
-            return oldValue + 1;
         } else {
             throw new IllegalArgumentException("Unsupported operator");
         }
     }
 
+    /**
+     * @return the operator combining the values of a group: the sum of the
+     *         values for the operators returning a count or an average
+     */
+    private Op combine() {
+        return (what == Op.MIN || what == Op.MAX) ? what : Op.SUM;
+    }
+
+    /**
+     * @return the number of a new group
+     */
+    private int newGroup() {
+        if (groupCount == values.length) {
+            final int capacity = groupCount * 2;
+            intKeys = Arrays.copyOf(intKeys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        return groupCount++;
+    }
+
+    /**
+     * @return the number of the group of an INT_TYPE key, created if needed
+     */
+    private int intGroup(int key) {
+        final int group = intGroups.putIfAbsent(key, groupCount);
+        if (group != IntHashMap.MISSING) {
+            return group;
+        }
+        final int newGroup = newGroup();
+        intKeys[newGroup] = key;
+        return newGroup;
+    }
+
+    /**
+     * @return the number of the group of a key, created if needed
+     */
+    private int fieldGroup(Field key) {
+        final Integer group = fieldGroups.get(key);
+        if (group != null) {
+            return group;
+        }
+        fieldGroups.put(key, groupCount);
+        fieldKeys.add(key);
+        return newGroup();
+    }
+
+    /**
+     * @return the number of the group of a row (an index in the columns of batch)
+     */
+    private int group(ColumnBatch batch, int row) {
+        if (intGroups != null) {
+            return intGroup(batch.getIntColumn(gbfield)[row]);
+        } else if (fieldGroups != null) {
+            return fieldGroup(batch.getField(gbfield, row));
+        }
+        return groupCount == 0 ? newGroup() : 0;
+    }
+
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
@@ -81,47 +151,82 @@ public class IntegerAggregator implements Aggregator {
             td = tup.getTupleDesc();
         }
         
-        final IntField aggField = (IntField)tup.getField(afield);
-        final int aggValue = aggField.getValue();
-        Field groupingField;
-        if (gbfield == Aggregator.NO_GROUPING) {
-            groupingField = new StringField("ALL", 3);
+        final int aggValue = ((IntField) tup.getField(afield)).getValue();
+        final int group;
+        if (intGroups != null) {
+            group = intGroup(((IntField) tup.getField(gbfield)).getValue());
+        } else if (fieldGroups != null) {
+            group = fieldGroup(tup.getField(gbfield));
         } else {
-            groupingField = tup.getField(gbfield);
+            group = groupCount == 0 ? newGroup() : 0;
         }
-        
-        if (results.containsKey(groupingField)) {
-            // Update the key-value
-            if (what == Op.AVG) {
-                final Map<Field, Integer> countMap = count_sum.get(0);
-                final Map<Field, Integer> sumMap = count_sum.get(1);
-                final int newCount = getUpdatedValue(countMap.get(groupingField), aggValue, Op.COUNT);
-                final int newSum = getUpdatedValue(sumMap.get(groupingField), aggValue, Op.SUM);
-                results.put(groupingField, newSum/newCount);
-                countMap.put(groupingField, newCount);
-                sumMap.put(groupingField, newSum);
-            } else if (what == Op.MAX || what == Op.MIN || what == Op.SUM || what == Op.COUNT) {
-                final int newValue = getUpdatedValue(results.get(groupingField), aggValue, what);
-                results.put(groupingField, newValue);
-            } else {
-                throw new IllegalArgumentException("Unsupported operator");
+
+        if (what == Op.SC_AVG) {
+            mergePartial(group, ((IntField) tup.getField(afield + 1)).getValue(), aggValue);
+        } else {
+            mergePartial(group, 1, aggValue);
+        }
+    }
+
+
+    /**
+     * Merges the selected rows of a batch into the aggregate. Without
+     * grouping, the values of the batch are first combined in a primitive
+     * int, so the group is only updated once per batch.
+     *
+     * @param batch
+     *            rows containing an aggregate field and a group-by field
+     */
+    public void mergeBatchIntoGroup(ColumnBatch batch) {
+        if (td == null) {
+            td = batch.getTupleDesc();
+        }
+        if (batch.size() == 0) {
+            return;
+        }
+        final int[] aggValues = batch.getIntColumn(afield);
+        if (what == Op.SC_AVG) {
+            // (sum, count) partial states, the count in the next column
+            final int[] aggCounts = batch.getIntColumn(afield + 1);
+            for (int i = 0; i < batch.size(); i++) {
+                final int row = batch.row(i);
+                mergePartial(group(batch, row), aggCounts[row], aggValues[row]);
+            }
+            return;
+        }
+        if (gbfield == Aggregator.NO_GROUPING) {
+            final Op combine = combine();
+            int value = aggValues[batch.row(0)];
+            for (int i = 1; i < batch.size(); i++) {
+                value = getUpdatedValue(value, aggValues[batch.row(i)], combine);
             }
+            mergePartial(group(batch, batch.row(0)), batch.size(), value);
         } else {
-            // Create the key-value
-            if (what == Op.AVG) {
-                results.put(groupingField, aggValue);
-                count_sum.get(0).put(groupingField, 1);
-                count_sum.get(1).put(groupingField, aggValue);
-            } else if (what == Op.MAX || what == Op.MIN || what == Op.SUM) {
-                results.put(groupingField, aggValue);
-            } else if (what == Op.COUNT) {
-                results.put(groupingField, 1);
-            } else {
-                throw new IllegalArgumentException("Unsupported operator");
+            for (int i = 0; i < batch.size(); i++) {
+                final int row = batch.row(i);
+                mergePartial(group(batch, row), 1, aggValues[row]);
             }
         }
     }
 
+    /**
+     * Merges count values of a group, combined into value (their sum for
+     * COUNT, AVG, SUM_COUNT and SC_AVG)
+     */
+    private void mergePartial(int group, int count, int value) {
+        values[group] = (counts[group] == 0) ? value : getUpdatedValue(values[group], value, combine());
+        counts[group] += count;
+    }
+
+    /**
+     * Sets the TupleDesc of the merged tuples, so that the results can be
+     * described even if no tuple is merged
+     */
+    void setTupleDesc(TupleDesc td) {
+        if (this.td == null) {
+            this.td = td;
+        }
+    }
 
     /**
      * Create a OpIterator over group aggregate results.
@@ -129,34 +234,35 @@ public class IntegerAggregator implements Aggregator {
      * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
      *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
+     *         the constructor. SUM_COUNT adds the count after the sum.
      */
     public OpIterator iterator() {
         // Make the TupleDesc
-        final String aggName = td.getFieldName(afield);
-        TupleDesc tupleDesc;
-        if (gbfield != Aggregator.NO_GROUPING){
-            final String groupName = td.getFieldName(gbfield);
-            tupleDesc = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE},
-                    new String[]{groupName, what.toString() + "(" + aggName + ")"});
-        } else {
-            tupleDesc = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{what.toString() + "(" + aggName + ")"});
-        }
-        
+        final TupleDesc tupleDesc = Aggregate.aggregateTupleDesc(td, afield, gbfield, what);
+        final int first = (gbfield != Aggregator.NO_GROUPING) ? 1 : 0;
+
         // Get the List of Tuples
         final List<Tuple> tuples = new ArrayList<>();
-        for (final Field key : results.keySet()) {
-            final int value = results.get(key);
-            if (gbfield != Aggregator.NO_GROUPING){
-                final Tuple tuple = new Tuple(tupleDesc);
-                tuple.setField(0, key);
-                tuple.setField(1, new IntField(value));
-                tuples.add(tuple);
+        for (int group = 0; group < groupCount; group++) {
+            final Tuple tuple = new Tuple(tupleDesc);
+            if (intGroups != null) {
+                tuple.setField(0, new IntField(intKeys[group]));
+            } else if (fieldGroups != null) {
+                tuple.setField(0, fieldKeys.get(group));
+            }
+            final int result;
+            if (what == Op.COUNT) {
+                result = counts[group];
+            } else if (what == Op.AVG || what == Op.SC_AVG) {
+                result = values[group] / counts[group];
             } else {
-                final Tuple tuple = new Tuple(tupleDesc);
-                tuple.setField(0, new IntField(value));
-                tuples.add(tuple);
+                result = values[group];
+            }
+            tuple.setField(first, new IntField(result));
+            if (what == Op.SUM_COUNT) {
+                tuple.setField(first + 1, new IntField(counts[group]));
             }
+            tuples.add(tuple);
         }
         
         return new TupleIterator(tupleDesc, tuples);
@@ -105,6 +105,7 @@ public class Join extends Operator {
         while (currentTuple1 != null) {
             if (!child2.hasNext()){
                 if (child1.hasNext()){
+                    QueryContext.checkCurrent(); // a pass over child2 can be long, e.g. a cross product
                     child2.rewind();
                     currentTuple1 = child1.next();
                 } else {
@@ -34,6 +34,9 @@ public class JoinOptimizer {
      * inner/outer here -- because OpIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * Equality joins are run by a HashEquiJoin, the other joins by a
+     * BlockNestedLoopJoin.
      * 
      * @param lj
      *            The join being considered
@@ -68,7 +71,11 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (lj.p == Predicate.Op.EQUALS) {
+            j = new HashEquiJoin(p, plan1, plan2);
+        } else {
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
+        }
 
         return j;
 
@@ -240,6 +247,9 @@ public class JoinOptimizer {
                 pc.addPlan(subset, bestCC.cost, bestCC.card, bestCC.plan);
             }
         }
+        if (joins.isEmpty()) {
+            return joins; // nothing to order, and no plan cached for the empty set
+        }
         joins = pc.getOrder(new HashSet<LogicalJoinNode>(joins));
         return joins;
     }
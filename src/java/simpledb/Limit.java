@@ -0,0 +1,67 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Returns the first tuples of its child only. Once they have been returned,
+ * the child is not read anymore, so a child reading remote nodes can be
+ * closed early.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final long limit;
+    private long returned = 0;
+
+    /**
+     * @param limit the maximum number of tuples returned
+     * @param child the tuples to limit
+     */
+    public Limit(long limit, OpIterator child) {
+        this.limit = limit;
+        this.child = child;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        returned = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = 0;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (returned >= limit || !child.hasNext()) {
+            return null;
+        }
+        returned++;
+        return child.next();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+}
@@ -22,6 +22,9 @@ import java.util.NoSuchElementException;
  * best implementations for joins.
  */
 public class LogicalPlan {
+    /** The largest selectivity of a filter read through an index */
+    private static final double INDEX_SELECTIVITY = 0.1;
+
     private Vector<LogicalJoinNode> joins;
     private Vector<LogicalScanNode> tables;
     private Vector<LogicalFilterNode> filters;
@@ -334,11 +337,23 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+
+            // the first filter on an indexed field reads the matching tuples
+            // through the index rather than the whole table, if they are few
+            // enough for the page reads of the index lookups to be cheaper;
+            // the filter stays on top, for the estimates of the plan
+            if (subplan instanceof SeqScan) {
+                BTreeFile index = Database.getCatalog().getIndex(this.getTableId(lf.tableAlias), p.getField());
+                boolean range = lf.p != Predicate.Op.NOT_EQUALS && lf.p != Predicate.Op.LIKE;
+                if (index != null && range && (lf.p == Predicate.Op.EQUALS || sel <= INDEX_SELECTIVITY)) {
+                    subplan = new IndexScan(t, index, lf.p, f, lf.tableAlias);
+                }
+            }
+            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -0,0 +1,158 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * LRU-K eviction: the victim is the page whose K-th most recent access is the oldest. Pages
+ * accessed fewer than K times count as infinitely old and are evicted first (least recently used
+ * first), so pages touched once by a large scan leave before pages that are used repeatedly.
+ * <p>
+ * A hit is O(1): it only records the access in the history of the page. The pages wait in a heap
+ * under the K-th access they had when they were queued, which can only be older than their current
+ * one, so evict pops the heap and queues again, under its current K-th access, every page accessed
+ * since it was queued: the first page popped that was not accessed since is the victim.
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+
+    private final int k;
+    private final Map<PageId, History> histories = new HashMap<>();
+    // a single entry per tracked page, plus the entries of the pages removed since, dropped when popped
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private long clock = 0;
+
+    /**
+     * @param k the number of accesses remembered for each page
+     */
+    public LruKEvictionPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("K must be at least 1");
+        }
+        this.k = k;
+    }
+
+    @Override
+    public synchronized void pageAdded(PageId pid) {
+        if (histories.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        final History history = new History(pid, k);
+        history.record(++clock);
+        histories.put(pid, history);
+        queue.add(new Entry(history));
+        if (queue.size() > 2 * histories.size() + 16) {
+            // too many pages were removed without being popped
+            queue.clear();
+            for (History h : histories.values()) {
+                queue.add(new Entry(h));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void pageAccessed(PageId pid) {
+        final History history = histories.get(pid);
+        if (history != null) {
+            history.record(++clock);
+        }
+    }
+
+    @Override
+    public synchronized void pageRemoved(PageId pid) {
+        histories.remove(pid);
+    }
+
+    @Override
+    public synchronized PageId evict(Evictable evictable) {
+        final List<Entry> skipped = new ArrayList<>();
+        PageId victim = null;
+        Entry entry;
+        while (victim == null && (entry = queue.poll()) != null) {
+            final History history = entry.history;
+            if (histories.get(history.pid) != history) {
+                continue; // removed
+            }
+            if (entry.version != history.version) {
+                queue.add(new Entry(history)); // accessed since it was queued
+            } else if (evictable.canEvict(history.pid)) {
+                histories.remove(history.pid);
+                victim = history.pid;
+            } else {
+                skipped.add(entry);
+            }
+        }
+        queue.addAll(skipped);
+        return victim;
+    }
+
+    @Override
+    public synchronized int size() {
+        return histories.size();
+    }
+
+    @Override
+    public synchronized boolean contains(PageId pid) {
+        return histories.containsKey(pid);
+    }
+
+    /**
+     * The last K access times of a page
+     */
+    private static class History {
+        final PageId pid;
+        final long[] times; // circular, times[next] is the oldest
+        int next = 0;
+        int count = 0;
+        int version = 0; // the number of accesses recorded
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.times = new long[k];
+        }
+
+        void record(long time) {
+            times[next] = time;
+            next = (next + 1) % times.length;
+            count = Math.min(count + 1, times.length);
+            version++;
+        }
+
+        long kthAccess() {
+            return count < times.length ? 0 : times[next];
+        }
+
+        long lastAccess() {
+            return times[(next + times.length - 1) % times.length];
+        }
+    }
+
+    /**
+     * A page in the queue, ordered by its K-th access, then by its last access, when it was queued
+     */
+    private static class Entry implements Comparable<Entry> {
+        final History history;
+        final int version;
+        final long kthAccess;
+        final long lastAccess;
+
+        Entry(History history) {
+            this.history = history;
+            this.version = history.version;
+            this.kthAccess = history.kthAccess();
+            this.lastAccess = history.lastAccess();
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            int c = Long.compare(kthAccess, o.kthAccess);
+            if (c == 0) {
+                c = Long.compare(lastAccess, o.lastAccess);
+            }
+            return c;
+        }
+    }
+}
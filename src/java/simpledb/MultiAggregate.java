@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Computes several aggregates, grouped by the same column, in a single pass
+ * over its child: every batch read from the child is merged into one
+ * aggregator per aggregate. Each result tuple holds the group by field if
+ * any, then the columns of every aggregate in order (two columns, the sum
+ * then the count, for SUM_COUNT).
+ */
+public class MultiAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int[] afields;
+    private final Aggregator.Op[] aops;
+    private final int gfield;
+    private final TupleDesc td;
+    private transient List<Tuple> results = null;
+    private transient Iterator<Tuple> resultIterator = null;
+
+    /**
+     * @param child the OpIterator feeding the tuples
+     * @param afields the column of each aggregate
+     * @param aops the operator of each aggregate
+     * @param gfield the column over which the tuples are grouped, or
+     *               Aggregator.NO_GROUPING
+     */
+    public MultiAggregate(OpIterator child, int[] afields, Aggregator.Op[] aops, int gfield) {
+        if (afields.length != aops.length || afields.length == 0) {
+            throw new IllegalArgumentException("Expected one operator per aggregate column");
+        }
+        this.child = child;
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.gfield = gfield;
+        this.td = makeTupleDesc(child.getTupleDesc());
+    }
+
+    private TupleDesc makeTupleDesc(TupleDesc childTd) {
+        TupleDesc result = null;
+        if (gfield != Aggregator.NO_GROUPING) {
+            result = new TupleDesc(new Type[]{childTd.getFieldType(gfield)},
+                    new String[]{childTd.getFieldName(gfield)});
+        }
+        for (int i = 0; i < afields.length; i++) {
+            final TupleDesc aggTd = Aggregate.aggregateTupleDesc(childTd, afields[i], Aggregator.NO_GROUPING, aops[i]);
+            result = (result == null) ? aggTd : TupleDesc.merge(result, aggTd);
+        }
+        return result;
+    }
+
+    private Aggregator makeAggregator(TupleDesc childTd, int i) {
+        final Type gtype = (gfield == Aggregator.NO_GROUPING) ? null : childTd.getFieldType(gfield);
+        if (childTd.getFieldType(afields[i]) == Type.INT_TYPE) {
+            final IntegerAggregator aggregator = new IntegerAggregator(gfield, gtype, afields[i], aops[i]);
+            aggregator.setTupleDesc(childTd);
+            return aggregator;
+        }
+        return new StringAggregator(gfield, gtype, afields[i], aops[i]);
+    }
+
+    /**
+     * Reads the child once, then joins the results of the aggregators on
+     * their group
+     */
+    private void aggregateAll() throws DbException, TransactionAbortedException {
+        final TupleDesc childTd = child.getTupleDesc();
+        final Aggregator[] aggregators = new Aggregator[afields.length];
+        for (int i = 0; i < aggregators.length; i++) {
+            aggregators[i] = makeAggregator(childTd, i);
+        }
+        child.open();
+        final BatchIterator batches = TupleBatchAdapter.of(child);
+        ColumnBatch batch;
+        while ((batch = batches.nextBatch()) != null) {
+            for (Aggregator aggregator : aggregators) {
+                aggregator.mergeBatchIntoGroup(batch);
+            }
+        }
+        child.close();
+
+        final Field all = new StringField("ALL", 3);
+        final Map<Field, Tuple> groups = new LinkedHashMap<>();
+        int column = (gfield == Aggregator.NO_GROUPING) ? 0 : 1;
+        for (int i = 0; i < aggregators.length; i++) {
+            final int width = (aops[i] == Aggregator.Op.SUM_COUNT) ? 2 : 1;
+            final OpIterator it = aggregators[i].iterator();
+            it.open();
+            while (it.hasNext()) {
+                final Tuple t = it.next();
+                final Field group = (gfield == Aggregator.NO_GROUPING) ? all : t.getField(0);
+                Tuple row = groups.get(group);
+                if (row == null) {
+                    row = new Tuple(td);
+                    if (gfield != Aggregator.NO_GROUPING) {
+                        row.setField(0, group);
+                    }
+                    groups.put(group, row);
+                }
+                for (int j = 0; j < width; j++) {
+                    row.setField(column + j, t.getField(t.getTupleDesc().numFields() - width + j));
+                }
+            }
+            it.close();
+            column += width;
+        }
+        results = new ArrayList<>(groups.values());
+    }
+
+    public void open() throws NoSuchElementException, DbException, TransactionAbortedException {
+        super.open();
+        aggregateAll();
+        resultIterator = results.iterator();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return resultIterator.hasNext() ? resultIterator.next() : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        resultIterator = results.iterator();
+    }
+
+    public void close() {
+        super.close();
+        results = null;
+        resultIterator = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+}
@@ -4,17 +4,39 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * It is an external merge sort working within a memory budget: the child is
+ * read in runs of as many tuples as fit in the budget, every run is sorted
+ * and, unless the whole input fits in one run, written to a temporary
+ * HeapFile (see {@link SpillBuffer}). The runs are then merged with a tree
+ * of losers, in several passes if there are more runs than pages in the
+ * budget. Sorting on an INT_TYPE field compares primitive keys: a run is
+ * sorted as an array of longs packing the key and the position of the
+ * tuple, and the merge compares the int keys of the current tuples.
+ * The sort is stable.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The default memory budget, set by the property simpledb.sort.memoryBytes */
+    public static final long DEFAULT_MEMORY_BYTES =
+            Long.getLong("simpledb.sort.memoryBytes", SpillBuffer.DEFAULT_MEMORY_BYTES);
+
     private OpIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
     private int orderByField;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
     private boolean asc;
+    private final long memoryBytes;
+    private final boolean intKeys; // whether the field is INT_TYPE, compared as ints
+    private final TupleComparator comparator;
+
+    // the sorted input, either in memory or as runs on disk
+    private Tuple[] sorted = null;
+    private int position = 0;
+    private List<SpillBuffer> runs = null;
+    private LoserTree merge = null;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,11 +49,30 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting within a given memory budget.
+     * 
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryBytes
+     *            the size of the tuples sorted in memory at once.
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, long memoryBytes) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.memoryBytes = memoryBytes;
+        this.intKeys = td.getFieldType(orderbyField) == Type.INT_TYPE;
+        this.comparator = new TupleComparator(orderbyField, asc);
     }
     
     public boolean isASC()
@@ -56,21 +97,56 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        final int runSize = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, memoryBytes / td.getSize()));
+        List<Tuple> run = new ArrayList<Tuple>();
+        while (child.hasNext()) {
+            if (run.size() == runSize) {
+                if (runs == null) {
+                    runs = new ArrayList<SpillBuffer>();
+                }
+                runs.add(writeRun(sortRun(run)));
+                run = new ArrayList<Tuple>();
+            }
+            run.add(child.next());
+        }
+        if (runs == null) {
+            sorted = sortRun(run); // everything fits in memory
+        } else {
+            if (!run.isEmpty()) {
+                runs.add(writeRun(sortRun(run)));
+            }
+            final int fanIn = Math.max(2, (int) Math.min(Integer.MAX_VALUE, memoryBytes / BufferPool.getPageSize()));
+            while (runs.size() > fanIn) {
+                runs = mergePass(runs, fanIn);
+            }
+            merge = new LoserTree(runs);
+        }
+        position = 0;
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        sorted = null;
+        if (merge != null) {
+            merge.close();
+            merge = null;
+        }
+        if (runs != null) {
+            for (SpillBuffer r : runs) {
+                r.close();
+            }
+            runs = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        position = 0;
+        if (merge != null) {
+            merge.close();
+            merge = new LoserTree(runs);
+        }
     }
 
     /**
@@ -82,10 +158,182 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
-            return null;
+        if (merge != null) {
+            return merge.next();
+        }
+        if (sorted != null && position < sorted.length) {
+            return sorted[position++];
+        }
+        return null;
+    }
+
+    /**
+     * @return the key of an INT_TYPE field, mapped so that the keys of the
+     *         tuples coming first are the smallest
+     */
+    private int key(Tuple t) {
+        final int value = ((IntField) t.getField(orderByField)).getValue();
+        return asc ? value : ~value; // ~value = -value - 1 reverses the order without overflow
+    }
+
+    /**
+     * @return the tuples of run in order
+     */
+    private Tuple[] sortRun(List<Tuple> run) {
+        final Tuple[] tuples = run.toArray(new Tuple[run.size()]);
+        if (!intKeys) {
+            Arrays.sort(tuples, comparator); // stable
+            return tuples;
+        }
+        // the key in the high bits, the position in the low bits: sorting
+        // the longs sorts by key, and by position between equal keys
+        final long[] packed = new long[tuples.length];
+        for (int i = 0; i < tuples.length; i++) {
+            packed[i] = ((long) key(tuples[i]) << 32) | i;
+        }
+        Arrays.sort(packed);
+        final Tuple[] result = new Tuple[tuples.length];
+        for (int i = 0; i < packed.length; i++) {
+            result[i] = tuples[(int) packed[i]];
+        }
+        return result;
+    }
+
+    private SpillBuffer writeRun(Tuple[] tuples) throws DbException {
+        final SpillBuffer run = new SpillBuffer(td, 0); // spills from the start
+        for (Tuple t : tuples) {
+            run.add(t);
+        }
+        return run;
+    }
+
+    /**
+     * Merges every fanIn runs into one
+     * @return the merged runs, the given runs being closed
+     */
+    private List<SpillBuffer> mergePass(List<SpillBuffer> runs, int fanIn)
+            throws DbException, TransactionAbortedException {
+        final List<SpillBuffer> merged = new ArrayList<SpillBuffer>();
+        for (int i = 0; i < runs.size(); i += fanIn) {
+            final List<SpillBuffer> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+            final LoserTree tree = new LoserTree(group);
+            final SpillBuffer out = new SpillBuffer(td, 0);
+            for (Tuple t = tree.next(); t != null; t = tree.next()) {
+                out.add(t);
+            }
+            tree.close();
+            for (SpillBuffer r : group) {
+                r.close();
+            }
+            merged.add(out);
+        }
+        return merged;
+    }
+
+    /**
+     * Merges sorted runs with a tree of losers: every internal node holds
+     * the run that lost the match played there, and the root the run whose
+     * current tuple comes first. Once that tuple is taken, only the matches
+     * on the path from its run to the root are replayed, so a tuple costs
+     * log2(number of runs) comparisons.
+     */
+    private class LoserTree {
+        private final int k;
+        private final DbFileIterator[] inputs;
+        private final Tuple[] heads; // the current tuple of every run, null once the run is over
+        private final int[] keys; // the keys of the heads, for INT_TYPE fields
+        private final int[] tree; // tree[0] is the winner, tree[1..k-1] the losers
+
+        LoserTree(List<SpillBuffer> runs) throws DbException, TransactionAbortedException {
+            k = runs.size();
+            inputs = new DbFileIterator[k];
+            heads = new Tuple[k];
+            keys = new int[k];
+            tree = new int[Math.max(1, k)];
+            for (int i = 0; i < k; i++) {
+                inputs[i] = runs.get(i).iterator();
+                inputs[i].open();
+                advance(i);
+            }
+            if (k > 0) {
+                tree[0] = k == 1 ? 0 : build(1);
+            }
+        }
+
+        /**
+         * Plays the matches of the subtree rooted at node
+         * @return the winner of the subtree
+         */
+        private int build(int node) {
+            if (node >= k) {
+                return node - k; // a leaf
+            }
+            final int a = build(2 * node);
+            final int b = build(2 * node + 1);
+            if (before(a, b)) {
+                tree[node] = b;
+                return a;
+            }
+            tree[node] = a;
+            return b;
+        }
+
+        /**
+         * @return whether the head of run a comes before the head of run b
+         */
+        private boolean before(int a, int b) {
+            if (heads[a] == null) {
+                return false;
+            } else if (heads[b] == null) {
+                return true;
+            }
+            final int c;
+            if (intKeys) {
+                c = Integer.compare(keys[a], keys[b]);
+            } else {
+                c = comparator.compare(heads[a], heads[b]);
+            }
+            return c < 0 || (c == 0 && a < b); // earlier runs first, for a stable sort
+        }
+
+        private void advance(int run) throws DbException, TransactionAbortedException {
+            heads[run] = inputs[run].hasNext() ? inputs[run].next() : null;
+            if (heads[run] != null && intKeys) {
+                keys[run] = key(heads[run]);
+            }
+        }
+
+        /**
+         * @return the next tuple in order, null once every run is over
+         */
+        Tuple next() throws DbException, TransactionAbortedException {
+            if (k == 0) {
+                return null;
+            }
+            int winner = tree[0];
+            final Tuple result = heads[winner];
+            if (result == null) {
+                return null;
+            }
+            advance(winner);
+            for (int node = (winner + k) / 2; node > 0; node /= 2) {
+                if (before(tree[node], winner)) {
+                    final int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
+                }
+            }
+            tree[0] = winner;
+            return result;
+        }
+
+        void close() {
+            for (DbFileIterator input : inputs) {
+                if (input != null) {
+                    input.close();
+                }
+            }
+        }
     }
 
     @Override
@@ -99,25 +347,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
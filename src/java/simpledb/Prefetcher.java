@@ -0,0 +1,181 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads pages from disk in the background, ahead of the sequential scans that will need them.
+ * <p>
+ * Prefetched pages are only staged here: they enter the BufferPool when the scan asks for them
+ * through getPage, so locking and the pool capacity work exactly as for a normal read, the scan
+ * just does not wait for the disk. A staged page is dropped as soon as the BufferPool writes or
+ * discards that page, so a stale copy is never handed out. At most maxStaged pages are staged,
+ * the oldest ones are forgotten first.
+ * <p>
+ * The depth (number of pages read ahead by a scan, 0 to disable) and the number of reading
+ * threads are set with the system properties simpledb.prefetch.depth and
+ * simpledb.prefetch.threads.
+ *
+ * @Threadsafe
+ */
+public class Prefetcher {
+
+    public static final int DEFAULT_DEPTH = 4;
+    public static final int DEFAULT_THREADS = 2;
+
+    private final int depth;
+    private final int maxStaged;
+    private final ThreadPoolExecutor executor;
+    private final LinkedHashMap<PageId, Future<Page>> staged;
+
+    // Statistics
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong used = new AtomicLong();
+
+    /**
+     * @param depth the number of pages read ahead of a scan, 0 disables prefetching
+     * @param threads the number of threads reading pages
+     * @param maxStaged the number of pages that may wait to be used
+     */
+    public Prefetcher(int depth, int threads, final int maxStaged) {
+        this.depth = depth;
+        this.maxStaged = maxStaged;
+        this.staged = new LinkedHashMap<PageId, Future<Page>>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, Future<Page>> eldest) {
+                if (size() > maxStaged) {
+                    eldest.getValue().cancel(false);
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "prefetcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creates a prefetcher configured by the system properties described above
+     * @param poolPages the capacity of the BufferPool; up to half as many pages may be staged
+     */
+    public static Prefetcher fromProperties(int poolPages) {
+        return new Prefetcher(Integer.getInteger("simpledb.prefetch.depth", DEFAULT_DEPTH),
+                Integer.getInteger("simpledb.prefetch.threads", DEFAULT_THREADS),
+                Math.max(1, poolPages / 2));
+    }
+
+    /**
+     * @return the number of pages a scan should read ahead, 0 if prefetching is disabled
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Starts reading a page in the background, unless it is already being read
+     * @param pid the page to read
+     */
+    public synchronized void prefetch(final PageId pid) {
+        if (depth <= 0 || staged.containsKey(pid)) {
+            return;
+        }
+        final FutureTask<Page> task = new FutureTask<>(new Callable<Page>() {
+            @Override
+            public Page call() throws Exception {
+                return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            }
+        });
+        staged.put(pid, task);
+        try {
+            executor.execute(task);
+            issued.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            staged.remove(pid);
+        }
+    }
+
+    /**
+     * Takes a staged page, waiting for it if it is still being read
+     * @param pid the page wanted
+     * @return the page, or null if it is not staged (or could not be read)
+     */
+    public Page take(PageId pid) {
+        final Future<Page> future;
+        synchronized (this) {
+            future = staged.remove(pid);
+        }
+        if (future == null) {
+            return null;
+        }
+        try {
+            final Page page = future.get();
+            used.incrementAndGet();
+            return page;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null; // read it again in the foreground, which reports the error
+        } catch (CancellationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Forgets a staged page, because the page on disk or in the pool is changing
+     * @param pid the page
+     */
+    public synchronized void invalidate(PageId pid) {
+        final Future<Page> future = staged.remove(pid);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Forgets every staged page
+     */
+    public synchronized void clear() {
+        final Iterator<Future<Page>> it = staged.values().iterator();
+        while (it.hasNext()) {
+            it.next().cancel(false);
+            it.remove();
+        }
+    }
+
+    /**
+     * @return the number of pages read in the background
+     */
+    public long getIssuedCount() {
+        return issued.get();
+    }
+
+    /**
+     * @return the number of prefetched pages that were used by a scan
+     */
+    public long getUsedCount() {
+        return used.get();
+    }
+}
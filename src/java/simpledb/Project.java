@@ -5,12 +5,14 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private transient BatchIterator batchChild = null;
+    private transient int[] outCols = null;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -80,6 +82,24 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Returns the child batches restricted to the projected columns, which
+     * are shared with the child batch rather than copied.
+     */
+    public ColumnBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batchChild == null) {
+            batchChild = TupleBatchAdapter.of(child);
+        }
+        if (outCols == null) {
+            outCols = new int[outFieldIds.size()];
+            for (int i = 0; i < outCols.length; i++) {
+                outCols[i] = outFieldIds.get(i);
+            }
+        }
+        final ColumnBatch batch = batchChild.nextBatch();
+        return batch == null ? null : batch.project(outCols, td);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
@@ -90,6 +110,7 @@ public class Project extends Operator {
 	if (this.child!=children[0])
 	{
 	    this.child = children[0];
+	    this.batchChild = null;
 	}
     }
     
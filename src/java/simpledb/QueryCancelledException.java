@@ -0,0 +1,10 @@
+package simpledb;
+
+/** Exception thrown when a query is cancelled or runs past its deadline, see QueryContext. */
+public class QueryCancelledException extends DbException {
+    private static final long serialVersionUID = 1L;
+
+    public QueryCancelledException(String s) {
+        super(s);
+    }
+}
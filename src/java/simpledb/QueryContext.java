@@ -0,0 +1,100 @@
+package simpledb;
+
+/**
+ * The cancellation state and deadline of one query. The thread running the operators of a query
+ * attaches its context with {@link #attach}; operators that can run for a long time without returning
+ * a tuple (scans between pages, nested loop joins between outer tuples, operators reading their
+ * children in batches, exchanges receiving remote tuples) call {@link #checkCurrent}, which throws QueryCancelledException once the query has been
+ * cancelled or is past its deadline. A thread without a context is never interrupted.
+ *
+ * @Threadsafe
+ */
+public class QueryContext {
+
+    private static final ThreadLocal<QueryContext> CURRENT = new ThreadLocal<>();
+
+    private final long id;
+    private final long deadlineNanos; // Long.MAX_VALUE when the query has no deadline
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param id the id of the request running the query
+     * @param timeoutMillis the time the query may run for, 0 for no deadline
+     */
+    public QueryContext(long id, long timeoutMillis) {
+        this.id = id;
+        this.deadlineNanos = timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1000000L : Long.MAX_VALUE;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public boolean hasDeadline() {
+        return deadlineNanos != Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the milliseconds left before the deadline (at least 1 while it has not passed, so that it
+     *         can be forwarded as a timeout), 0 if it has passed or if there is no deadline
+     */
+    public long remainingMillis() {
+        if (!hasDeadline()) {
+            return 0;
+        }
+        final long remaining = deadlineNanos - System.nanoTime();
+        return remaining <= 0 ? 0 : Math.max(1, remaining / 1000000L);
+    }
+
+    /**
+     * Asks the query to stop; it fails at its next check
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @throws QueryCancelledException if the query has been cancelled or is past its deadline
+     */
+    public void check() throws QueryCancelledException {
+        if (cancelled) {
+            throw new QueryCancelledException("Query " + id + " cancelled");
+        }
+        if (hasDeadline() && System.nanoTime() - deadlineNanos > 0) {
+            throw new QueryCancelledException("Query " + id + " timed out");
+        }
+    }
+
+    /**
+     * Makes this the context of the queries run by the current thread, until detach is called
+     */
+    public void attach() {
+        CURRENT.set(this);
+    }
+
+    public static void detach() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return the context attached to the current thread, null if there is none
+     */
+    public static QueryContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Checks the context attached to the current thread, if any
+     * @throws QueryCancelledException if its query has been cancelled or is past its deadline
+     */
+    public static void checkCurrent() throws QueryCancelledException {
+        final QueryContext context = CURRENT.get();
+        if (context != null) {
+            context.check();
+        }
+    }
+}
@@ -8,8 +8,12 @@ import java.util.NoSuchElementException;
 public class SeqColScan implements OpIterator{
     private SeqScan fullScan;
     private int colNum;
+    private TupleDesc td;
     public SeqColScan(TransactionId tid, int tableid, String tableAlias, int colNum){
         this.fullScan = new SeqScan(tid, tableid, tableAlias);
+        this.colNum = colNum;
+        final TupleDesc fullTd = fullScan.getTupleDesc();
+        this.td = new TupleDesc(new Type[]{fullTd.getFieldType(colNum)}, new String[]{fullTd.getFieldName(colNum)});
     }
 
     @Override
@@ -26,8 +30,6 @@ public class SeqColScan implements OpIterator{
     public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
         Tuple nextTup = fullScan.next();
         Field relevantField = nextTup.getField(colNum);
-        Type[] type = {nextTup.getTupleDesc().getFieldType(colNum)};
-        TupleDesc td = new TupleDesc(type);
         Tuple colTup = new Tuple(td);
         colTup.setField(0, relevantField);
         return colTup;
@@ -40,7 +42,7 @@ public class SeqColScan implements OpIterator{
 
     @Override
     public TupleDesc getTupleDesc() {
-        return fullScan.getTupleDesc();
+        return td;
     }
 
     @Override
@@ -7,13 +7,14 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private final TransactionId tid;
     private int tableid;
     private String tableAlias;
     private DbFileIterator tupleIterator;
+    private transient ColumnBatch batch = null;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -113,6 +114,22 @@ public class SeqScan implements OpIterator {
         return tupleIterator.next();
     }
 
+    public ColumnBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batch == null) {
+            batch = new ColumnBatch(getTupleDesc(), ColumnBatch.DEFAULT_SIZE);
+        }
+        batch.clear();
+        if (tupleIterator instanceof HeapFile.HeapFileIterator) {
+            // decoded from the pages, without a Tuple per row
+            ((HeapFile.HeapFileIterator) tupleIterator).readBatch(batch);
+        } else {
+            while (!batch.isFull() && tupleIterator.hasNext()) {
+                batch.append(tupleIterator.next());
+            }
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
     public void close() {
         tupleIterator.close();
     }
@@ -0,0 +1,289 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator implements the relational join operation by
+ * sorting its children on their join fields (with {@link OrderBy}, so
+ * within a memory budget) instead of comparing every pair of tuples.
+ * <p>
+ * For an equality predicate both children are sorted and merged: the
+ * tuples of child2 with the key of the current tuple of child1 are kept in
+ * a {@link SpillBuffer} and replayed for the next tuples of child1 with
+ * the same key. For a range predicate (&lt;, &lt;=, &gt;, &gt;=), only
+ * child2 is sorted, in the order that makes the matches of a tuple of
+ * child1 a prefix of it: each tuple of child1 reads child2 from its start
+ * up to its first tuple that does not match. Both cost the sorts plus the
+ * size of the result, where the nested loops of {@link Join} compare
+ * every pair. Other predicates (!=, LIKE) cannot use the order and are
+ * joined by nested loops over child2.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default memory budget of each sort, set by the property simpledb.join.memoryBytes */
+    public static final long DEFAULT_MEMORY_BYTES = HashEquiJoin.DEFAULT_MEMORY_BYTES;
+
+    private final JoinPredicate p;
+    private OpIterator child1;
+    private OpIterator child2;
+    private final long memoryBytes;
+    private TupleDesc comboTD;
+    // the children as they are read, sorted if the predicate can use it
+    private OpIterator outer;
+    private OpIterator inner;
+
+    // equality: the next tuple of inner not in the group yet, and the group
+    // of the tuples of inner with the key groupKey
+    private transient Tuple nextInner = null;
+    private transient SpillBuffer group = null;
+    private transient DbFileIterator groupIt = null;
+    private transient Field groupKey = null;
+    // the current tuple of outer, whose matches are being returned
+    private transient Tuple currentTuple1 = null;
+    private transient boolean innerStarted = false;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Constructor for a join with a given memory budget
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param memoryBytes
+     *            The size of the tuples each sort keeps in memory, and of the
+     *            tuples of child2 with the same key kept in memory
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2, long memoryBytes) {
+        this.p = p;
+        this.memoryBytes = memoryBytes;
+        setChildren(new OpIterator[]{child1, child2});
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /**
+     * @return whether the matches of a tuple of child1 are a prefix of the
+     *         sorted child2
+     */
+    private boolean isRange() {
+        switch (p.getOperator()) {
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        outer.open();
+        inner.open();
+        currentTuple1 = null;
+        innerStarted = false;
+        if (p.getOperator() == Predicate.Op.EQUALS) {
+            group = new SpillBuffer(child2.getTupleDesc(), memoryBytes);
+            groupIt = group.iterator();
+            groupKey = null;
+            nextInner = inner.hasNext() ? inner.next() : null;
+        }
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        outer.close();
+        inner.close();
+        closeGroup();
+        currentTuple1 = null;
+    }
+
+    private void closeGroup() {
+        if (group != null) {
+            groupIt.close();
+            group.close();
+            group = null;
+            groupIt = null;
+        }
+        groupKey = null;
+        nextInner = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        outer.rewind();
+        inner.rewind();
+        currentTuple1 = null;
+        innerStarted = false;
+        if (group != null) {
+            groupIt.close();
+            group.close();
+            groupKey = null;
+            nextInner = inner.hasNext() ? inner.next() : null;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Logically, this is the next tuple in r1 cross r2 that
+     * satisfies the join predicate. The tuples of an equality join come in
+     * the order of the join field, the tuples of a range join in the order
+     * of child1.
+     * <p>
+     * Note that the tuples returned are simply the concatenation of joining
+     * tuples from the left and right relation, as for {@link Join}.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (p.getOperator() == Predicate.Op.EQUALS) {
+            return fetchNextEqual();
+        }
+        final boolean range = isRange();
+        while (true) {
+            if (currentTuple1 == null) {
+                if (!outer.hasNext()) {
+                    return null;
+                }
+                currentTuple1 = outer.next();
+                if (innerStarted) {
+                    QueryContext.checkCurrent(); // a pass over child2 can be long, e.g. a cross product
+                    inner.rewind();
+                }
+                innerStarted = true;
+            }
+            while (inner.hasNext()) {
+                final Tuple t2 = inner.next();
+                if (p.filter(currentTuple1, t2)) {
+                    return Tuple.merge(currentTuple1, t2);
+                }
+                if (range) {
+                    break; // the rest of child2 does not match either
+                }
+            }
+            currentTuple1 = null;
+        }
+    }
+
+    /**
+     * The merge of an equality join: returns the next tuple of the group
+     * matching the current tuple of child1, moving to the next tuple of
+     * child1 (and to its group, if its key changed) once they are all
+     * returned.
+     */
+    private Tuple fetchNextEqual() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (currentTuple1 != null && groupIt.hasNext()) {
+                return Tuple.merge(currentTuple1, groupIt.next());
+            }
+            if (!outer.hasNext()) {
+                currentTuple1 = null;
+                return null;
+            }
+            currentTuple1 = outer.next();
+            final Field key = currentTuple1.getField(p.getField1());
+            if (groupKey == null || !key.compare(Predicate.Op.EQUALS, groupKey)) {
+                loadGroup(key);
+            }
+            groupIt.rewind();
+        }
+    }
+
+    /**
+     * Replaces the group by the tuples of child2 with a key, skipping the
+     * tuples of child2 with a smaller key
+     */
+    private void loadGroup(Field key) throws TransactionAbortedException, DbException {
+        groupIt.close();
+        group.close();
+        groupKey = key;
+        final int field2 = p.getField2();
+        while (nextInner != null && key.compare(Predicate.Op.GREATER_THAN, nextInner.getField(field2))) {
+            nextInner = inner.hasNext() ? inner.next() : null;
+        }
+        while (nextInner != null && key.compare(Predicate.Op.EQUALS, nextInner.getField(field2))) {
+            group.add(nextInner);
+            nextInner = inner.hasNext() ? inner.next() : null;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        assert children.length == 2 : "Incorrent length of OpIterator[]!";
+        child1 = children[0];
+        child2 = children[1];
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        switch (p.getOperator()) {
+            case EQUALS:
+                outer = new OrderBy(p.getField1(), true, child1, memoryBytes);
+                inner = new OrderBy(p.getField2(), true, child2, memoryBytes);
+                break;
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                // the tuples of child2 below the key of child1 come first
+                outer = child1;
+                inner = new OrderBy(p.getField2(), true, child2, memoryBytes);
+                break;
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                // the tuples of child2 above the key of child1 come first
+                outer = child1;
+                inner = new OrderBy(p.getField2(), false, child2, memoryBytes);
+                break;
+            default:
+                outer = child1;
+                inner = child2;
+        }
+    }
+
+}
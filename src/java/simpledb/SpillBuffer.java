@@ -0,0 +1,215 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An append-only list of tuples that can be read again any number of times,
+ * for operators that have to replay an input which is costly to produce
+ * again. Tuples are kept in memory up to a budget, then the buffer spills
+ * to a temporary HeapFile: every tuple kept so far is written to it, and
+ * the later tuples are added to it a page at a time. The temporary file is
+ * read directly, without the BufferPool, since nobody else uses it, and is
+ * deleted by close.
+ */
+public class SpillBuffer {
+
+    /** The default memory budget, set by the property simpledb.spill.memoryBytes */
+    public static final long DEFAULT_MEMORY_BYTES = Long.getLong("simpledb.spill.memoryBytes", 16L << 20);
+
+    private final TupleDesc td;
+    private final long maxInMemory;
+    private final List<Tuple> memory = new ArrayList<Tuple>();
+    private int size = 0;
+
+    // set once spilled
+    private HeapFile file = null;
+    private HeapPage page = null; // the page being filled, not written yet
+    private boolean pageFlushed = false; // whether page was written since its last tuple
+    private int numPages = 0; // the number of full pages written
+    private long pageWrites = 0;
+
+    public SpillBuffer(TupleDesc td) {
+        this(td, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * @param td the schema of the tuples
+     * @param memoryBytes the size of the tuples kept in memory before spilling
+     */
+    public SpillBuffer(TupleDesc td, long memoryBytes) {
+        this.td = td;
+        this.maxInMemory = Math.max(1, memoryBytes / td.getSize());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples added
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of pages written to the temporary file, partial
+     *         pages included
+     */
+    public long getPageWrites() {
+        return pageWrites;
+    }
+
+    /**
+     * @return whether the tuples have been written to a temporary file
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Adds a tuple at the end of the buffer. The tuple itself is kept, or
+     * copied if the buffer spills, so it must not be modified afterwards.
+     */
+    public void add(Tuple t) throws DbException {
+        size++;
+        if (file == null) {
+            memory.add(t);
+            if (memory.size() > maxInMemory) {
+                spill();
+            }
+            return;
+        }
+        write(t);
+    }
+
+    /**
+     * @return an iterator over the tuples of the buffer in the order they
+     *         were added, which can be rewound. It sees the tuples added
+     *         before it is opened (or rewound).
+     */
+    public DbFileIterator iterator() {
+        return new SpillBufferIterator();
+    }
+
+    /**
+     * Removes all the tuples and deletes the temporary file, if any. The
+     * buffer can be used again afterwards.
+     */
+    public void close() {
+        memory.clear();
+        size = 0;
+        if (file != null) {
+            file.close();
+            if (!file.getFile().delete()) {
+                file.getFile().deleteOnExit();
+            }
+            file = null;
+            page = null;
+            pageFlushed = false;
+            numPages = 0;
+        }
+    }
+
+    private void spill() throws DbException {
+        try {
+            final File f = File.createTempFile("simpledb-spill", ".dat");
+            f.deleteOnExit();
+            file = new HeapFile(f, td);
+        } catch (IOException e) {
+            throw new DbException("Cannot create a temporary file: " + e.getMessage());
+        }
+        for (Tuple t : memory) {
+            write(t);
+        }
+        memory.clear();
+    }
+
+    private void write(Tuple t) throws DbException {
+        try {
+            if (page == null) {
+                page = new HeapPage(new HeapPageId(file.getId(), numPages), HeapPage.createEmptyPageData(), td);
+            }
+            // the page sets the record id of the tuples it holds, so it gets its own copy
+            final Tuple copy = new Tuple(td);
+            for (int i = 0; i < td.numFields(); i++) {
+                copy.setField(i, t.getField(i));
+            }
+            page.insertTuple(copy);
+            pageFlushed = false;
+            if (page.getNumEmptySlots() == 0) {
+                file.writePage(page);
+                pageWrites++;
+                page = null;
+                numPages++;
+            }
+        } catch (IOException e) {
+            throw new DbException("Cannot write to the temporary file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the page being filled, so that it can be read from the file;
+     * it is written again once full. Nothing is written if no tuple was
+     * added since the last flush, so replaying the buffer many times (as
+     * SortMergeJoin does with a group) does not rewrite the page each time.
+     */
+    private void flush() throws DbException {
+        if (page != null && !pageFlushed) {
+            try {
+                file.writePage(page);
+                pageWrites++;
+                pageFlushed = true;
+            } catch (IOException e) {
+                throw new DbException("Cannot write to the temporary file: " + e.getMessage());
+            }
+        }
+    }
+
+    private class SpillBufferIterator extends AbstractDbFileIterator {
+        private int end = -1; // the number of tuples seen by this pass
+        private int position;
+        private int pageNo;
+        private Iterator<Tuple> pageTuples;
+
+        public void open() throws DbException {
+            end = size;
+            position = 0;
+            pageNo = 0;
+            pageTuples = null;
+            if (file != null) {
+                flush();
+            }
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            end = -1;
+            pageTuples = null;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException {
+            if (position >= end) {
+                return null;
+            }
+            if (file == null) {
+                return memory.get(position++);
+            }
+            while (pageTuples == null || !pageTuples.hasNext()) {
+                pageTuples = ((HeapPage) file.readPage(new HeapPageId(file.getId(), pageNo++))).iterator();
+            }
+            position++;
+            return pageTuples.next();
+        }
+    }
+}
@@ -65,6 +65,27 @@ public class StringAggregator implements Aggregator {
         }
     }
 
+    /**
+     * Merges the selected rows of a batch into the aggregate, counting them
+     * without building their tuples
+     * @param batch rows containing an aggregate field and a group-by field
+     */
+    public void mergeBatchIntoGroup(ColumnBatch batch) {
+        if (td == null) {
+            td = batch.getTupleDesc();
+        }
+        if (batch.size() == 0) {
+            return;
+        }
+        if (gbfield == Aggregator.NO_GROUPING) {
+            results.merge(new StringField("ALL", 3), batch.size(), Integer::sum);
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            results.merge(batch.getField(gbfield, batch.row(i)), 1, Integer::sum);
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      *
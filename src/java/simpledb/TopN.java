@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * ORDER BY followed by a LIMIT: returns the first n tuples of its child in
+ * the order of a field. Only n tuples are kept while the child is read, in a
+ * heap whose top is the last of them, so the child is read in a single pass
+ * and with O(n) memory instead of being sorted whole.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int n;
+    private final int orderByField;
+    private final boolean asc;
+    private transient ArrayList<Tuple> top = null;
+    private transient Iterator<Tuple> it = null;
+
+    /**
+     * @param n the number of tuples returned
+     * @param orderByField the field the tuples are ordered on
+     * @param asc true if the order is ascending
+     * @param child the tuples to order
+     */
+    public TopN(int n, int orderByField, boolean asc, OpIterator child) {
+        this.n = n;
+        this.orderByField = orderByField;
+        this.asc = asc;
+        this.child = child;
+    }
+
+    public int getOrderByField() {
+        return orderByField;
+    }
+
+    public boolean isASC() {
+        return asc;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        final TupleComparator order = new TupleComparator(orderByField, asc);
+        // the top of the heap is the last of the n first tuples
+        final PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(Math.max(1, n), Collections.reverseOrder(order));
+        child.open();
+        while (n > 0 && child.hasNext()) {
+            final Tuple t = child.next();
+            if (heap.size() < n) {
+                heap.add(t);
+            } else if (order.compare(t, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(t);
+            }
+        }
+        child.close();
+        top = new ArrayList<Tuple>(heap);
+        Collections.sort(top, order);
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        top = null;
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = top.iterator();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return it.hasNext() ? it.next() : null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+}
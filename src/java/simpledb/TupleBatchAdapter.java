@@ -0,0 +1,64 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Returns the tuples of an OpIterator in batches, so that operators can
+ * read any child through nextBatch.
+ */
+public class TupleBatchAdapter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final OpIterator child;
+    private transient ColumnBatch batch = null;
+
+    public TupleBatchAdapter(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return it if it implements BatchIterator, an adapter around it otherwise
+     */
+    public static BatchIterator of(OpIterator it) {
+        if (it instanceof BatchIterator) {
+            return (BatchIterator) it;
+        }
+        return new TupleBatchAdapter(it);
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            batch = new ColumnBatch(child.getTupleDesc(), ColumnBatch.DEFAULT_SIZE);
+        }
+        QueryContext.checkCurrent(); // once per batch
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.append(child.next());
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        return child.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -60,6 +60,8 @@ public class TupleDesc implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private final List<TDItem> items;
+    // offset of each field in a serialized tuple, computed on first use
+    private transient volatile int[] offsets;
 
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
@@ -178,6 +180,22 @@ public class TupleDesc implements Serializable {
         return totalSize;
     }
 
+    /**
+     * @return The offset (in bytes) of the ith field from the start of a
+     *         serialized tuple of this TupleDesc.
+     */
+    public int getFieldOffset(int i) {
+        int[] result = offsets;
+        if (result == null) {
+            result = new int[numFields()];
+            for (int j = 1; j < result.length; j++) {
+                result[j] = result[j - 1] + getFieldType(j - 1).getLen();
+            }
+            offsets = result;
+        }
+        return result[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -0,0 +1,112 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * 2Q eviction (Johnson and Shasha): new pages enter a FIFO probation queue (A1in). Pages evicted
+ * from it are remembered in a ghost queue (A1out); a page that is loaded again while remembered
+ * there has proven it is reused and goes to the main LRU queue (Am). Pages read once by a scan
+ * therefore never push the hot pages out of Am. All operations are O(1) except eviction, which may
+ * skip pages that cannot be evicted.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+
+    private final int inCapacity;
+    private final int outCapacity;
+    // iteration order of the sets is the eviction order
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<>();
+
+    /**
+     * Uses the sizes recommended by the paper: A1in holds a quarter of the pages, A1out
+     * remembers half as many pages as the pool holds
+     * @param capacity the number of pages of the BufferPool
+     */
+    public TwoQueueEvictionPolicy(int capacity) {
+        this(Math.max(1, capacity / 4), Math.max(1, capacity / 2));
+    }
+
+    public TwoQueueEvictionPolicy(int inCapacity, int outCapacity) {
+        this.inCapacity = inCapacity;
+        this.outCapacity = outCapacity;
+    }
+
+    @Override
+    public synchronized void pageAdded(PageId pid) {
+        if (am.contains(pid) || a1in.contains(pid)) {
+            pageAccessed(pid);
+        } else if (a1out.remove(pid)) {
+            am.add(pid);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    @Override
+    public synchronized void pageAccessed(PageId pid) {
+        // hits in A1in are ignored: they are usually correlated references of the same scan
+        if (am.remove(pid)) {
+            am.add(pid);
+        }
+    }
+
+    @Override
+    public synchronized void pageRemoved(PageId pid) {
+        if (!a1in.remove(pid)) {
+            am.remove(pid);
+        }
+    }
+
+    @Override
+    public synchronized PageId evict(Evictable evictable) {
+        PageId victim = null;
+        if (a1in.size() > inCapacity || am.isEmpty()) {
+            victim = evictFrom(a1in, evictable);
+            if (victim != null) {
+                remember(victim);
+                return victim;
+            }
+        }
+        victim = evictFrom(am, evictable);
+        if (victim == null) {
+            victim = evictFrom(a1in, evictable);
+            if (victim != null) {
+                remember(victim);
+            }
+        }
+        return victim;
+    }
+
+    @Override
+    public synchronized int size() {
+        return a1in.size() + am.size();
+    }
+
+    @Override
+    public synchronized boolean contains(PageId pid) {
+        return a1in.contains(pid) || am.contains(pid);
+    }
+
+    private static PageId evictFrom(LinkedHashSet<PageId> queue, Evictable evictable) {
+        final Iterator<PageId> it = queue.iterator();
+        while (it.hasNext()) {
+            final PageId pid = it.next();
+            if (evictable.canEvict(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    private void remember(PageId pid) {
+        a1out.add(pid);
+        if (a1out.size() > outCapacity) {
+            final Iterator<PageId> it = a1out.iterator();
+            it.next();
+            it.remove();
+        }
+    }
+}
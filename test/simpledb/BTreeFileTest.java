@@ -0,0 +1,242 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ,
+            Predicate.Op.NOT_EQUALS};
+
+    @After public void resetPageSize() {
+        BufferPool.resetPageSize();
+    }
+
+    private static BTreeFile createIndex(HeapFile table, int field) throws Exception {
+        File f = File.createTempFile("index", ".idx");
+        f.delete();
+        f.deleteOnExit();
+        BTreeFile index = new BTreeFile(f, table, field);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    /**
+     * The tuples whose field 0 satisfies op operand are read through the
+     * index in the order of field 0, and the entries of the index are in order
+     */
+    private static void checkIndex(BTreeFile index, ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator entries = index.iterator(tid);
+        entries.open();
+        int count = 0;
+        Tuple previous = null;
+        while (entries.hasNext()) {
+            Tuple entry = entries.next();
+            if (previous != null) {
+                assertTrue(BTreePage.compare(previous.getField(0), ((IntField) previous.getField(1)).getValue(),
+                        ((IntField) previous.getField(2)).getValue(), entry.getField(0),
+                        ((IntField) entry.getField(1)).getValue(), ((IntField) entry.getField(2)).getValue()) < 0);
+            }
+            previous = entry;
+            count++;
+        }
+        entries.close();
+        assertEquals(tuples.size(), count);
+
+        for (Predicate.Op op : OPS) {
+            for (int operand : new int[]{-1, 0, 150, 299, 300}) {
+                ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+                for (ArrayList<Integer> t : tuples) {
+                    if (new IntField(t.get(0)).compare(op, new IntField(operand))) {
+                        expected.add(t);
+                    }
+                }
+                IndexScan scan = new IndexScan(tid, index, op, new IntField(operand), "t");
+                SystemTestUtil.matchTuples(scan, expected);
+                scan.open();
+                int last = Integer.MIN_VALUE;
+                while (scan.hasNext()) {
+                    int key = ((IntField) scan.next().getField(0)).getValue();
+                    assertTrue(last <= key);
+                    last = key;
+                }
+                scan.close();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool maintain the index, over
+     * small pages so that the tree gets several levels
+     */
+    @Test public void insertDelete() throws Exception {
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(500);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        BTreeFile index = createIndex(table, 0);
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(7);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3000; i++) {
+            int key = r.nextInt(300);
+            Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[]{key, i}));
+            tuples.add(new ArrayList<Integer>(Arrays.asList(key, i)));
+            if (i % 100 == 99) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(index.numPages() > 1 + 3000 / BTreePage.leafCapacity(Type.INT_TYPE));
+        checkIndex(index, tuples);
+
+        // delete the tuples with an even field 1
+        tid = new TransactionId();
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(1)).getValue() % 2 == 0) {
+                deleted.add(t);
+            }
+        }
+        scan.close();
+        for (Tuple t : deleted) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) % 2 != 0) {
+                remaining.add(t);
+            }
+        }
+        checkIndex(index, remaining);
+    }
+
+    /**
+     * An aborted insert leaves the index as it was
+     */
+    @Test public void abort() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 500, 300, null, tuples);
+        BTreeFile index = createIndex(table, 0);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        for (int i = 0; i < 400; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[]{i % 300, i}));
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+        checkIndex(index, tuples);
+    }
+
+    /**
+     * A bulk built index holds an entry for every tuple of the table
+     */
+    @Test public void build() throws Exception {
+        BufferPool.setPageSize(512);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 2000, 300, null, tuples);
+        BTreeFile index = createIndex(table, 0);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        checkIndex(index, tuples);
+    }
+
+    /**
+     * A field annotated with idx in the catalog file gets an index, built
+     * from the table file
+     */
+    @Test public void loadSchema() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(11);
+        for (int i = 0; i < 1000; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(r.nextInt(300), i)));
+        }
+        File data = new File(dir, "t.dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(tuples, data, BufferPool.getPageSize(), 2);
+        File catalog = new File(dir, "catalog.txt");
+        catalog.deleteOnExit();
+        FileWriter w = new FileWriter(catalog);
+        w.write("t (a int idx, b int pk)\n");
+        w.close();
+        new File(dir, "t.a.idx").deleteOnExit();
+
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("t");
+        assertEquals("b", Database.getCatalog().getPrimaryKey(tableId));
+        assertEquals(null, Database.getCatalog().getIndex(tableId, 1));
+        BTreeFile index = Database.getCatalog().getIndex(tableId, 0);
+        assertTrue(new File(dir, "t.a.idx").equals(index.getFile()));
+        assertTrue(index.numPages() > 1);
+        checkIndex(index, tuples);
+    }
+
+    /**
+     * A selective filter on an indexed field is planned as an IndexScan
+     */
+    @Test public void plan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, tuples, "c");
+        BTreeFile index = createIndex(table, 0);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        String name = Database.getCatalog().getTableName(table.getId());
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.EQUALS, "17");
+        lp.addProjectField("t.c1", null);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        while (plan instanceof Operator) {
+            plan = ((Operator) plan).getChildren()[0];
+        }
+        assertTrue(plan instanceof IndexScan);
+
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, "100");
+        lp.addProjectField("t.c1", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        while (plan instanceof Operator) {
+            plan = ((Operator) plan).getChildren()[0];
+        }
+        assertTrue(plan instanceof SeqScan);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,222 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+    /**
+     * A filtered projection of a scan run in batches returns the same tuples
+     * as run a tuple at a time
+     */
+    @Test public void filterProject() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 3000, 100, null, tuples);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 50) {
+                expected.add(new ArrayList<Integer>(Arrays.asList(t.get(2), t.get(0))));
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)),
+                new SeqScan(tid, table.getId(), ""));
+        Project project = new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+                new Type[]{Type.INT_TYPE, Type.INT_TYPE}, filter);
+        SystemTestUtil.matchTuples(new BatchTupleAdapter(project), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * HashEquiJoin in batches, with more build rows than fit in its hash table at once
+     */
+    @Test public void hashEquiJoin() throws Exception {
+        final int buildRows = 20000; // the rows that fit in the memory budget
+        ArrayList<ArrayList<Integer>> tuples1 = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> tuples2 = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, buildRows + 5000, 1000, null, tuples1);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(2, 200, 1000, null, tuples2);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : tuples1) {
+            for (ArrayList<Integer> t2 : tuples2) {
+                if (t1.get(0).equals(t2.get(1))) {
+                    ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                    out.addAll(t2);
+                    expected.add(out);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, table1.getId(), "a"), new SeqScan(tid, table2.getId(), "b"),
+                buildRows * table1.getTupleDesc().getSize());
+        BatchTupleAdapter tuples = new BatchTupleAdapter(join);
+        SystemTestUtil.matchTuples(tuples, expected);
+        // again after a rewind
+        tuples.open();
+        tuples.rewind();
+        int count = 0;
+        while (tuples.hasNext()) {
+            tuples.next();
+            count++;
+        }
+        tuples.close();
+        assertEquals(expected.size(), count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Aggregates merged a batch at a time equal the aggregates merged a tuple at a time
+     */
+    @Test public void aggregate() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, 20, null, tuples);
+        TransactionId tid = new TransactionId();
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+            for (int gfield : new int[]{Aggregator.NO_GROUPING, 0}) {
+                IntegerAggregator reference = new IntegerAggregator(gfield,
+                        gfield == Aggregator.NO_GROUPING ? null : Type.INT_TYPE, 1, op);
+                DbFileIterator it = table.iterator(tid);
+                it.open();
+                while (it.hasNext()) {
+                    reference.mergeTupleIntoGroup(it.next());
+                }
+                it.close();
+                ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+                OpIterator results = reference.iterator();
+                results.open();
+                while (results.hasNext()) {
+                    expected.add(SystemTestUtil.tupleToList(results.next()));
+                }
+
+                Aggregate aggregate = new Aggregate(new SeqScan(tid, table.getId(), ""), 1, gfield, op);
+                SystemTestUtil.matchTuples(aggregate, expected);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * @return the bytes allocated by the current thread to sum the second
+     *         field of the tuples of table whose first field is below 500
+     */
+    private static long sumAllocatedBytes(com.sun.management.ThreadMXBean threads, HeapFile table,
+            ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 500) {
+                expected += t.get(1);
+            }
+        }
+        TransactionId tid = new TransactionId();
+        Aggregate sum = new Aggregate(new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500)),
+                new SeqScan(tid, table.getId(), "")), 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        final long threadId = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(threadId);
+        sum.open();
+        final Tuple result = sum.next();
+        sum.close();
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertEquals(expected, ((IntField) result.getField(0)).getValue());
+        Database.getBufferPool().transactionComplete(tid);
+        return allocated;
+    }
+
+    /**
+     * A scan, filter and aggregate pipeline reads the pages straight into its
+     * batches: besides the pages read, it allocates nothing per row, where a
+     * Tuple, its record id and its fields take more than 64 bytes
+     */
+    @Test public void noTuplePerRow() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        ArrayList<ArrayList<Integer>> warmupTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile warmup = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, warmupTuples);
+        sumAllocatedBytes(threads, warmup, warmupTuples); // loads the classes
+
+        // fits in the buffer pool, whose pages are all read from the file
+        final int rows = 20000;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, rows, 1000, null, tuples);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        final long allocated = sumAllocatedBytes(threads, table, tuples);
+        assertTrue(allocated + " bytes allocated for " + rows + " rows", allocated < rows * 24L);
+    }
+
+    /**
+     * A scan in batches returns the tuples inserted by its transaction, not
+     * written into the data of their page yet, and skips the deleted ones
+     */
+    @Test public void scanModifiedPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1000, 1000, null, tuples);
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        scan.open();
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                deleted.add(t);
+            } else {
+                expected.add(SystemTestUtil.tupleToList(t));
+            }
+        }
+        scan.close();
+        for (Tuple t : deleted) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        for (int i = 0; i < 300; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[]{-i, i}));
+            expected.add(new ArrayList<Integer>(Arrays.asList(-i, i)));
+        }
+        SystemTestUtil.matchTuples(new BatchTupleAdapter(new SeqScan(tid, table.getId(), "")), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A filter removes rows through the selection vector, keeping the columns
+     */
+    @Test public void selectionVector() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        ArrayList<Tuple> list = new ArrayList<Tuple>();
+        for (int i = 0; i < 10; i++) {
+            list.add(Utility.getHeapTuple(new int[]{i, i * 10}));
+        }
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(7)),
+                new TupleIterator(td, list));
+        filter.open();
+        ColumnBatch batch = filter.nextBatch();
+        assertEquals(3, batch.size());
+        assertEquals(8, batch.row(1));
+        assertEquals(80, batch.getIntColumn(1)[batch.row(1)]);
+        assertNull(filter.nextBatch());
+        filter.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
@@ -0,0 +1,86 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+
+    /**
+     * @return the rows of t1 x t2 whose column col1 of t1 and column col2 of t2 satisfy op
+     */
+    private static ArrayList<ArrayList<Integer>> nestedLoopJoin(ArrayList<ArrayList<Integer>> tuples1,
+            ArrayList<ArrayList<Integer>> tuples2, int col1, Predicate.Op op, int col2) {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : tuples1) {
+            for (ArrayList<Integer> t2 : tuples2) {
+                if (new IntField(t1.get(col1)).compare(op, new IntField(t2.get(col2)))) {
+                    ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                    out.addAll(t2);
+                    expected.add(out);
+                }
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * BlockNestedLoopJoin returns the same rows as nested loops, with one
+     * block or several
+     */
+    @Test public void blocks() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples1 = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> tuples2 = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 1200, 1000, null, tuples1);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, 15, 1000, null, tuples2);
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ}) {
+            ArrayList<ArrayList<Integer>> expected = nestedLoopJoin(tuples1, tuples2, 0, op, 1);
+            for (int blockPages : new int[]{BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES, 1}) {
+                BlockNestedLoopJoin join = new BlockNestedLoopJoin(new JoinPredicate(0, op, 1),
+                        new SeqScan(tid, table1.getId(), "a"), new SeqScan(tid, table2.getId(), "b"), blockPages);
+                SystemTestUtil.matchTuples(join, expected);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * child2 is read once per block of child1, again after a rewind
+     */
+    @Test public void passes() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples1 = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null, tuples1);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(2, 20, 100, null, new ArrayList<ArrayList<Integer>>());
+        final int tuplesPerPage = (BufferPool.getPageSize() * 8) / (table1.getTupleDesc().getSize() * 8 + 1);
+        final int blocks = (2000 + 2 * tuplesPerPage - 1) / (2 * tuplesPerPage);
+        TransactionId tid = new TransactionId();
+        BlockNestedLoopJoin join = new BlockNestedLoopJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                new SeqScan(tid, table1.getId(), "a"), new SeqScan(tid, table2.getId(), "b"), 2);
+        join.open();
+        for (int pass = 0; pass < 2; pass++) {
+            while (join.hasNext()) {
+                join.next();
+            }
+            assertEquals(blocks, join.getPasses());
+            join.rewind();
+        }
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+    }
+}
@@ -0,0 +1,189 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final EvictionPolicy.Evictable ANY = new EvictionPolicy.Evictable() {
+        @Override
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    private static PageId pid(int pageNo) {
+        return new HeapPageId(-1, pageNo);
+    }
+
+    /**
+     * Adds pages 0..n-1 to the policy
+     */
+    private static void fill(EvictionPolicy policy, int n) {
+        for (int i = 0; i < n; i++) {
+            policy.pageAdded(pid(i));
+        }
+    }
+
+    /**
+     * CLOCK gives a second chance to pages referenced since the hand last passed
+     */
+    @Test public void clockSecondChance() {
+        EvictionPolicy policy = new ClockEvictionPolicy(3);
+        fill(policy, 3);
+        // the first sweep clears all bits, so the first page goes
+        assertEquals(pid(0), policy.evict(ANY));
+        policy.pageAdded(pid(3));
+        policy.pageAccessed(pid(1));
+        assertEquals(pid(2), policy.evict(ANY));
+        assertEquals(2, policy.size());
+        assertTrue(policy.contains(pid(1)));
+        assertFalse(policy.contains(pid(2)));
+    }
+
+    /**
+     * LRU-K evicts pages referenced fewer than K times before hot pages
+     */
+    @Test public void lruKPrefersColdPages() {
+        EvictionPolicy policy = new LruKEvictionPolicy(2);
+        fill(policy, 3);
+        policy.pageAccessed(pid(0));
+        policy.pageAccessed(pid(1));
+        // page 2 was only used once, even though it is the most recent
+        assertEquals(pid(2), policy.evict(ANY));
+        // then the page whose second to last access is the oldest
+        assertEquals(pid(0), policy.evict(ANY));
+        assertEquals(pid(1), policy.evict(ANY));
+        assertNull(policy.evict(ANY));
+    }
+
+    /**
+     * LRU-K, whose hits do not reorder the pages, evicts the same pages as
+     * a search of the page with the oldest K-th access over all the pages
+     */
+    @Test public void lruKMatchesFullSearch() {
+        final int k = 2;
+        EvictionPolicy policy = new LruKEvictionPolicy(k);
+        Map<PageId, List<Long>> accesses = new HashMap<PageId, List<Long>>();
+        Random r = new Random(3);
+        long clock = 0;
+        for (int step = 0; step < 20000; step++) {
+            PageId pid = pid(r.nextInt(40));
+            int action = r.nextInt(10);
+            if (action < 6) {
+                if (!accesses.containsKey(pid)) {
+                    accesses.put(pid, new ArrayList<Long>());
+                    policy.pageAdded(pid);
+                } else {
+                    policy.pageAccessed(pid);
+                }
+                accesses.get(pid).add(++clock);
+            } else if (action < 7) {
+                policy.pageRemoved(pid);
+                accesses.remove(pid);
+            } else {
+                final boolean even = r.nextBoolean();
+                PageId expected = null;
+                long[] best = null;
+                for (Map.Entry<PageId, List<Long>> e : accesses.entrySet()) {
+                    if (even && e.getKey().getPageNumber() % 2 != 0) {
+                        continue;
+                    }
+                    List<Long> times = e.getValue();
+                    long[] key = {times.size() < k ? 0 : times.get(times.size() - k), times.get(times.size() - 1)};
+                    if (best == null || key[0] < best[0] || (key[0] == best[0] && key[1] < best[1])) {
+                        best = key;
+                        expected = e.getKey();
+                    }
+                }
+                PageId victim = policy.evict(new EvictionPolicy.Evictable() {
+                    @Override
+                    public boolean canEvict(PageId p) {
+                        return !even || p.getPageNumber() % 2 == 0;
+                    }
+                });
+                assertEquals(expected, victim);
+                accesses.remove(expected);
+            }
+            assertEquals(accesses.size(), policy.size());
+        }
+    }
+
+    /**
+     * 2Q keeps reused pages in its main queue while a scan goes through the probation queue
+     */
+    @Test public void twoQueueScanResistance() {
+        EvictionPolicy policy = new TwoQueueEvictionPolicy(1, 4);
+        policy.pageAdded(pid(0));
+        assertEquals(pid(0), policy.evict(ANY));
+        // loaded again while remembered: page 0 is hot now
+        policy.pageAdded(pid(0));
+        for (int i = 1; i < 10; i++) {
+            policy.pageAdded(pid(i));
+            if (policy.size() > 2) {
+                assertFalse(pid(0).equals(policy.evict(ANY)));
+            }
+        }
+        assertTrue(policy.contains(pid(0)));
+    }
+
+    /**
+     * Pages that cannot be evicted are skipped, and null is returned if none can be evicted
+     */
+    @Test public void skipsPinnedPages() {
+        EvictionPolicy.Evictable onlyOdd = new EvictionPolicy.Evictable() {
+            @Override
+            public boolean canEvict(PageId pid) {
+                return pid.getPageNumber() % 2 == 1;
+            }
+        };
+        for (EvictionPolicy policy : new EvictionPolicy[]{new ClockEvictionPolicy(4),
+                new LruKEvictionPolicy(2), new TwoQueueEvictionPolicy(4)}) {
+            fill(policy, 4);
+            assertEquals(1, policy.evict(onlyOdd).getPageNumber() % 2);
+            assertEquals(1, policy.evict(onlyOdd).getPageNumber() % 2);
+            assertNull(policy.evict(onlyOdd));
+            assertEquals(2, policy.size());
+        }
+    }
+
+    /**
+     * The BufferPool counts its hits and misses
+     */
+    @Test public void bufferPoolHitRatio() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        PageId first = new HeapPageId(hf.getId(), 0);
+        pool.getPage(tid, first, Permissions.READ_ONLY);
+        pool.getPage(tid, first, Permissions.READ_ONLY);
+        pool.getPage(tid, first, Permissions.READ_ONLY);
+        pool.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(2, pool.getMissCount());
+        assertEquals(2, pool.getHitCount());
+        assertEquals(0.5, pool.getHitRatio(), 1e-9);
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    /**
+     * @return the rows of t1 x t2 whose column col1 of t1 equals column col2 of t2
+     */
+    private static ArrayList<ArrayList<Integer>> nestedLoopJoin(ArrayList<ArrayList<Integer>> tuples1,
+            ArrayList<ArrayList<Integer>> tuples2, int col1, int col2) {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : tuples1) {
+            for (ArrayList<Integer> t2 : tuples2) {
+                if (t1.get(col1).equals(t2.get(col2))) {
+                    ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                    out.addAll(t2);
+                    expected.add(out);
+                }
+            }
+        }
+        return expected;
+    }
+
+    private static int count(OpIterator it) throws Exception {
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * A build side larger than the budget is partitioned with the probe
+     * side, each child being read once, also after a rewind
+     */
+    @Test public void graceJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples1 = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> tuples2 = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, tuples1);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, tuples2);
+        ArrayList<ArrayList<Integer>> expected = nestedLoopJoin(tuples1, tuples2, 1, 0);
+
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), "a"), new SeqScan(tid, table2.getId(), "b"),
+                200 * table1.getTupleDesc().getSize());
+        join.open();
+        assertEquals(expected.size(), count(join));
+        assertTrue(join.getPartitionCount() > 1);
+        assertEquals(5000, join.getSpilledRows());
+        join.rewind();
+        assertEquals(expected.size(), count(join));
+        assertEquals(5000, join.getSpilledRows());
+        join.close();
+
+        join = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), "a"), new SeqScan(tid, table2.getId(), "b"),
+                200 * table1.getTupleDesc().getSize());
+        SystemTestUtil.matchTuples(join, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A partition larger than the budget, made of a single key, is joined
+     * a part at a time
+     */
+    @Test public void skewedPartition() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        ArrayList<Tuple> build = new ArrayList<Tuple>();
+        for (int i = 0; i < 500; i++) {
+            build.add(Utility.getHeapTuple(new int[]{i, i < 450 ? 7 : i}));
+        }
+        ArrayList<Tuple> probe = new ArrayList<Tuple>();
+        for (int i = 0; i < 10; i++) {
+            probe.add(Utility.getHeapTuple(new int[]{i % 2 == 0 ? 7 : 460 + i, i}));
+        }
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new TupleIterator(td, build), new TupleIterator(td, probe), 100 * td.getSize());
+        join.open();
+        assertEquals(5 * 450 + 5, count(join));
+        assertTrue(join.getBuildPasses() > join.getPartitionCount());
+        join.close();
+    }
+
+    /**
+     * A build side within the budget is joined in memory
+     */
+    @Test public void inMemory() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples1 = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> tuples2 = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 1000, 100, null, tuples1);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, 300, 100, null, tuples2);
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 2),
+                new SeqScan(tid, table1.getId(), "a"), new SeqScan(tid, table2.getId(), "b"));
+        SystemTestUtil.matchTuples(join, nestedLoopJoin(tuples1, tuples2, 0, 2));
+        join.open();
+        count(join);
+        assertEquals(0, join.getPartitionCount());
+        assertEquals(1, join.getBuildPasses());
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.FileOutputStream;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -77,6 +78,65 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Pages written after the file has been read, through the HeapFile or
+     * directly to the file, must be visible to numPages() and readPage()
+     */
+    @Test
+    public void readPageAfterAppend() throws Exception {
+        hf.readPage(new HeapPageId(hf.getId(), 0));
+        hf.appendEmptyPage();
+        assertEquals(2, hf.numPages());
+
+        FileOutputStream out = new FileOutputStream(hf.getFile(), true);
+        out.write(HeapPage.createEmptyPageData());
+        out.close();
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 2));
+        assertEquals(504, page.getNumEmptySlots());
+        assertEquals(3, hf.numPages());
+    }
+
+    /**
+     * Scanning a table larger than the BufferPool must not evict the pages cached in it
+     */
+    @Test
+    public void largeScanKeepsCachedPages() throws Exception {
+        HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, null);
+        BufferPool pool = Database.resetBufferPool(5);
+        HeapPageId hot = new HeapPageId(hf.getId(), 0);
+        pool.getPage(tid, hot, Permissions.READ_ONLY);
+
+        DbFileIterator it = bigFile.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count += 1;
+        }
+        it.close();
+        assertEquals(504 * 20, count);
+
+        long misses = pool.getMissCount();
+        pool.getPage(tid, hot, Permissions.READ_ONLY);
+        assertEquals(misses, pool.getMissCount());
+    }
+
+    /**
+     * A sequential scan reads the next pages ahead, and each page is read only once
+     */
+    @Test
+    public void scanReadsAhead() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile tenPages = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, tuples);
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        SystemTestUtil.matchTuples(tenPages, tuples);
+        assertEquals(10, pool.getMissCount());
+        if (pool.getPrefetchDepth() > 0) {
+            assertTrue(pool.getPrefetcher().getUsedCount() > 0);
+        }
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -126,6 +126,30 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Modifying a page leaves its before image untouched, and the modified
+     * page round-trips through getPageData
+     */
+    @Test public void beforeImageCopyOnWrite() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        Tuple addition = Utility.getHeapTuple(new int[]{7, 8});
+        page.insertTuple(addition);
+        page.insertTuple(Utility.getHeapTuple(new int[]{9, 10}));
+
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+        assertTrue(TestUtil.compareTuples(first, page.getBeforeImage().iterator().next()));
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(free - 1, copy.getNumEmptySlots());
+        assertTrue(TestUtil.compareTuples(addition, copy.iterator().next()));
+
+        page.setBeforeImage();
+        assertEquals(free - 1, page.getBeforeImage().getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,60 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntHashMapTest extends SimpleDbTestBase {
+
+    /**
+     * The table holds the same values as a HashMap, while growing, with
+     * negative keys and keys colliding in the low bits
+     */
+    @Test public void putGet() {
+        IntHashMap map = new IntHashMap();
+        Map<Integer, Integer> reference = new HashMap<Integer, Integer>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            final int key = (i % 3 == 0) ? (random.nextInt(2000) - 1000) << 16 : random.nextInt();
+            final Integer previous = reference.put(key, i);
+            assertEquals(previous == null ? IntHashMap.MISSING : previous.intValue(), map.put(key, i));
+        }
+        assertEquals(reference.size(), map.size());
+        for (Map.Entry<Integer, Integer> entry : reference.entrySet()) {
+            assertEquals(entry.getValue().intValue(), map.get(entry.getKey()));
+        }
+        assertEquals(IntHashMap.MISSING, map.get(7 << 20 | 1));
+    }
+
+    /**
+     * putIfAbsent keeps the first value of a key, and clear empties the table
+     */
+    @Test public void putIfAbsentClear() {
+        IntHashMap map = new IntHashMap(4);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(IntHashMap.MISSING, map.putIfAbsent(i * 1024, i));
+        }
+        assertEquals(3, map.putIfAbsent(3 * 1024, 500));
+        assertEquals(3, map.get(3 * 1024));
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(IntHashMap.MISSING, map.get(3 * 1024));
+        assertEquals(IntHashMap.MISSING, map.put(3 * 1024, 0));
+        assertEquals(0, map.get(3 * 1024));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntHashMapTest.class);
+    }
+}
@@ -126,6 +126,34 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test SUM_COUNT, the partial state of a distributed AVG, and SC_AVG
+   * merging the states of several nodes
+   */
+  @Test public void mergeSumCount() throws Exception {
+    scan1.open();
+    IntegerAggregator partial = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM_COUNT);
+    while (scan1.hasNext()) {
+      partial.mergeTupleIntoGroup(scan1.next());
+    }
+    OpIterator it = partial.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+        new int[] { 1, 12, 3,  3, 12, 3,  5, 7, 1 }), it);
+
+    // the partial states of two nodes merge into the average of each group
+    IntegerAggregator combined = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SC_AVG);
+    for (int node = 0; node < 2; node++) {
+      it.rewind();
+      while (it.hasNext()) {
+        combined.mergeTupleIntoGroup(it.next());
+      }
+    }
+    it = combined.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, new int[] { 1, 4,  3, 4,  5, 7 }), it);
+  }
+
   /**
    * Test IntegerAggregator.iterator() for OpIterator behaviour
    */
@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MultiAggregateTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] OPS = {Aggregator.Op.COUNT, Aggregator.Op.SUM,
+            Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.SUM_COUNT};
+
+    /**
+     * Several aggregates computed in one pass equal the aggregates computed
+     * one at a time, joined on their group
+     */
+    @Test public void matchesAggregate() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 3000, 20, null, tuples);
+        TransactionId tid = new TransactionId();
+        final int[] afields = {1, 2, 2, 1, 2, 1};
+        for (int gfield : new int[]{Aggregator.NO_GROUPING, 0}) {
+            // group -> expected row
+            Map<Integer, ArrayList<Integer>> rows = new HashMap<Integer, ArrayList<Integer>>();
+            for (int i = 0; i < OPS.length; i++) {
+                Aggregate aggregate = new Aggregate(new SeqScan(tid, table.getId(), ""), afields[i], gfield, OPS[i]);
+                aggregate.open();
+                while (aggregate.hasNext()) {
+                    ArrayList<Integer> t = SystemTestUtil.tupleToList(aggregate.next());
+                    Integer group = (gfield == Aggregator.NO_GROUPING) ? null : t.get(0);
+                    ArrayList<Integer> row = rows.get(group);
+                    if (row == null) {
+                        row = new ArrayList<Integer>();
+                        if (group != null) {
+                            row.add(group);
+                        }
+                        rows.put(group, row);
+                    }
+                    row.addAll(t.subList(group == null ? 0 : 1, t.size()));
+                }
+                aggregate.close();
+            }
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(rows.values());
+
+            MultiAggregate multi = new MultiAggregate(new SeqScan(tid, table.getId(), ""), afields, OPS, gfield);
+            SystemTestUtil.matchTuples(multi, expected);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MultiAggregateTest.class);
+    }
+}
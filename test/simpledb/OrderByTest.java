@@ -0,0 +1,92 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    /**
+     * Reads all the tuples of an open iterator
+     */
+    private static List<ArrayList<Integer>> readAll(OpIterator it) throws Exception {
+        List<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        while (it.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        return result;
+    }
+
+    /**
+     * OrderBy sorts stably in memory, with runs merged in one pass, and with
+     * more runs than its fan-in, in both orders and again after a rewind
+     */
+    @Test public void sortInt() throws Exception {
+        final ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, 500, null, tuples);
+        TransactionId tid = new TransactionId();
+        for (final boolean asc : new boolean[]{true, false}) {
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(tuples);
+            Collections.sort(expected, new Comparator<ArrayList<Integer>>() { // stable
+                @Override
+                public int compare(ArrayList<Integer> t1, ArrayList<Integer> t2) {
+                    return asc ? t1.get(1).compareTo(t2.get(1)) : t2.get(1).compareTo(t1.get(1));
+                }
+            });
+            final int tupleSize = table.getTupleDesc().getSize();
+            for (long memoryBytes : new long[]{OrderBy.DEFAULT_MEMORY_BYTES, 1000 * tupleSize, 100 * tupleSize}) {
+                OrderBy orderBy = new OrderBy(1, asc, new SeqScan(tid, table.getId(), ""), memoryBytes);
+                orderBy.open();
+                assertEquals(expected, readAll(orderBy));
+                orderBy.rewind();
+                assertEquals(expected, readAll(orderBy));
+                orderBy.close();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * OrderBy sorts on a STRING_TYPE field through runs on disk
+     */
+    @Test public void sortString() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 500; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("s" + ((i * 7919) % 500), Type.STRING_LEN));
+            tuples.add(t);
+        }
+        OrderBy orderBy = new OrderBy(1, true, new TupleIterator(td, tuples), 20 * td.getSize());
+        orderBy.open();
+        String previous = "";
+        int count = 0;
+        while (orderBy.hasNext()) {
+            String s = ((StringField) orderBy.next().getField(1)).getValue();
+            assertFalse(s.compareTo(previous) < 0);
+            previous = s;
+            count++;
+        }
+        assertEquals(500, count);
+        orderBy.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
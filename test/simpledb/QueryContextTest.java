@@ -0,0 +1,92 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class QueryContextTest extends SimpleDbTestBase {
+
+    @After public void detach() {
+        QueryContext.detach();
+    }
+
+    /**
+     * A cancelled query fails at the next pass of a nested loop join over its inner child
+     */
+    @Test public void cancelJoin() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 100, 10, null, new ArrayList<ArrayList<Integer>>());
+        TransactionId tid = new TransactionId();
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.GREATER_THAN_OR_EQ, 0),
+                new SeqScan(tid, table.getId(), "a"), new SeqScan(tid, table.getId(), "b"));
+        QueryContext context = new QueryContext(1, 0);
+        context.attach();
+        join.open();
+        assertTrue(join.hasNext());
+        context.cancel();
+        try {
+            while (join.hasNext()) {
+                join.next();
+            }
+            fail("expected QueryCancelledException");
+        } catch (QueryCancelledException e) {
+            assertEquals("Query 1 cancelled", e.getMessage());
+        }
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A query past its deadline fails at the next page of a scan
+     */
+    @Test public void deadline() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, 10, null, new ArrayList<ArrayList<Integer>>());
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        QueryContext context = new QueryContext(2, 1);
+        assertTrue(context.hasDeadline());
+        context.attach();
+        Thread.sleep(5);
+        assertEquals(0, context.remainingMillis());
+        try {
+            scan.open();
+            while (scan.hasNext()) {
+                scan.next();
+            }
+            fail("expected QueryCancelledException");
+        } catch (QueryCancelledException e) {
+            assertEquals("Query 2 timed out", e.getMessage());
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Without a context, or with a context neither cancelled nor past its deadline, queries run to the end
+     */
+    @Test public void noContext() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, 10, null, tuples);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new SeqScan(tid, table.getId(), ""), tuples);
+        new QueryContext(3, 60000).attach();
+        SystemTestUtil.matchTuples(new SeqScan(tid, table.getId(), ""), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryContextTest.class);
+    }
+}
@@ -0,0 +1,168 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import global.Global;
+import networking.Machine;
+import networking.NodeServer;
+import querytree.QueryParser;
+import querytree.QueryTree;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Runs shuffle joins on several nodes of this JVM. The nodes share the catalog, so every node holds
+ * a copy of each table and the query reads NODES copies of it.
+ */
+public class ShuffleJoinTest extends SimpleDbTestBase {
+
+    private static final int NODES = 3;
+
+    private final ArrayList<ArrayList<Integer>> a = new ArrayList<ArrayList<Integer>>();
+    private final ArrayList<ArrayList<Integer>> b = new ArrayList<ArrayList<Integer>>();
+    private final ArrayList<ArrayList<Integer>> c = new ArrayList<ArrayList<Integer>>();
+    private final List<NodeServer> nodes = new ArrayList<NodeServer>();
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Database.getCatalog().addTable(SystemTestUtil.createRandomHeapFile(2, 40, 10, null, a), "a");
+        Database.getCatalog().addTable(SystemTestUtil.createRandomHeapFile(2, 20, 10, null, b), "b");
+        Database.getCatalog().addTable(SystemTestUtil.createRandomHeapFile(2, 20, 10, null, c), "c");
+        Database.getBufferPool().transactionComplete(Global.TRANSACTION_ID);
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(new NodeServer(freePort()));
+        }
+        for (NodeServer node : nodes) {
+            for (NodeServer peer : nodes) {
+                if (peer != node) {
+                    node.addReference(new Machine(Global.LOCALHOST, peer.getPort()));
+                }
+            }
+            node.startListen();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * The rows of the query, run on every node like the head node does
+     */
+    private List<ArrayList<Integer>> run(String query) throws Exception {
+        List<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < NODES; i++) {
+            QueryTree tree = QueryParser.parse(nodes.get(i), query).forPartition(i, NODES);
+            OpIterator it = tree.getRootOp();
+            it.open();
+            while (it.hasNext()) {
+                rows.add(SystemTestUtil.tupleToList(it.next()));
+            }
+            it.close();
+        }
+        return sorted(rows);
+    }
+
+    /**
+     * a JOIN b ON a.1 = b.0 JOIN c ON b.1 = c.0, with every row read once per copy of each table
+     */
+    private List<ArrayList<Integer>> expectedJoin() {
+        List<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> ta : a) {
+            for (ArrayList<Integer> tb : b) {
+                for (ArrayList<Integer> tc : c) {
+                    if (ta.get(1).equals(tb.get(0)) && tb.get(1).equals(tc.get(0))) {
+                        for (int copies = 0; copies < NODES * NODES * NODES; copies++) {
+                            ArrayList<Integer> row = new ArrayList<Integer>(ta);
+                            row.addAll(tb);
+                            row.addAll(tc);
+                            rows.add(row);
+                        }
+                    }
+                }
+            }
+        }
+        return sorted(rows);
+    }
+
+    private static List<ArrayList<Integer>> sorted(List<ArrayList<Integer>> rows) {
+        Collections.sort(rows, new Comparator<ArrayList<Integer>>() {
+            @Override
+            public int compare(ArrayList<Integer> r1, ArrayList<Integer> r2) {
+                for (int i = 0; i < r1.size(); i++) {
+                    int c = r1.get(i).compareTo(r2.get(i));
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+                return 0;
+            }
+        });
+        return rows;
+    }
+
+    /**
+     * The inner join is an input gathered by the outer one: every node returns its own share of it,
+     * which the outer join partitions again on another column
+     */
+    @Test public void nestedShuffleJoin() throws Exception {
+        assertEquals(expectedJoin(),
+                run("SHUFFLE_JOIN(SHUFFLE_JOIN(SCAN(a), SCAN(b), 1 = 0), SCAN(c), 3 = 0)"));
+    }
+
+    /**
+     * A shuffle join replicated by a broadcast join is gathered once from every node
+     */
+    @Test public void broadcastShuffleJoin() throws Exception {
+        assertEquals(expectedJoin(),
+                run("BROADCAST_JOIN(SHUFFLE_JOIN(SCAN(a), SCAN(b), 1 = 0), SCAN(c), 3 = 0, LEFT)"));
+    }
+
+    /**
+     * The partial counts of a shuffle join are only counted once
+     */
+    @Test public void shuffleAggregateOfShuffleJoin() throws Exception {
+        int[] counts = new int[10];
+        for (ArrayList<Integer> ta : a) {
+            for (ArrayList<Integer> tb : b) {
+                if (ta.get(1).equals(tb.get(0))) {
+                    counts[tb.get(1)] += NODES * NODES;
+                }
+            }
+        }
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int group = 0; group < counts.length; group++) {
+            if (counts[group] > 0) {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                row.add(group);
+                row.add(counts[group]);
+                expected.add(row);
+            }
+        }
+        assertEquals(expected, run("SHUFFLE_AGGREGATE(SHUFFLE_JOIN(SCAN(a), SCAN(b), 1 = 0), 0, COUNT, 3)"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ShuffleJoinTest.class);
+    }
+}
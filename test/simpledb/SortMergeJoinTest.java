@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    /**
+     * @return the rows of t1 x t2 whose column col1 of t1 and column col2 of t2 satisfy op
+     */
+    private static ArrayList<ArrayList<Integer>> nestedLoopJoin(ArrayList<ArrayList<Integer>> tuples1,
+            ArrayList<ArrayList<Integer>> tuples2, int col1, Predicate.Op op, int col2) {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : tuples1) {
+            for (ArrayList<Integer> t2 : tuples2) {
+                if (new IntField(t1.get(col1)).compare(op, new IntField(t2.get(col2)))) {
+                    ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                    out.addAll(t2);
+                    expected.add(out);
+                }
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * SortMergeJoin returns the same rows as nested loops for every predicate,
+     * with keys repeated on both sides, in memory and through sorted runs on disk
+     */
+    @Test public void allPredicates() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples1 = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> tuples2 = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, tuples1);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(3, 200, 100, null, tuples2);
+        TransactionId tid = new TransactionId();
+        final int tupleSize = table2.getTupleDesc().getSize();
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ,
+                Predicate.Op.NOT_EQUALS}) {
+            ArrayList<ArrayList<Integer>> expected = nestedLoopJoin(tuples1, tuples2, 1, op, 2);
+            for (long memoryBytes : new long[]{SortMergeJoin.DEFAULT_MEMORY_BYTES, 30 * tupleSize}) {
+                SortMergeJoin join = new SortMergeJoin(new JoinPredicate(1, op, 2),
+                        new SeqScan(tid, table1.getId(), "a"), new SeqScan(tid, table2.getId(), "b"), memoryBytes);
+                SystemTestUtil.matchTuples(join, expected);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An equality join returns its rows in the order of the join field, again
+     * after a rewind
+     */
+    @Test public void equalOrderRewind() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples1 = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> tuples2 = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(2, 500, 50, null, tuples1);
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(2, 500, 50, null, tuples2);
+        final int expected = nestedLoopJoin(tuples1, tuples2, 0, Predicate.Op.EQUALS, 0).size();
+        TransactionId tid = new TransactionId();
+        SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), "a"), new SeqScan(tid, table2.getId(), "b"),
+                20 * table2.getTupleDesc().getSize());
+        join.open();
+        for (int pass = 0; pass < 2; pass++) {
+            int count = 0;
+            int previous = Integer.MIN_VALUE;
+            while (join.hasNext()) {
+                Tuple t = join.next();
+                final int key = ((IntField) t.getField(0)).getValue();
+                assertEquals(key, ((IntField) t.getField(2)).getValue());
+                assertTrue(key >= previous);
+                previous = key;
+                count++;
+            }
+            assertEquals(expected, count);
+            join.rewind();
+        }
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
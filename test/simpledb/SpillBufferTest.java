@@ -0,0 +1,103 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SpillBufferTest extends SimpleDbTestBase {
+
+    private static ArrayList<ArrayList<Integer>> fill(SpillBuffer buffer, int count) throws DbException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < count; i++) {
+            buffer.add(Utility.getHeapTuple(new int[]{i, -i}));
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(-i);
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    private static ArrayList<ArrayList<Integer>> read(DbFileIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        while (it.hasNext()) {
+            tuples.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        return tuples;
+    }
+
+    /**
+     * A buffer under its budget stays in memory
+     */
+    @Test public void inMemory() throws Exception {
+        SpillBuffer buffer = new SpillBuffer(Utility.getTupleDesc(2));
+        ArrayList<ArrayList<Integer>> expected = fill(buffer, 100);
+        assertFalse(buffer.isSpilled());
+        DbFileIterator it = buffer.iterator();
+        it.open();
+        assertEquals(expected, read(it));
+        it.rewind();
+        assertEquals(expected, read(it));
+        it.close();
+        buffer.close();
+    }
+
+    /**
+     * Over its budget, the buffer writes its tuples to a temporary file and
+     * replays them in order, including those of the last partial page
+     */
+    @Test public void spill() throws Exception {
+        SpillBuffer buffer = new SpillBuffer(Utility.getTupleDesc(2), 1000);
+        ArrayList<ArrayList<Integer>> expected = fill(buffer, 3000);
+        assertTrue(buffer.isSpilled());
+        assertEquals(3000, buffer.size());
+        DbFileIterator it = buffer.iterator();
+        it.open();
+        assertEquals(expected, read(it));
+        expected.addAll(fill(buffer, 10));
+        it.rewind();
+        assertEquals(expected, read(it));
+        it.close();
+        buffer.close();
+        assertEquals(0, buffer.size());
+    }
+
+    /**
+     * Replaying a spilled buffer writes its partial page once, until tuples
+     * are added to it again
+     */
+    @Test public void flushOnce() throws Exception {
+        SpillBuffer buffer = new SpillBuffer(Utility.getTupleDesc(2), 1000);
+        ArrayList<ArrayList<Integer>> expected = fill(buffer, 3000);
+        DbFileIterator it = buffer.iterator();
+        it.open();
+        long writes = buffer.getPageWrites();
+        for (int i = 0; i < 10; i++) {
+            it.rewind();
+            assertEquals(expected, read(it));
+        }
+        assertEquals(writes, buffer.getPageWrites());
+        expected.addAll(fill(buffer, 1));
+        it.rewind();
+        assertEquals(expected, read(it));
+        assertEquals(writes + 1, buffer.getPageWrites());
+        it.close();
+        buffer.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SpillBufferTest.class);
+    }
+}
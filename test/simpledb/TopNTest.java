@@ -0,0 +1,63 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TopNTest extends SimpleDbTestBase {
+
+    /**
+     * TopN returns the first n tuples of a sort of its child
+     */
+    @Test public void matchesOrderBy() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, tuples);
+        TransactionId tid = new TransactionId();
+        for (boolean asc : new boolean[]{true, false}) {
+            ArrayList<Integer> expected = new ArrayList<Integer>();
+            for (ArrayList<Integer> t : tuples) {
+                expected.add(t.get(1));
+            }
+            Collections.sort(expected, asc ? Comparator.<Integer>naturalOrder() : Comparator.<Integer>reverseOrder());
+
+            TopN top = new TopN(25, 1, asc, new SeqScan(tid, table.getId(), ""));
+            top.open();
+            for (int i = 0; i < 25; i++) {
+                assertEquals(expected.get(i).intValue(), ((IntField) top.next().getField(1)).getValue());
+            }
+            assertEquals(false, top.hasNext());
+            top.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Limit returns the first tuples of its child, and all of them when
+     * there are fewer
+     */
+    @Test public void limit() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 100, null, tuples);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new Limit(10, new SeqScan(tid, table.getId(), "")),
+                new ArrayList<ArrayList<Integer>>(tuples.subList(0, 10)));
+        SystemTestUtil.matchTuples(new Limit(1000, new SeqScan(tid, table.getId(), "")), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}